@@ -0,0 +1,109 @@
+package org.smartregister.repository;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.smartregister.util.Session;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Measures the throughput of {@link EventClientRepository#batchInsertEvents(JSONArray, long)} for
+ * batches of {@link #BATCH_SIZE} new and already existing events on a real SQLCipher database.
+ */
+public class EventClientRepositoryBenchmarkTest extends AndroidTestCase {
+
+    private static final String TAG = EventClientRepositoryBenchmarkTest.class.getCanonicalName();
+
+    private static final int BATCH_SIZE = 10000;
+
+    private SQLiteDatabase database;
+    private File databaseFile;
+    private EventClientRepository eventClientRepository;
+
+    @Override
+    protected void setUp() throws Exception {
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test_");
+        SQLiteDatabase.loadLibs(context);
+        databaseFile = context.getDatabasePath("events.db" + new Date().getTime());
+        databaseFile.getParentFile().mkdirs();
+        database = SQLiteDatabase.openOrCreateDatabase(databaseFile, "password", null);
+        EventClientRepository.createTable(database, EventClientRepository.Table.event, EventClientRepository.event_column.values());
+
+        Session session = new Session().setPassword("password").setRepositoryName(databaseFile.getName());
+        Repository repository = new Repository(context, session) {
+            @Override
+            public SQLiteDatabase getReadableDatabase() {
+                return database;
+            }
+
+            @Override
+            public SQLiteDatabase getWritableDatabase() {
+                return database;
+            }
+        };
+        eventClientRepository = new EventClientRepository(repository);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.close();
+        databaseFile.delete();
+    }
+
+    public void testBatchInsertAndUpdateOfTenThousandEvents() throws Exception {
+        JSONArray events = createEvents(BATCH_SIZE);
+
+        long insertRowsPerSecond = timeBatchInsert(events);
+        assertEquals(BATCH_SIZE, countEvents());
+
+        long updateRowsPerSecond = timeBatchInsert(events);
+        assertEquals(BATCH_SIZE, countEvents());
+
+        Log.i(TAG, String.format("Inserted %d events at %d rows/s, updated them at %d rows/s",
+                BATCH_SIZE, insertRowsPerSecond, updateRowsPerSecond));
+        assertTrue(insertRowsPerSecond > 0);
+        assertTrue(updateRowsPerSecond > 0);
+    }
+
+    public void testBatchInsertTreatsDuplicatesInTheSameBatchAsUpdates() throws Exception {
+        JSONArray events = createEvents(2);
+        events.put(new JSONObject(events.getJSONObject(0).toString()).put("eventType", "Updated"));
+
+        assertTrue(eventClientRepository.batchInsertEvents(events, 0));
+
+        assertEquals(2, countEvents());
+        assertEquals("Updated", eventClientRepository.getEventsByFormSubmissionId("form-submission-0").getString("eventType"));
+    }
+
+    private long timeBatchInsert(JSONArray events) {
+        long start = System.currentTimeMillis();
+        assertTrue(eventClientRepository.batchInsertEvents(events, 0));
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        return events.length() * 1000L / millis;
+    }
+
+    private long countEvents() {
+        return database.compileStatement("SELECT count(*) FROM " + EventClientRepository.Table.event.name()).simpleQueryForLong();
+    }
+
+    private JSONArray createEvents(int count) throws Exception {
+        JSONArray events = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            events.put(new JSONObject()
+                    .put("baseEntityId", "base-entity-" + (i % 1000))
+                    .put("formSubmissionId", "form-submission-" + i)
+                    .put("eventType", "Registration")
+                    .put("eventDate", "2018-01-01T00:00:00.000Z")
+                    .put("serverVersion", i + 1)
+                    .put("obs", new JSONArray()));
+        }
+        return events;
+    }
+}
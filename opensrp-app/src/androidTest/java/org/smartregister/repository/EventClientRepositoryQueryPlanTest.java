@@ -0,0 +1,135 @@
+package org.smartregister.repository;
+
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+
+import org.smartregister.repository.EventClientRepository.Table;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Fails when one of the sync queries of {@link EventClientRepository} falls back to a full table
+ * scan on tables of {@link #ROW_COUNT} rows. The queries are built by the repository itself.
+ */
+public class EventClientRepositoryQueryPlanTest extends AndroidTestCase {
+
+    private static final int ROW_COUNT = 100000;
+
+    private SQLiteDatabase database;
+    private File databaseFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        RenamingDelegatingContext context = new RenamingDelegatingContext(getContext(), "test_");
+        SQLiteDatabase.loadLibs(context);
+        databaseFile = context.getDatabasePath("query_plan.db" + new Date().getTime());
+        databaseFile.getParentFile().mkdirs();
+        database = SQLiteDatabase.openOrCreateDatabase(databaseFile, "password", null);
+        EventClientRepository.createTable(database, Table.event, Table.event.columns());
+        EventClientRepository.createTable(database, Table.client, Table.client.columns());
+        populate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        database.close();
+        databaseFile.delete();
+    }
+
+    public void testSyncQueriesDoNotScanTheEventTable() {
+        assertNoFullScan(EventClientRepository.eventClientsByServerVersionQuery(), "1", "500");
+        assertNoFullScan(EventClientRepository.eventClientsBySyncStatusQuery(), BaseRepository.TYPE_Synced, "2018-01-01 00:00:00");
+        assertNoFullScan(EventClientRepository.unSyncedEventsQuery(50), BaseRepository.TYPE_Unsynced);
+        assertNoFullScan(EventClientRepository.unValidatedEventsQuery(50), BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid);
+        assertNoFullScan(EventClientRepository.unprocessedEventsQuery("", 500), BaseRepository.TYPE_Unprocessed);
+        assertNoFullScan(EventClientRepository.unprocessedEventsQuery(EventClientRepository.SERVER_VERSION_RANGE, 500),
+                BaseRepository.TYPE_Unprocessed, "1", "500");
+        assertNoFullScan(EventClientRepository.unprocessedEventsCountQuery(""), BaseRepository.TYPE_Unprocessed);
+        assertNoFullScan(EventClientRepository.unprocessedEventsCountQuery(EventClientRepository.SERVER_VERSION_RANGE),
+                BaseRepository.TYPE_Unprocessed, "1", "500");
+        assertNoFullScan(EventClientRepository.existingKeysQuery(Table.event, EventClientRepository.event_column.formSubmissionId, 2),
+                "form-submission-1", "form-submission-2");
+    }
+
+    public void testSyncQueriesDoNotScanTheClientTable() {
+        assertNoFullScan(EventClientRepository.unValidatedClientsQuery(50), BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid);
+        assertNoFullScan(EventClientRepository.unSyncedClientQuery(), BaseRepository.TYPE_Unsynced, "base-entity-1");
+        assertNoFullScan(EventClientRepository.existingKeysQuery(Table.client, EventClientRepository.client_column.baseEntityId, 2),
+                "base-entity-1", "base-entity-2");
+    }
+
+    public void testUnSyncedEventsAreReadInIndexOrder() {
+        List<String> plan = explain(EventClientRepository.unSyncedEventsQuery(50), BaseRepository.TYPE_Unsynced);
+        for (String detail : plan) {
+            assertFalse("Unexpected sort: " + plan, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    private void assertNoFullScan(String query, String... args) {
+        List<String> plan = explain(query, args);
+        for (String detail : plan) {
+            assertFalse("Full table scan for " + query + ": " + plan,
+                    detail.startsWith("SCAN TABLE") && !detail.contains(" USING "));
+        }
+    }
+
+    private List<String> explain(String query, String... args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return plan;
+    }
+
+    private void populate() {
+        String[] statuses = {BaseRepository.TYPE_Synced, BaseRepository.TYPE_Unsynced, BaseRepository.TYPE_Unprocessed};
+        SQLiteStatement eventStatement = database.compileStatement("INSERT INTO event (formSubmissionId, baseEntityId, eventType, syncStatus, validationStatus, json, updatedAt, serverVersion) VALUES (?,?,?,?,?,?,?,?)");
+        SQLiteStatement clientStatement = database.compileStatement("INSERT INTO client (baseEntityId, syncStatus, validationStatus, json, updatedAt) VALUES (?,?,?,?,?)");
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                String updatedAt = String.format("2018-01-01 %02d:%02d:%02d", (i / 3600) % 24, (i / 60) % 60, i % 60);
+
+                eventStatement.clearBindings();
+                eventStatement.bindString(1, "form-submission-" + i);
+                eventStatement.bindString(2, "base-entity-" + i);
+                eventStatement.bindString(3, "Registration");
+                eventStatement.bindString(4, statuses[i % statuses.length]);
+                eventStatement.bindString(5, BaseRepository.TYPE_Valid);
+                eventStatement.bindString(6, "{\"formSubmissionId\":\"form-submission-" + i + "\"}");
+                eventStatement.bindString(7, updatedAt);
+                eventStatement.bindLong(8, i + 1);
+                eventStatement.executeInsert();
+
+                clientStatement.clearBindings();
+                clientStatement.bindString(1, "base-entity-" + i);
+                clientStatement.bindString(2, statuses[i % 2]);
+                clientStatement.bindString(3, BaseRepository.TYPE_Valid);
+                clientStatement.bindString(4, "{\"baseEntityId\":\"base-entity-" + i + "\"}");
+                clientStatement.bindString(5, updatedAt);
+                clientStatement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            eventStatement.close();
+            clientStatement.close();
+        }
+    }
+}
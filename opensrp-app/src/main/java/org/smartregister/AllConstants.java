@@ -405,6 +405,8 @@ public class AllConstants {
         public static final String TO_RESCHEDULE = "to_reschedule";
         public static final String SYNC_TOTAL_RECORDS = "sync_total_records";
         public static final String VALIDATED_RECORDS = "validated_records";
+        public static final String PROCESSED_RECORDS = "processed_records";
+        public static final String UNPROCESSED_RECORDS = "unprocessed_records";
         public static final String SETTING_CONFIGURATIONS = "settingConfigurations";
         public static final String IS_REMOTE_LOGIN = "is_remote_login";
     }
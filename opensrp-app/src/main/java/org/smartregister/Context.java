@@ -55,6 +55,7 @@ import org.smartregister.service.FormSubmissionSyncService;
 import org.smartregister.service.HTTPAgent;
 import org.smartregister.service.MotherService;
 import org.smartregister.service.PendingFormSubmissionService;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.service.ServiceProvidedService;
 import org.smartregister.service.UserService;
 import org.smartregister.service.ZiggyFileLoader;
@@ -92,6 +93,7 @@ import org.smartregister.util.Cache;
 import org.smartregister.util.Session;
 import org.smartregister.view.activity.DrishtiApplication;
 import org.smartregister.view.contract.ANCClients;
+import org.smartregister.view.contract.ECClient;
 import org.smartregister.view.contract.ECClients;
 import org.smartregister.view.contract.FPClients;
 import org.smartregister.view.contract.HomeContext;
@@ -112,6 +114,8 @@ import static android.preference.PreferenceManager.getDefaultSharedPreferences;
 
 public class Context {
     private static final String TAG = "Context";
+    // clients held by each cache of register client lists, the most recent list is always kept
+    private static final int MAX_CACHED_CLIENTS = 5000;
     ///////////////////common bindtypes///////////////
     public static ArrayList<CommonRepositoryInformationHolder> bindtypes;
     private static Context context = new Context();
@@ -146,6 +150,7 @@ public class Context {
     private ZiggyService ziggyService;
     private UserService userService;
     private AlertService alertService;
+    private RegisterCountService registerCountService;
     private EligibleCoupleService eligibleCoupleService;
     private MotherService motherService;
     private ChildService childService;
@@ -159,6 +164,7 @@ public class Context {
     private Cache<SmartRegisterClients> smartRegisterClientsCache;
     private Cache<HomeContext> homeContextCache;
     private Cache<ECClients> ecClientsCache;
+    private Cache<ECClient> ecClientCache;
     private Cache<FPClients> fpClientsCache;
     private Cache<ANCClients> ancClientsCache;
     private Cache<PNCClients> pncClientsCache;
@@ -741,6 +747,13 @@ public class Context {
         return alertService;
     }
 
+    public RegisterCountService registerCountService() {
+        if (registerCountService == null) {
+            registerCountService = new RegisterCountService();
+        }
+        return registerCountService;
+    }
+
     public ServiceProvidedService serviceProvidedService() {
         if (serviceProvidedService == null) {
             serviceProvidedService = new ServiceProvidedService(allServicesProvided());
@@ -796,7 +809,7 @@ public class Context {
 
     public Cache<SmartRegisterClients> smartRegisterClientsCache() {
         if (smartRegisterClientsCache == null) {
-            smartRegisterClientsCache = new Cache<SmartRegisterClients>();
+            smartRegisterClientsCache = new Cache<SmartRegisterClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         }
         return smartRegisterClientsCache;
     }
@@ -844,18 +857,25 @@ public class Context {
     //#TODO: Refactor to use one cache object
     public Cache<ECClients> ecClientsCache() {
         if (ecClientsCache == null) {
-            ecClientsCache = new Cache<ECClients>();
+            ecClientsCache = new Cache<ECClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         }
         return ecClientsCache;
 
     }
 
+    public Cache<ECClient> ecClientCache() {
+        if (ecClientCache == null) {
+            ecClientCache = new Cache<ECClient>(MAX_CACHED_CLIENTS);
+        }
+        return ecClientCache;
+    }
+
     //#TODO: Refactor to use one cache object
 
     //#TODO: Refactor to use one cache object
     public Cache<FPClients> fpClientsCache() {
         if (fpClientsCache == null) {
-            fpClientsCache = new Cache<FPClients>();
+            fpClientsCache = new Cache<FPClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         }
         return fpClientsCache;
 
@@ -863,14 +883,14 @@ public class Context {
 
     public Cache<ANCClients> ancClientsCache() {
         if (ancClientsCache == null) {
-            ancClientsCache = new Cache<ANCClients>();
+            ancClientsCache = new Cache<ANCClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         }
         return ancClientsCache;
     }
 
     public Cache<PNCClients> pncClientsCache() {
         if (pncClientsCache == null) {
-            pncClientsCache = new Cache<PNCClients>();
+            pncClientsCache = new Cache<PNCClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         }
         return pncClientsCache;
     }
@@ -908,7 +928,7 @@ public class Context {
     ///////////////////////////////// common methods ///////////////////////////////
     public Cache<CommonPersonObjectClients> personObjectClientsCache() {
         this.personObjectClientsCache = null;
-        personObjectClientsCache = new Cache<CommonPersonObjectClients>();
+        personObjectClientsCache = new Cache<CommonPersonObjectClients>(MAX_CACHED_CLIENTS, Cache.COLLECTION_SIZE);
         return personObjectClientsCache;
     }
 
@@ -1055,8 +1075,11 @@ public class Context {
         this.repository = repository;
     }
 
+    /**
+     * @return the agent shared by all sync services so that they reuse its pooled connections
+     */
     public HTTPAgent getHttpAgent() {
-        return httpAgent;
+        return httpAgent();
     }
 
     public Context updateCommonFtsObject(CommonFtsObject commonFtsObject) {
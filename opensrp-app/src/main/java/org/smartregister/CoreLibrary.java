@@ -7,6 +7,7 @@ import org.smartregister.authorizer.P2PSyncAuthorizationService;
 import org.smartregister.p2p.P2PLibrary;
 import org.smartregister.p2p.authorizer.P2PAuthorizationService;
 import org.smartregister.repository.AllSharedPreferences;
+import org.smartregister.repository.EventClientRepository;
 
 import static android.preference.PreferenceManager.getDefaultSharedPreferences;
 
@@ -74,6 +75,9 @@ public class CoreLibrary {
         this.syncConfiguration = syncConfiguration;
         this.enableP2pLibrary = enableP2pLibrary;
         this.p2PAuthorizationService = authorizationService;
+        if (syncConfiguration != null) {
+            EventClientRepository.setJsonStorageCodec(syncConfiguration.getJsonStorageCodec());
+        }
 
         initP2pLibrary(null);
     }
@@ -21,6 +21,8 @@ public class DristhiConfiguration {
     protected static final String SYNC_DOWNLOAD_BATCH_SIZE = "SYNC_DOWNLOAD_BATCH_SIZE";
     protected static final String APP_NAME = "APP_NAME";
     protected static final String SYNC_FORM = "SYNC_FORM";
+    protected static final String GZIP_REQUESTS = "GZIP_REQUESTS";
+    protected static final String GZIP_RESPONSES = "GZIP_RESPONSES";
     protected static AllSharedPreferences preferences;
     protected Properties properties = new Properties();
     protected String dummyData = null;
@@ -74,6 +76,22 @@ public class DristhiConfiguration {
         return this.get(SYNC_FORM) != null && Boolean.parseBoolean(this.get(SYNC_FORM));
     }
 
+    /**
+     * Whether request bodies are sent gzipped. Off by default since the server has to accept
+     * Content-Encoding: gzip request bodies.
+     */
+    public boolean shouldGzipRequests() {
+        return this.get(GZIP_REQUESTS) != null && Boolean.parseBoolean(this.get(GZIP_REQUESTS));
+    }
+
+    /**
+     * Whether gzipped responses are requested. On by default, servers that do not compress simply
+     * answer uncompressed.
+     */
+    public boolean shouldGzipResponses() {
+        return this.get(GZIP_RESPONSES) == null || Boolean.parseBoolean(this.get(GZIP_RESPONSES));
+    }
+
     public DrishtiApplication getDrishtiApplication() {
         return DrishtiApplication.getInstance();
     }
@@ -1,5 +1,8 @@
 package org.smartregister;
 
+import org.smartregister.repository.JsonStorageCodec;
+import org.smartregister.sync.helper.BatchSizeController;
+
 /**
  * Created by samuelgithengi on 10/19/18.
  */
@@ -31,6 +34,57 @@ public abstract class SyncConfiguration {
         return false;
     }
 
+    /**
+     * Controls how many events are requested per page when pulling from the server. Override to
+     * change the bounds, or return a controller whose min and max are equal to fix the page size.
+     *
+     * @return a new controller for a single sync run
+     */
+    public BatchSizeController getEventPullBatchSizeController() {
+        return new BatchSizeController(250, 50, 1000);
+    }
+
+    /**
+     * Controls how many events are sent per request when pushing to the server.
+     *
+     * @return a new controller for a single sync run
+     */
+    public BatchSizeController getEventPushBatchSizeController() {
+        return new BatchSizeController(50, 10, 250);
+    }
+
+    /**
+     * Number of threads {@link org.smartregister.sync.ClientProcessorForJava} processes events on.
+     * Events of the same client are always processed in order by one thread. Processors that
+     * write to the database outside of the processor write methods should keep the default of 1.
+     *
+     * @return threads to use, 1 to process events sequentially
+     */
+    public int getClientProcessingThreads() {
+        return 1;
+    }
+
+    /**
+     * Whether {@link org.smartregister.sync.ClientProcessorForJava} collects the register rows,
+     * details and search updates of a batch of events and writes them in one transaction after
+     * the batch, instead of writing as each event is processed. Only return true if the processor
+     * does not read the register or details rows it wrote earlier in the same batch, the buffered
+     * rows are not in the tables until the batch is flushed.
+     */
+    public boolean bufferClientProcessingWrites() {
+        return false;
+    }
+
+    /**
+     * Codec the event and client json is stored with. Rows stored in another format are still
+     * read and are converted by {@link org.smartregister.sync.intent.JsonStorageMigrationIntentService}.
+     *
+     * @return the codec, null to store plain text
+     */
+    public JsonStorageCodec getJsonStorageCodec() {
+        return null;
+    }
+
     public abstract SyncFilter getEncryptionParam();
 
     public abstract boolean updateClientDetailsTable();
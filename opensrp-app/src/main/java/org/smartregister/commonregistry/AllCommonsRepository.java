@@ -84,12 +84,9 @@ public class AllCommonsRepository {
         if (caseIds == null || caseIds.isEmpty()) {
             return remainingIds;
         }
-        Map<String, ContentValues> searchMap = new HashMap<String, ContentValues>();
+        Map<String, ContentValues> searchMap = personRepository.populateSearchValues(caseIds);
         for (String caseId : caseIds) {
-            ContentValues contentValues = personRepository.populateSearchValues(caseId);
-            if (contentValues != null) {
-                searchMap.put(caseId, contentValues);
-            } else {
+            if (!searchMap.containsKey(caseId)) {
                 remainingIds.add(caseId);
             }
         }
@@ -101,6 +98,22 @@ public class AllCommonsRepository {
         return remainingIds;
     }
 
+    /**
+     * Marks the search row of a case for a rebuild by {@link #updateDirtySearch()}
+     */
+    public void markSearchDirty(String caseId) {
+        personRepository.markSearchDirty(caseId);
+    }
+
+    /**
+     * Rebuilds the search rows of all the cases marked dirty in one batch
+     *
+     * @return ids of the marked cases whose search row could not be built
+     */
+    public List<String> updateDirtySearch() {
+        return personRepository.updateDirtySearch();
+    }
+
     public boolean updateSearch(String caseId) {
         if (StringUtils.isBlank(caseId)) {
             return false;
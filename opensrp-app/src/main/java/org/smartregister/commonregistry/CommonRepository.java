@@ -9,15 +9,21 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.smartregister.domain.AlertStatus;
 import org.smartregister.repository.DrishtiRepository;
 
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -35,6 +41,17 @@ public class CommonRepository extends DrishtiRepository {
     public static final String IS_CLOSED_COLUMN = "is_closed";
     public static final String BASE_ENTITY_ID_COLUMN = "base_entity_id";
     private static final String TAG = "CommonRepository";
+    private static final int MAX_QUERY_PARAMS = 500;
+    public static final String DIRTY_SEARCH_TABLE = "search_dirty_row";
+    private static final String DIRTY_SEARCH_REGISTER_COLUMN = "register_table";
+    private static final String DIRTY_SEARCH_CASE_COLUMN = "case_id";
+    private static final String DIRTY_SEARCH_SQL = "CREATE TABLE IF NOT EXISTS " + DIRTY_SEARCH_TABLE
+            + " (" + DIRTY_SEARCH_REGISTER_COLUMN + " VARCHAR NOT NULL, " + DIRTY_SEARCH_CASE_COLUMN
+            + " VARCHAR NOT NULL, PRIMARY KEY (" + DIRTY_SEARCH_REGISTER_COLUMN + ", "
+            + DIRTY_SEARCH_CASE_COLUMN + "))";
+    private static final Gson GSON = new Gson();
+    private static final Type DETAILS_TYPE = new TypeToken<Map<String, String>>() {
+    }.getType();
     public String TABLE_NAME = "common";
     public String[] common_TABLE_COLUMNS = new String[]{ID_COLUMN, Relational_ID, DETAILS_COLUMN,
             IS_CLOSED_COLUMN};
@@ -48,6 +65,7 @@ public class CommonRepository extends DrishtiRepository {
     private String common_Base_Entity_ID_INDEX_SQL = null;
     private String common_Custom_Relational_ID_INDEX_SQL = null;
     private CommonFtsObject commonFtsObject;
+    private volatile boolean dirtySearchTableCreated;
 
     public CommonRepository(String tablename, String[] columns) {
         super();
@@ -260,9 +278,7 @@ public class CommonRepository extends DrishtiRepository {
             }
             CommonPersonObject common = new CommonPersonObject(cursor.getString(0),
                     cursor.getString(1),
-                    new Gson().<Map<String, String>>fromJson(cursor.getString(2),
-                            new TypeToken<Map<String, String>>() {
-                            }.getType()), TABLE_NAME);
+                    GSON.<Map<String, String>>fromJson(cursor.getString(2), DETAILS_TYPE), TABLE_NAME);
             common.setClosed(cursor.getShort(cursor.getColumnIndex(IS_CLOSED_COLUMN)));
             common.setColumnmaps(columns);
 
@@ -420,6 +436,108 @@ public class CommonRepository extends DrishtiRepository {
         return id;
     }
 
+    /**
+     * Inserts or replaces several rows at once. Like {@link #executeInsertStatement(ContentValues,
+     * String)} the columns missing from a row keep the values stored for its base_entity_id, the
+     * stored rows are read with one query per 500 rows and rows with the
+     * same columns share a compiled statement.
+     *
+     * @param rows      rows to write, at most one per base_entity_id
+     * @param tableName register table
+     */
+    public void executeInsertStatements(Collection<ContentValues> rows, String tableName) {
+        if (rows == null || rows.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase database = masterRepository.getWritableDatabase();
+        Map<String, SQLiteStatement> statements = new HashMap<>();
+
+        database.beginTransaction();
+        try {
+            Map<String, Map<String, String>> storedRows = getRowsByBaseEntityIds(database, rows, tableName);
+            for (ContentValues row : rows) {
+                String baseEntityId = row.getAsString(BASE_ENTITY_ID_COLUMN);
+                ContentValues values = new ContentValues();
+                Map<String, String> storedRow = storedRows.get(baseEntityId);
+                if (storedRow != null) {
+                    for (Map.Entry<String, String> entry : storedRow.entrySet()) {
+                        values.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                values.putAll(row);
+                //hack the id above is not set to be autogenerated so we'll reuse the base entity id
+                values.put(ID_COLUMN, baseEntityId);
+
+                List<String> columns = new ArrayList<>(values.keySet());
+                Collections.sort(columns);
+                String columnList = StringUtils.join(columns, ",");
+                SQLiteStatement statement = statements.get(columnList);
+                if (statement == null) {
+                    statement = database.compileStatement("INSERT OR REPLACE INTO " + tableName
+                            + " (" + columnList + ") VALUES (" + insertPlaceholdersForInClause(columns.size()) + ")");
+                    statements.put(columnList, statement);
+                }
+
+                statement.clearBindings();
+                for (int i = 0; i < columns.size(); i++) {
+                    bind(statement, i + 1, values.get(columns.get(i)));
+                }
+                statement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            database.endTransaction();
+        }
+    }
+
+    private Map<String, Map<String, String>> getRowsByBaseEntityIds(SQLiteDatabase database, Collection<ContentValues> rows, String tableName) {
+        List<String> baseEntityIds = new ArrayList<>();
+        for (ContentValues row : rows) {
+            String baseEntityId = row.getAsString(BASE_ENTITY_ID_COLUMN);
+            if (baseEntityId != null) {
+                baseEntityIds.add(baseEntityId);
+            }
+        }
+
+        Map<String, Map<String, String>> storedRows = new HashMap<>();
+        for (int start = 0; start < baseEntityIds.size(); start += MAX_QUERY_PARAMS) {
+            List<String> chunk = baseEntityIds.subList(start, Math.min(start + MAX_QUERY_PARAMS, baseEntityIds.size()));
+            Cursor cursor = null;
+            try {
+                cursor = database.rawQuery("SELECT * FROM " + tableName + " WHERE " + BASE_ENTITY_ID_COLUMN
+                        + " IN (" + insertPlaceholdersForInClause(chunk.size()) + ")", chunk.toArray(new String[chunk.size()]));
+                while (cursor.moveToNext()) {
+                    Map<String, String> storedRow = sqliteRowToMap(cursor);
+                    storedRows.put(storedRow.get(BASE_ENTITY_ID_COLUMN), storedRow);
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return storedRows;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
     private ContentValues addMissingContentValuesForRecordId(String baseEntityId, String
             tableName, ContentValues cv) {
         Map<String, String> dbValues = new HashMap<String, String>();
@@ -535,10 +653,115 @@ public class CommonRepository extends DrishtiRepository {
         if (commonPersonObject == null) {
             return null;
         }
+        return populateSearchValues(commonPersonObject);
+    }
+
+    /**
+     * Builds the search rows of several cases, reading the cases with one query per 500 ids
+     *
+     * @param caseIds ids of the cases
+     * @return search values by case id, cases that do not exist are left out
+     */
+    public Map<String, ContentValues> populateSearchValues(Collection<String> caseIds) {
+        Map<String, ContentValues> searchMap = new LinkedHashMap<>();
+        if (commonFtsObject == null || caseIds == null || caseIds.isEmpty()) {
+            return searchMap;
+        }
+
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(caseIds));
+        SQLiteDatabase database = masterRepository.getReadableDatabase();
+        for (int start = 0; start < ids.size(); start += MAX_QUERY_PARAMS) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_QUERY_PARAMS, ids.size()));
+            Cursor cursor = database.query(TABLE_NAME, common_TABLE_COLUMNS,
+                    ID_COLUMN + " IN (" + insertPlaceholdersForInClause(chunk.size()) + ")",
+                    chunk.toArray(new String[chunk.size()]), null, null, null, null);
+            for (CommonPersonObject commonPersonObject : readAllcommon(cursor)) {
+                ContentValues searchValues = populateSearchValues(commonPersonObject);
+                if (searchValues != null) {
+                    searchMap.put(commonPersonObject.getCaseId(), searchValues);
+                }
+            }
+        }
+        return searchMap;
+    }
+
+    /**
+     * Records that the search row of a case has to be rebuilt. Cases changed several times, e.g.
+     * by the events of a sync or the forms of a submission batch, are then rebuilt once by
+     * {@link #updateDirtySearch()}. The marks are kept in {@link #DIRTY_SEARCH_TABLE} so that
+     * those left by a run killed before its update are replayed by the next one.
+     */
+    public void markSearchDirty(String caseId) {
+        if (StringUtils.isBlank(caseId)) {
+            return;
+        }
+        SQLiteDatabase database = masterRepository.getWritableDatabase();
+        createDirtySearchTable(database);
+        ContentValues values = new ContentValues();
+        values.put(DIRTY_SEARCH_REGISTER_COLUMN, TABLE_NAME);
+        values.put(DIRTY_SEARCH_CASE_COLUMN, caseId);
+        // replacing the row gives it a new rowid, so a case marked again while an update
+        // runs is kept for the next one
+        database.insertWithOnConflict(DIRTY_SEARCH_TABLE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
 
+    /**
+     * Rebuilds the search rows of the cases marked dirty in one batch
+     *
+     * @return ids of the marked cases whose search row could not be built
+     */
+    public List<String> updateDirtySearch() {
+        SQLiteDatabase database = masterRepository.getWritableDatabase();
+        createDirtySearchTable(database);
+
+        List<String> caseIds = new ArrayList<>();
+        long lastRowId = 0;
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT rowid, " + DIRTY_SEARCH_CASE_COLUMN + " FROM "
+                    + DIRTY_SEARCH_TABLE + " WHERE " + DIRTY_SEARCH_REGISTER_COLUMN + " = ?"
+                    + " ORDER BY rowid", new String[]{TABLE_NAME});
+            while (cursor.moveToNext()) {
+                lastRowId = cursor.getLong(0);
+                caseIds.add(cursor.getString(1));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        List<String> remainingIds = new ArrayList<>();
+        if (caseIds.isEmpty()) {
+            return remainingIds;
+        }
+        Map<String, ContentValues> searchMap = populateSearchValues(caseIds);
+        if (!searchMap.isEmpty()) {
+            searchBatchInserts(searchMap);
+        }
+        database.delete(DIRTY_SEARCH_TABLE, DIRTY_SEARCH_REGISTER_COLUMN + " = ? AND rowid <= ?",
+                new String[]{TABLE_NAME, String.valueOf(lastRowId)});
+        for (String caseId : caseIds) {
+            if (!searchMap.containsKey(caseId)) {
+                remainingIds.add(caseId);
+            }
+        }
+        return remainingIds;
+    }
+
+    private void createDirtySearchTable(SQLiteDatabase database) {
+        if (!dirtySearchTableCreated) {
+            database.execSQL(DIRTY_SEARCH_SQL);
+            dirtySearchTableCreated = true;
+        }
+    }
+
+    private ContentValues populateSearchValues(CommonPersonObject commonPersonObject) {
         if (commonFtsObject == null) {
             return null;
         }
+        String caseId = commonPersonObject.getCaseId();
 
         try {
             ContentValues searchValues = new ContentValues();
@@ -570,7 +793,7 @@ public class CommonRepository extends DrishtiRepository {
                     if (ftsMainConditionField.equals("details")) {
                         Map<String, String> details = commonPersonObject.getDetails();
                         if (details != null && !details.isEmpty()) {
-                            value = new Gson().toJson(details);
+                            value = GSON.toJson(details);
                         }
                     } else {
                         value = getSearchFieldValue(commonPersonObject, ftsMainConditionField);
@@ -690,27 +913,50 @@ public class CommonRepository extends DrishtiRepository {
         }
     }
 
+    private Map<String, Long> getSearchRowIds(SQLiteDatabase database, String ftsSearchTable, Collection<String> caseIds) {
+        List<String> ids = new ArrayList<>(caseIds);
+        Map<String, Long> searchRowIds = new HashMap<>();
+        for (int start = 0; start < ids.size(); start += MAX_QUERY_PARAMS) {
+            List<String> chunk = ids.subList(start, Math.min(start + MAX_QUERY_PARAMS, ids.size()));
+            Cursor cursor = null;
+            try {
+                cursor = database.rawQuery("SELECT rowid, " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
+                                + " WHERE " + CommonFtsObject.idColumn + " IN (" + insertPlaceholdersForInClause(chunk.size()) + ")",
+                        chunk.toArray(new String[chunk.size()]));
+                while (cursor.moveToNext()) {
+                    searchRowIds.put(cursor.getString(1), cursor.getLong(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return searchRowIds;
+    }
+
     public boolean searchBatchInserts(Map<String, ContentValues> searchMap) {
         SQLiteDatabase database = masterRepository.getWritableDatabase();
 
         database.beginTransaction();
         String ftsSearchTable = CommonFtsObject.searchTableName(TABLE_NAME);
         try {
+            // object_id is not indexed in the fts table, look the rows up once by rowid
+            Map<String, Long> searchRowIds = getSearchRowIds(database, ftsSearchTable, searchMap.keySet());
+            int updated = 0;
+            int inserted = 0;
             for (String caseId : searchMap.keySet()) {
                 ContentValues searchValues = searchMap.get(caseId);
-                ArrayList<HashMap<String, String>> mapList = rawQuery(
-                        "SELECT " + CommonFtsObject.idColumn + " FROM " + ftsSearchTable
-                                + " WHERE  " + CommonFtsObject.idColumn + " = ?", new String[]{caseId});
-                if (!mapList.isEmpty()) {
-                    int updated = database.update(ftsSearchTable, searchValues,
-                            CommonFtsObject.idColumn + " = " + "" + "?", new String[]{caseId});
-                    Log.i(getClass().getName(), "Fts Row Updated: " + String.valueOf(updated));
-
+                Long searchRowId = searchRowIds.get(caseId);
+                if (searchRowId != null) {
+                    updated += database.update(ftsSearchTable, searchValues, "rowid = ?",
+                            new String[]{String.valueOf(searchRowId)});
                 } else {
-                    long rowId = database.insert(ftsSearchTable, null, searchValues);
-                    Log.i(getClass().getName(), "Details Row Inserted : " + String.valueOf(rowId));
+                    database.insert(ftsSearchTable, null, searchValues);
+                    inserted++;
                 }
             }
+            Log.i(getClass().getName(), "Fts Rows Updated: " + updated + ", Inserted: " + inserted);
             database.setTransactionSuccessful();
             database.endTransaction();
 
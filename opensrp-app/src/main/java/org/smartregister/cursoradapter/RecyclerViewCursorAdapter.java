@@ -116,7 +116,7 @@ public abstract class RecyclerViewCursorAdapter extends RecyclerView.Adapter<Rec
      * closed.
      */
     public Cursor swapCursor(Cursor newCursor) {
-        if (newCursor.equals(mCursor)) {
+        if (newCursor == mCursor) {
             return null;
         }
         final Cursor oldCursor = mCursor;
@@ -129,8 +129,13 @@ public abstract class RecyclerViewCursorAdapter extends RecyclerView.Adapter<Rec
                 mCursor.registerDataSetObserver(mDataSetObserver);
             }
             mRowIdColumn = newCursor.getColumnIndexOrThrow("_id");
+            boolean wasDataValid = mDataValid;
             mDataValid = true;
-            notifyDataSetChanged();
+            if (wasDataValid && oldCursor != null) {
+                notifyCursorChanged(oldCursor, newCursor);
+            } else {
+                notifyDataSetChanged();
+            }
         } else {
             mRowIdColumn = -1;
             mDataValid = false;
@@ -140,6 +145,13 @@ public abstract class RecyclerViewCursorAdapter extends RecyclerView.Adapter<Rec
         return oldCursor;
     }
 
+    /**
+     * Notifies the change from one valid cursor to another, every row is rebound by default
+     */
+    protected void notifyCursorChanged(Cursor oldCursor, Cursor newCursor) {
+        notifyDataSetChanged();
+    }
+
     private class NotifyingDataSetObserver extends DataSetObserver {
         @Override
         public void onChanged() {
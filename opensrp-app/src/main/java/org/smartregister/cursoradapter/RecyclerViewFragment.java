@@ -5,7 +5,6 @@ import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
@@ -25,9 +24,12 @@ import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.LocalDate;
 import org.smartregister.R;
+import org.smartregister.commonregistry.CommonFtsObject;
 import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.cursoradapter.SmartRegisterQueryBuilder.KeysetBoundary;
 import org.smartregister.domain.ReportMonth;
 import org.smartregister.provider.SmartRegisterClientsProvider;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.view.activity.SecuredNativeSmartRegisterActivity;
 import org.smartregister.view.contract.SmartRegisterClient;
 import org.smartregister.view.customcontrols.CustomFontTextView;
@@ -56,7 +58,17 @@ public abstract class RecyclerViewFragment extends
     protected static final int LOADER_ID = 0;
 
     public final SearchCancelHandler searchCancelHandler = new SearchCancelHandler();
+    protected final RegisterSearchExecutor searchExecutor = new RegisterSearchExecutor();
     public final PaginationViewHandler paginationViewHandler = new PaginationViewHandler();
+    private final RegisterCountService.CountListener countListener = new RegisterCountService.CountListener() {
+        @Override
+        public void onCount(String query, int count) {
+            if (isAdded() && clientAdapter != null && query.equals(countQuery)) {
+                clientAdapter.setTotalcount(count);
+                onCountRefreshed();
+            }
+        }
+    };
     private final NavBarActionsHandler navBarActionsHandler = new NavBarActionsHandler();
 
     public String mainSelect;
@@ -65,6 +77,7 @@ public abstract class RecyclerViewFragment extends
     public String Sortqueries;
     public String tablename;
     public String countSelect;
+    private volatile String countQuery;
     public String joinTable = "";
     public String joinTables[];
     public RecyclerView clientsView;
@@ -423,14 +436,42 @@ public abstract class RecyclerViewFragment extends
 
         String query = "";
         try {
+            clientAdapter.setKeysetSort(Sortqueries);
+            boolean keyset = clientAdapter.isKeysetPagination();
+            KeysetBoundary boundary = clientAdapter.getKeysetBoundary();
+            // Without a boundary, on the first page or when the boundaries were lost, a keyset
+            // page is fetched by offset but still ordered by id on ties
+            int offset = boundary != null ? 0 : clientAdapter.getCurrentoffset();
             if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb
-                        .searchQueryFts(tablename, joinTable, mainCondition, filters, Sortqueries,
-                                clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
-                List<String> ids = commonRepository().findSearchIds(sql);
-                query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
-                        Sortqueries);
+                String sql;
+                List<String> ids;
+                if (keyset && offset == 0) {
+                    sql = sqb.searchQueryFts(tablename, joinTable, mainCondition, filters, Sortqueries,
+                            clientAdapter.getCurrentlimit(), boundary);
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFtsKeyset(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                } else if (keyset) {
+                    sql = sqb.searchQueryFts(tablename, joinTable, mainCondition, filters,
+                            sqb.keysetOrderBy(Sortqueries, CommonFtsObject.idColumn),
+                            clientAdapter.getCurrentlimit(), offset);
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFtsKeyset(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                } else {
+                    sql = sqb.searchQueryFts(tablename, joinTable, mainCondition, filters, Sortqueries,
+                            clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                }
                 query = sqb.Endquery(query);
+            } else if (keyset) {
+                String idColumn = tablename + "." + CommonRepository.ID_COLUMN;
+                sqb.addCondition(filters);
+                sqb.addKeysetCondition(Sortqueries, idColumn, boundary);
+                query = sqb.orderbyCondition(sqb.keysetOrderBy(Sortqueries, idColumn));
+                query = sqb.Endquery(sqb.addlimitandOffset(query, clientAdapter.getCurrentlimit(), offset));
             } else {
                 sqb.addCondition(filters);
                 query = sqb.orderbyCondition(Sortqueries);
@@ -449,14 +490,42 @@ public abstract class RecyclerViewFragment extends
 
         String query = "";
         try {
+            clientAdapter.setKeysetSort(Sortqueries);
+            boolean keyset = clientAdapter.isKeysetPagination();
+            KeysetBoundary boundary = clientAdapter.getKeysetBoundary();
+            // Without a boundary, on the first page or when the boundaries were lost, a keyset
+            // page is fetched by offset but still ordered by id on ties
+            int offset = boundary != null ? 0 : clientAdapter.getCurrentoffset();
             if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb
-                        .searchQueryFts(tablename, joinTables, mainCondition, filters, Sortqueries,
-                                clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
-                List<String> ids = commonRepository().findSearchIds(sql);
-                query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
-                        Sortqueries);
+                String sql;
+                List<String> ids;
+                if (keyset && offset == 0) {
+                    sql = sqb.searchQueryFts(tablename, joinTables, mainCondition, filters, Sortqueries,
+                            clientAdapter.getCurrentlimit(), boundary);
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFtsKeyset(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                } else if (keyset) {
+                    sql = sqb.searchQueryFts(tablename, joinTables, mainCondition, filters,
+                            sqb.keysetOrderBy(Sortqueries, CommonFtsObject.idColumn),
+                            clientAdapter.getCurrentlimit(), offset);
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFtsKeyset(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                } else {
+                    sql = sqb.searchQueryFts(tablename, joinTables, mainCondition, filters, Sortqueries,
+                            clientAdapter.getCurrentlimit(), clientAdapter.getCurrentoffset());
+                    ids = commonRepository().findSearchIds(sql);
+                    query = sqb.toStringFts(ids, tablename, CommonRepository.ID_COLUMN,
+                            Sortqueries);
+                }
                 query = sqb.Endquery(query);
+            } else if (keyset) {
+                String idColumn = tablename + "." + CommonRepository.ID_COLUMN;
+                sqb.addCondition(filters);
+                sqb.addKeysetCondition(Sortqueries, idColumn, boundary);
+                query = sqb.orderbyCondition(sqb.keysetOrderBy(Sortqueries, idColumn));
+                query = sqb.Endquery(sqb.addlimitandOffset(query, clientAdapter.getCurrentlimit(), offset));
             } else {
                 sqb.addCondition(filters);
                 query = sqb.orderbyCondition(Sortqueries);
@@ -471,44 +540,39 @@ public abstract class RecyclerViewFragment extends
     }
 
     public void countExecute() {
-        Cursor c = null;
-
         try {
             SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder(countSelect);
             String query = "";
             if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb.countQueryFts(tablename, joinTable, mainCondition, filters);
-                Log.i(getClass().getName(), query);
-
-                clientAdapter.setTotalcount(commonRepository().countSearchIds(sql));
-                Log.v("total count here", "" + clientAdapter.getTotalcount());
-
-
+                query = sqb.countQueryFts(tablename, joinTable, mainCondition, filters);
             } else {
                 sqb.addCondition(filters);
                 query = sqb.orderbyCondition(Sortqueries);
                 query = sqb.Endquery(query);
-
-                Log.i(getClass().getName(), query);
-                c = commonRepository().rawCustomQueryForAdapter(query);
-                c.moveToFirst();
-                clientAdapter.setTotalcount(c.getInt(0));
-                Log.v("total count here", "" + clientAdapter.getTotalcount());
             }
 
+            Log.i(getClass().getName(), query);
+            countQuery = query;
+            // Approximate if the register changed since it was last counted, see onCountRefreshed
+            clientAdapter.setTotalcount(context().registerCountService().count(commonRepository(), query, countListener));
+            Log.v("total count here", "" + clientAdapter.getTotalcount());
+
             clientAdapter.setCurrentlimit(20);
             clientAdapter.setCurrentoffset(0);
 
 
         } catch (Exception e) {
             Log.e(getClass().getName(), e.toString(), e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
         }
     }
 
+    /**
+     * Called on the UI thread once the exact count replaces an approximate one
+     */
+    protected void onCountRefreshed() {
+        clientAdapter.notifyDataSetChanged();
+    }
+
     protected boolean isValidFilterForFts(CommonRepository commonRepository) {
         return commonRepository.isFts() && filters != null && !StringUtils
                 .containsIgnoreCase(filters, "like") && !StringUtils
@@ -526,13 +590,14 @@ public abstract class RecyclerViewFragment extends
         switch (id) {
             case LOADER_ID:
                 // Returns a new CursorLoader
-                return new CursorLoader(getActivity()) {
+                return new RegisterCursorLoader(getActivity(), new RegisterCursorLoader.RegisterQueries() {
                     @Override
-                    public Cursor loadInBackground() {
-                        // Count query
-                        if (args != null && args.getBoolean(COUNT)) {
-                            countExecute();
-                        }
+                    public void count() {
+                        countExecute();
+                    }
+
+                    @Override
+                    public Cursor query() {
                         String query = "";
                         // Select register query
 
@@ -543,7 +608,16 @@ public abstract class RecyclerViewFragment extends
                         }
                         return commonRepository().rawCustomQueryForAdapter(query);
                     }
-                };
+
+                    @Override
+                    public RegisterClientsSnapshot snapshot(Cursor cursor) {
+                        if (!clientAdapter.isPrefetchClients()) {
+                            return null;
+                        }
+                        return RegisterClientsSnapshot.read(cursor, commonRepository(),
+                                context().detailsRepository());
+                    }
+                }, args != null && args.getBoolean(COUNT));
             default:
                 // An invalid id was passed in
                 return null;
@@ -563,6 +637,12 @@ public abstract class RecyclerViewFragment extends
         clientAdapter.swapCursor(null);
     }
 
+    @Override
+    public void onDestroyView() {
+        searchExecutor.cancel();
+        super.onDestroyView();
+    }
+
     public CommonRepository commonRepository() {
         return context().commonrepository(tablename);
     }
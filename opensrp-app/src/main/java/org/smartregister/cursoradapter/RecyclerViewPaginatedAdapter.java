@@ -2,12 +2,17 @@ package org.smartregister.cursoradapter;
 
 import android.database.Cursor;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.ViewGroup;
 
 import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
 import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.cursoradapter.SmartRegisterQueryBuilder.KeysetBoundary;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by keyman on 09/07/18.
@@ -20,6 +25,12 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
     public int currentlimit = 20;
     public int currentoffset = 0;
 
+    private boolean prefetchClients;
+    private boolean keysetPagination;
+    private String keysetSort;
+    // Boundary of each page after the first, null where the previous page had no usable last row
+    private final List<KeysetBoundary> keysetBoundaries = new ArrayList<>();
+
     public RecyclerViewPaginatedAdapter(Cursor cursor,
                                         RecyclerViewProvider<RecyclerView.ViewHolder>
                                                 listItemProvider, CommonRepository
@@ -44,6 +55,12 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
         if (listItemProvider.isFooterViewHolder(viewHolder)) {
             listItemProvider.getFooterView(viewHolder, getCurrentPageCount(), getTotalPageCount(), hasNextPage(), hasPreviousPage());
         } else {
+            RegisterClientsSnapshot snapshot = getSnapshot(cursor);
+            if (snapshot != null) {
+                listItemProvider.getView(cursor, snapshot.get(cursor.getPosition()), viewHolder);
+                return;
+            }
+
             CommonPersonObject personinlist = commonRepository.readAllcommonforCursorAdapter(cursor);
             CommonPersonObjectClient pClient = new CommonPersonObjectClient(personinlist.getCaseId(),
                     personinlist.getDetails(), personinlist.getDetails().get("FWHOHFNAME"));
@@ -52,6 +69,41 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
         }
     }
 
+    /**
+     * Rebinds only the rows that changed when both pages were read into snapshots, e.g. when a
+     * page is reloaded after a client is updated
+     */
+    @Override
+    protected void notifyCursorChanged(Cursor oldCursor, Cursor newCursor) {
+        RegisterClientsSnapshot oldSnapshot = getSnapshot(oldCursor);
+        RegisterClientsSnapshot newSnapshot = getSnapshot(newCursor);
+        if (oldSnapshot == null || newSnapshot == null) {
+            super.notifyCursorChanged(oldCursor, newCursor);
+            return;
+        }
+
+        DiffUtil.calculateDiff(RegisterClientsSnapshot.diff(oldSnapshot, newSnapshot)).dispatchUpdatesTo(this);
+        // The footer follows the rows and shows the page numbers
+        notifyItemChanged(newSnapshot.size());
+    }
+
+    /**
+     * Reads the clients of each page in the background before it is shown, see
+     * {@link RegisterClientsSnapshot}. Off by default, providers whose views read more than the
+     * register row and its details should keep it off.
+     */
+    public void setPrefetchClients(boolean prefetchClients) {
+        this.prefetchClients = prefetchClients;
+    }
+
+    public boolean isPrefetchClients() {
+        return prefetchClients;
+    }
+
+    private RegisterClientsSnapshot getSnapshot(Cursor cursor) {
+        return cursor instanceof SnapshotCursor ? ((SnapshotCursor) cursor).getSnapshot() : null;
+    }
+
     // Pagination
     private int getCurrentPageCount() {
         if (currentoffset != 0) {
@@ -83,13 +135,85 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
     }
 
     public void nextPageOffset() {
+        if (keysetPagination) {
+            keysetBoundaries.add(lastRowBoundary());
+        }
         currentoffset = currentoffset + currentlimit;
     }
 
     public void previousPageOffset() {
+        if (!keysetBoundaries.isEmpty()) {
+            keysetBoundaries.remove(keysetBoundaries.size() - 1);
+        }
         currentoffset = currentoffset - currentlimit;
     }
 
+    /**
+     * Pages after the sort value and id of the last row of the previous page instead of an offset,
+     * when the sort is on a single column, so deep pages are as fast as the first one
+     */
+    public void setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+        keysetBoundaries.clear();
+    }
+
+    public boolean isKeysetPagination() {
+        return keysetPagination && SmartRegisterQueryBuilder.isKeysetSortable(keysetSort);
+    }
+
+    /**
+     * Sets the sort of the current query, the pages are restarted from the current offset when it
+     * changes
+     */
+    public void setKeysetSort(String sort) {
+        if (keysetSort == null ? sort != null : !keysetSort.equals(sort)) {
+            keysetBoundaries.clear();
+        }
+        keysetSort = sort;
+    }
+
+    /**
+     * @return the last row of the previous page, null on the first page or if the current page
+     * has to be fetched by offset
+     */
+    public KeysetBoundary getKeysetBoundary() {
+        if (!isKeysetPagination() || currentoffset == 0
+                || keysetBoundaries.size() != currentoffset / currentlimit) {
+            return null;
+        }
+        return keysetBoundaries.get(keysetBoundaries.size() - 1);
+    }
+
+    private KeysetBoundary lastRowBoundary() {
+        Cursor cursor = getCursor();
+        if (!isKeysetPagination() || cursor == null || cursor.isClosed() || !cursor.moveToLast()) {
+            return null;
+        }
+
+        int sortIndex = cursor.getColumnIndex(SmartRegisterQueryBuilder.keysetSortColumn(keysetSort));
+        int idIndex = cursor.getColumnIndex("_id");
+        if (sortIndex == -1 || idIndex == -1) {
+            return null;
+        }
+
+        Object sortValue;
+        switch (cursor.getType(sortIndex)) {
+            case Cursor.FIELD_TYPE_NULL:
+                sortValue = null;
+                break;
+            case Cursor.FIELD_TYPE_INTEGER:
+                sortValue = cursor.getLong(sortIndex);
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                sortValue = cursor.getDouble(sortIndex);
+                break;
+            default:
+                sortValue = cursor.getString(sortIndex);
+                break;
+        }
+        return new KeysetBoundary(sortValue, cursor.getString(idIndex));
+    }
+
     public void setTotalcount(int totalcount) {
         this.totalcount = totalcount;
     }
@@ -100,6 +224,7 @@ public class RecyclerViewPaginatedAdapter<V extends RecyclerView.ViewHolder> ext
 
     public void setCurrentoffset(int currentoffset) {
         this.currentoffset = currentoffset;
+        keysetBoundaries.clear();
     }
 
     public int getCurrentoffset() {
@@ -0,0 +1,100 @@
+package org.smartregister.cursoradapter;
+
+import android.database.Cursor;
+import android.support.v7.util.DiffUtil;
+
+import org.smartregister.commonregistry.CommonPersonObject;
+import org.smartregister.commonregistry.CommonPersonObjectClient;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.repository.DetailsRepository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Clients of a register page read from its cursor ahead of binding, with their details, so that
+ * binding a row does not query the database on the UI thread. A snapshot is not changed once read,
+ * a new page or a reloaded page is a new snapshot.
+ */
+public class RegisterClientsSnapshot {
+    private final List<CommonPersonObjectClient> clients;
+
+    public RegisterClientsSnapshot(List<CommonPersonObjectClient> clients) {
+        this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
+    }
+
+    /**
+     * Reads every row of the cursor, leaving it before the first row. Called off the UI thread.
+     *
+     * @param detailsRepository repository the details of the clients are merged from, null to
+     *                          only read the cursor
+     */
+    public static RegisterClientsSnapshot read(Cursor cursor, CommonRepository commonRepository,
+                                               DetailsRepository detailsRepository) {
+        List<CommonPersonObjectClient> clients = new ArrayList<>(cursor.getCount());
+        if (cursor.moveToFirst()) {
+            do {
+                CommonPersonObject personinlist = commonRepository.readAllcommonforCursorAdapter(cursor);
+                CommonPersonObjectClient pClient = new CommonPersonObjectClient(personinlist.getCaseId(),
+                        personinlist.getDetails(), personinlist.getDetails().get("FWHOHFNAME"));
+                pClient.setColumnmaps(personinlist.getColumnmaps());
+                clients.add(pClient);
+            } while (cursor.moveToNext());
+        }
+        cursor.moveToPosition(-1);
+
+        if (detailsRepository != null && !clients.isEmpty()) {
+            detailsRepository.updateDetails(clients);
+        }
+        return new RegisterClientsSnapshot(clients);
+    }
+
+    public CommonPersonObjectClient get(int position) {
+        return clients.get(position);
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public List<CommonPersonObjectClient> getClients() {
+        return clients;
+    }
+
+    /**
+     * Compares the rows of two snapshots, rows are the same client if they have the same case id
+     */
+    public static DiffUtil.Callback diff(final RegisterClientsSnapshot oldSnapshot,
+                                         final RegisterClientsSnapshot newSnapshot) {
+        return new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSnapshot.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSnapshot.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                String caseId = oldSnapshot.get(oldItemPosition).getCaseId();
+                return caseId != null && caseId.equals(newSnapshot.get(newItemPosition).getCaseId());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                CommonPersonObjectClient oldClient = oldSnapshot.get(oldItemPosition);
+                CommonPersonObjectClient newClient = newSnapshot.get(newItemPosition);
+                return equal(oldClient.getColumnmaps(), newClient.getColumnmaps())
+                        && equal(oldClient.getDetails(), newClient.getDetails());
+            }
+        };
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,74 @@
+package org.smartregister.cursoradapter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.os.OperationCanceledException;
+
+/**
+ * Loads a register page, and its count if requested, in one background pass. A load superseded by
+ * a newer search is abandoned between queries, and the cursor window is filled before the cursor
+ * is delivered so that the page query never runs on the UI thread. The clients of the page are
+ * delivered with the cursor in a {@link SnapshotCursor} if the queries read them.
+ */
+public class RegisterCursorLoader extends CursorLoader {
+    private final RegisterQueries queries;
+    private final boolean count;
+
+    public RegisterCursorLoader(Context context, RegisterQueries queries, boolean count) {
+        super(context);
+        this.queries = queries;
+        this.count = count;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        if (count) {
+            throwIfCanceled();
+            queries.count();
+        }
+
+        throwIfCanceled();
+        Cursor cursor = queries.query();
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            // Runs the query and fills the window here rather than on first access from the UI
+            cursor.getCount();
+            throwIfCanceled();
+
+            RegisterClientsSnapshot snapshot = queries.snapshot(cursor);
+            throwIfCanceled();
+            return snapshot == null ? cursor : new SnapshotCursor(cursor, snapshot);
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    private void throwIfCanceled() {
+        if (isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    public interface RegisterQueries {
+
+        /**
+         * Counts the register clients matching the current filters, called before {@link #query()}
+         */
+        void count();
+
+        /**
+         * Queries the current page of register clients
+         */
+        Cursor query();
+
+        /**
+         * Reads the clients of the page ahead of binding, null to deliver the cursor only
+         */
+        RegisterClientsSnapshot snapshot(Cursor cursor);
+    }
+}
@@ -0,0 +1,69 @@
+package org.smartregister.cursoradapter;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Debounces register searches, a search submitted while typing only runs once no other search is
+ * submitted for the delay. Searches run on the UI thread and are expected to restart the register
+ * loader, which abandons the load of the previous search.
+ */
+public class RegisterSearchExecutor {
+    public static final long DEFAULT_DELAY_MILLIS = 300;
+
+    private final long delayMillis;
+    private Handler handler;
+    private Runnable pendingSearch;
+
+    public RegisterSearchExecutor() {
+        this(DEFAULT_DELAY_MILLIS);
+    }
+
+    public RegisterSearchExecutor(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Replaces the pending search, if any, with this one
+     */
+    public void submit(final Runnable search) {
+        cancel();
+        pendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                pendingSearch = null;
+                search.run();
+            }
+        };
+        getHandler().postDelayed(pendingSearch, delayMillis);
+    }
+
+    /**
+     * Runs the pending search now instead of waiting for the delay
+     */
+    public void flush() {
+        Runnable search = pendingSearch;
+        cancel();
+        if (search != null) {
+            search.run();
+        }
+    }
+
+    public void cancel() {
+        if (pendingSearch != null) {
+            getHandler().removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+    }
+
+    public boolean isPending() {
+        return pendingSearch != null;
+    }
+
+    private Handler getHandler() {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+}
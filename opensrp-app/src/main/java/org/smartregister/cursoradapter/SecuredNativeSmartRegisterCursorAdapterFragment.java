@@ -5,7 +5,6 @@ import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -27,6 +26,7 @@ import org.smartregister.R;
 import org.smartregister.commonregistry.CommonRepository;
 import org.smartregister.domain.ReportMonth;
 import org.smartregister.provider.SmartRegisterClientsProvider;
+import org.smartregister.service.RegisterCountService;
 import org.smartregister.view.activity.SecuredNativeSmartRegisterActivity;
 import org.smartregister.view.contract.SmartRegisterClient;
 import org.smartregister.view.customcontrols.CustomFontTextView;
@@ -64,7 +64,17 @@ public abstract class SecuredNativeSmartRegisterCursorAdapterFragment extends
     public static int currentlimit = 20;
     public static int currentoffset = 0;
     public final SearchCancelHandler searchCancelHandler = new SearchCancelHandler();
+    protected final RegisterSearchExecutor searchExecutor = new RegisterSearchExecutor();
     private final PaginationViewHandler paginationViewHandler = new PaginationViewHandler();
+    private final RegisterCountService.CountListener countListener = new RegisterCountService.CountListener() {
+        @Override
+        public void onCount(String query, int count) {
+            if (isAdded() && query.equals(countQuery)) {
+                totalcount = count;
+                refresh();
+            }
+        }
+    };
     private final NavBarActionsHandler navBarActionsHandler = new NavBarActionsHandler();
     public String mainSelect;
     public String filters = "";
@@ -72,6 +82,7 @@ public abstract class SecuredNativeSmartRegisterCursorAdapterFragment extends
     public String Sortqueries;
     public String tablename;
     public String countSelect;
+    private volatile String countQuery;
     public String joinTable = "";
     public SmartRegisterPaginatedCursorAdapter clientAdapter;
     public View mView;
@@ -503,40 +514,28 @@ public abstract class SecuredNativeSmartRegisterCursorAdapterFragment extends
     }
 
     public void CountExecute() {
-        Cursor c = null;
-
         try {
             SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder(countSelect);
             String query = "";
             if (isValidFilterForFts(commonRepository())) {
-                String sql = sqb.countQueryFts(tablename, joinTable, mainCondition, filters);
-                Log.i(getClass().getName(), query);
-
-                totalcount = commonRepository().countSearchIds(sql);
-                Log.v("total count here", "" + totalcount);
-
-
+                query = sqb.countQueryFts(tablename, joinTable, mainCondition, filters);
             } else {
                 sqb.addCondition(filters);
                 query = sqb.orderbyCondition(Sortqueries);
                 query = sqb.Endquery(query);
-
-                Log.i(getClass().getName(), query);
-                c = commonRepository().rawCustomQueryForAdapter(query);
-                c.moveToFirst();
-                totalcount = c.getInt(0);
-                Log.v("total count here", "" + totalcount);
             }
 
+            Log.i(getClass().getName(), query);
+            countQuery = query;
+            // Approximate if the register changed since it was last counted, refreshed by countListener
+            totalcount = context().registerCountService().count(commonRepository(), query, countListener);
+            Log.v("total count here", "" + totalcount);
+
             currentlimit = 20;
             currentoffset = 0;
 
         } catch (Exception e) {
             Log.e(getClass().getName(), e.toString(), e);
-        } finally {
-            if (c != null) {
-                c.close();
-            }
         }
     }
 
@@ -557,19 +556,24 @@ public abstract class SecuredNativeSmartRegisterCursorAdapterFragment extends
         switch (id) {
             case LOADER_ID:
                 // Returns a new CursorLoader
-                return new CursorLoader(getActivity()) {
+                return new RegisterCursorLoader(getActivity(), new RegisterCursorLoader.RegisterQueries() {
                     @Override
-                    public Cursor loadInBackground() {
-                        // Count query
-                        if (args != null && args.getBoolean(COUNT)) {
-                            CountExecute();
-                        }
+                    public void count() {
+                        CountExecute();
+                    }
 
+                    @Override
+                    public Cursor query() {
                         // Select register query
                         String query = filterandSortQuery();
                         return commonRepository().rawCustomQueryForAdapter(query);
                     }
-                };
+
+                    @Override
+                    public RegisterClientsSnapshot snapshot(Cursor cursor) {
+                        return null;
+                    }
+                }, args != null && args.getBoolean(COUNT));
             default:
                 // An invalid id was passed in
                 return null;
@@ -590,6 +594,12 @@ public abstract class SecuredNativeSmartRegisterCursorAdapterFragment extends
         clientAdapter.swapCursor(null);
     }
 
+    @Override
+    public void onDestroyView() {
+        searchExecutor.cancel();
+        super.onDestroyView();
+    }
+
     public CommonRepository commonRepository() {
         return context().commonrepository(tablename);
     }
@@ -5,11 +5,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.smartregister.commonregistry.CommonFtsObject;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by raihan on 3/17/16.
  */
 public class SmartRegisterQueryBuilder {
+    private static final Pattern KEYSET_SORT = Pattern.compile("^\\s*([\\w.]+)(?:\\s+(ASC|DESC))?\\s*$", Pattern.CASE_INSENSITIVE);
+
     String Selectquery;
 
     public SmartRegisterQueryBuilder(String selectquery) {
@@ -307,6 +311,152 @@ public class SmartRegisterQueryBuilder {
         return query;
     }
 
+    /**
+     * Keyset variant of {@link #searchQueryFts(String, String, String, String, String, int, int)},
+     * returns the ids sorted after the boundary instead of skipping an offset. The sort must be
+     * {@link #isKeysetSortable(String) keyset sortable}.
+     *
+     * @param boundary last row of the previous page, null for the first page
+     */
+    public String searchQueryFts(String tablename, String searchJoinTable, String mainCondition,
+                                 String searchFilter, String sort, int limit, KeysetBoundary boundary) {
+        String clause;
+        if (StringUtils.isNotBlank(searchJoinTable) && StringUtils.isNotBlank(searchFilter)) {
+            clause = phraseClause(tablename, searchJoinTable, mainCondition, searchFilter);
+        } else {
+            clause = phraseClause(mainCondition, searchFilter);
+        }
+        return keysetSearchQueryFts(tablename, clause, sort, limit, boundary);
+    }
+
+    public String searchQueryFts(String tablename, String searchJoinTable[], String mainCondition,
+                                 String searchFilter, String sort, int limit, KeysetBoundary boundary) {
+        String clause;
+        if (ArrayUtils.isNotEmpty(searchJoinTable) && StringUtils.isNotBlank(searchFilter)) {
+            clause = phraseClause(tablename, searchJoinTable, mainCondition, searchFilter);
+        } else {
+            clause = phraseClause(mainCondition, searchFilter);
+        }
+        return keysetSearchQueryFts(tablename, clause, sort, limit, boundary);
+    }
+
+    /**
+     * Keyset variant of {@link #toStringFts(List, String, String, String)}, ties on the sort are
+     * ordered by id as in the search query so that the last row is the boundary of the next page
+     */
+    public String toStringFtsKeyset(List<String> foundIds, String tName, String idCol, String sortBy) {
+        String res = toStringFts(foundIds, tName, idCol, null);
+        if (foundIds.isEmpty() || !isKeysetSortable(sortBy)) {
+            return res;
+        }
+
+        String idColumn = idCol;
+        String sort = sortBy.trim();
+        if (StringUtils.containsIgnoreCase(res, "JOIN") && StringUtils.isNotBlank(tName)) {
+            idColumn = tName + "." + idColumn;
+            sort = tName + "." + sort;
+        }
+        return res + " ORDER BY " + keysetOrderBy(sort, idColumn);
+    }
+
+    /**
+     * Appends the condition selecting the rows sorted after the boundary, the query must then be
+     * ordered by {@link #keysetOrderBy(String, String)} and limited without an offset
+     *
+     * @param boundary last row of the previous page, nothing is appended if null
+     */
+    public String addKeysetCondition(String sort, String idColumn, KeysetBoundary boundary) {
+        if (boundary != null) {
+            String condition = keysetCondition(sort, idColumn, boundary.getSortValue(), boundary.getId());
+            Selectquery = Selectquery + (StringUtils.containsIgnoreCase(Selectquery, "WHERE") ? " AND " : " WHERE ") + condition;
+        }
+        return Selectquery;
+    }
+
+    /**
+     * Orders by the sort and then by id in the same direction so that every row has a distinct key
+     */
+    public String keysetOrderBy(String sort, String idColumn) {
+        Matcher matcher = keysetSortMatcher(sort);
+        return matcher.group(1) + (isDescending(matcher) ? " DESC, " + idColumn + " DESC" : " ASC, " + idColumn + " ASC");
+    }
+
+    /**
+     * Condition selecting the rows ordered after (lastSortValue, lastId) by
+     * {@link #keysetOrderBy(String, String)}. Expanded rather than a (sort, id) &gt; (?, ?) row
+     * value so that it also handles descending sorts and null sort values, which sqlite sorts
+     * first.
+     */
+    public String keysetCondition(String sort, String idColumn, Object lastSortValue, String lastId) {
+        Matcher matcher = keysetSortMatcher(sort);
+        String column = matcher.group(1);
+        String id = sqlLiteral(lastId);
+
+        if (isDescending(matcher)) {
+            if (lastSortValue == null) {
+                return "(" + column + " IS NULL AND " + idColumn + " < " + id + ")";
+            }
+            String value = sqlLiteral(lastSortValue);
+            return "(" + column + " < " + value + " OR (" + column + " = " + value + " AND "
+                    + idColumn + " < " + id + ") OR " + column + " IS NULL)";
+        }
+
+        if (lastSortValue == null) {
+            return "((" + column + " IS NULL AND " + idColumn + " > " + id + ") OR " + column
+                    + " IS NOT NULL)";
+        }
+        String value = sqlLiteral(lastSortValue);
+        return "(" + column + " > " + value + " OR (" + column + " = " + value + " AND "
+                + idColumn + " > " + id + "))";
+    }
+
+    /**
+     * Keyset pagination only supports sorting on a single column, e.g. "last_interacted_with DESC"
+     */
+    public static boolean isKeysetSortable(String sort) {
+        return sort != null && KEYSET_SORT.matcher(sort).matches();
+    }
+
+    /**
+     * Column of the sort as named in a cursor, i.e. without the table name
+     */
+    public static String keysetSortColumn(String sort) {
+        String column = keysetSortMatcher(sort).group(1);
+        return column.substring(column.lastIndexOf('.') + 1);
+    }
+
+    private String keysetSearchQueryFts(String tablename, String phraseClause, String sort, int limit,
+                                        KeysetBoundary boundary) {
+        String clause = phraseClause;
+        if (boundary != null) {
+            // Search table sort fields are stored as text
+            Object sortValue = boundary.getSortValue() == null ? null : String.valueOf(boundary.getSortValue());
+            clause += (StringUtils.isBlank(clause) ? " WHERE " : " AND ")
+                    + keysetCondition(sort, CommonFtsObject.idColumn, sortValue, boundary.getId());
+        }
+        return "SELECT " + CommonFtsObject.idColumn + " FROM " + CommonFtsObject.searchTableName(tablename)
+                + clause + " ORDER BY " + keysetOrderBy(sort, CommonFtsObject.idColumn) + limitClause(limit, 0);
+    }
+
+    private static Matcher keysetSortMatcher(String sort) {
+        Matcher matcher = KEYSET_SORT.matcher(sort == null ? "" : sort);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Keyset pagination needs a single sort column: " + sort);
+        }
+        return matcher;
+    }
+
+    private static boolean isDescending(Matcher matcher) {
+        return "DESC".equalsIgnoreCase(matcher.group(2));
+    }
+
+    private static String sqlLiteral(Object value) {
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        return "'" + StringUtils.replace(String.valueOf(value), "'", "''") + "'";
+    }
+
     private String matchPhrase(String phrase) {
         if (phrase == null) {
             phrase = "";
@@ -338,4 +488,28 @@ public class SmartRegisterQueryBuilder {
             return mainCondition = "";
         }
     }
+
+    /**
+     * Sort value and id of the last row of a page, the next page starts after it
+     */
+    public static class KeysetBoundary {
+        private final Object sortValue;
+        private final String id;
+
+        /**
+         * @param sortValue a {@link Number} or a {@link String}, null if the row has no sort value
+         */
+        public KeysetBoundary(Object sortValue, String id) {
+            this.sortValue = sortValue;
+            this.id = id;
+        }
+
+        public Object getSortValue() {
+            return sortValue;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
 }
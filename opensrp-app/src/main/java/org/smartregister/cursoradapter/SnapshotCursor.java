@@ -0,0 +1,20 @@
+package org.smartregister.cursoradapter;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * Register page cursor delivered with the clients read from it
+ */
+public class SnapshotCursor extends CursorWrapper {
+    private final RegisterClientsSnapshot snapshot;
+
+    public SnapshotCursor(Cursor cursor, RegisterClientsSnapshot snapshot) {
+        super(cursor);
+        this.snapshot = snapshot;
+    }
+
+    public RegisterClientsSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
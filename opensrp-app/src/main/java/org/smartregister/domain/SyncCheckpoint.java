@@ -0,0 +1,90 @@
+package org.smartregister.domain;
+
+import android.util.Pair;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress of an event pull that survives the sync process being killed.
+ * <p>
+ * The last persisted serverVersion is the cursor used to request the next page, the last
+ * processed serverVersion is the highest page that has gone through client processing and the
+ * pending ranges are pages that were saved but not yet processed, in the order they were saved.
+ * The events of a pending page are flagged as unprocessed in the event table, see
+ * {@link org.smartregister.sync.helper.UnprocessedEventsProcessor#processRange}.
+ */
+public class SyncCheckpoint {
+
+    private static final String LAST_PROCESSED_SERVER_VERSION = "lastProcessedServerVersion";
+    private static final String PENDING_RANGES = "pendingRanges";
+
+    private long lastPersistedServerVersion;
+
+    private long lastProcessedServerVersion;
+
+    private final List<Pair<Long, Long>> pendingRanges = new ArrayList<>();
+
+    public SyncCheckpoint(long lastPersistedServerVersion) {
+        this.lastPersistedServerVersion = lastPersistedServerVersion;
+    }
+
+    public long getLastPersistedServerVersion() {
+        return lastPersistedServerVersion;
+    }
+
+    public long getLastProcessedServerVersion() {
+        return lastProcessedServerVersion;
+    }
+
+    public List<Pair<Long, Long>> getPendingRanges() {
+        return Collections.unmodifiableList(new ArrayList<>(pendingRanges));
+    }
+
+    public void onPersisted(Pair<Long, Long> serverVersionRange, long lastPersistedServerVersion) {
+        pendingRanges.add(serverVersionRange);
+        this.lastPersistedServerVersion = lastPersistedServerVersion;
+    }
+
+    public void onProcessed(Pair<Long, Long> serverVersionRange) {
+        pendingRanges.remove(serverVersionRange);
+        lastProcessedServerVersion = Math.max(lastProcessedServerVersion, serverVersionRange.second);
+    }
+
+    public String toJson() {
+        try {
+            JSONArray ranges = new JSONArray();
+            for (Pair<Long, Long> range : pendingRanges) {
+                ranges.put(new JSONArray().put(range.first).put(range.second));
+            }
+            return new JSONObject()
+                    .put(LAST_PROCESSED_SERVER_VERSION, lastProcessedServerVersion)
+                    .put(PENDING_RANGES, ranges)
+                    .toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static SyncCheckpoint fromJson(long lastPersistedServerVersion, String json) throws JSONException {
+        SyncCheckpoint syncCheckpoint = new SyncCheckpoint(lastPersistedServerVersion);
+        if (json == null || json.isEmpty()) {
+            return syncCheckpoint;
+        }
+        JSONObject jsonObject = new JSONObject(json);
+        syncCheckpoint.lastProcessedServerVersion = jsonObject.optLong(LAST_PROCESSED_SERVER_VERSION);
+        JSONArray ranges = jsonObject.optJSONArray(PENDING_RANGES);
+        if (ranges != null) {
+            for (int i = 0; i < ranges.length(); i++) {
+                JSONArray range = ranges.getJSONArray(i);
+                syncCheckpoint.pendingRanges.add(Pair.create(range.getLong(0), range.getLong(1)));
+            }
+        }
+        return syncCheckpoint;
+    }
+}
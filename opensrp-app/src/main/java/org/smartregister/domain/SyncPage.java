@@ -0,0 +1,86 @@
+package org.smartregister.domain;
+
+/**
+ * Summary of a single page pulled from /rest/event/sync, collected while the page is being
+ * streamed into the database.
+ */
+public class SyncPage {
+
+    private int noOfEvents = -1;
+
+    private int eventCount;
+
+    private int clientCount;
+
+    private long minServerVersion = Long.MAX_VALUE;
+
+    private long maxServerVersion = Long.MIN_VALUE;
+
+    private long byteCount;
+
+    private long transferMillis;
+
+    public int getNoOfEvents() {
+        return noOfEvents;
+    }
+
+    public void setNoOfEvents(int noOfEvents) {
+        this.noOfEvents = noOfEvents;
+    }
+
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    public void addClients(int count) {
+        clientCount += count;
+    }
+
+    public void addEvent(Long serverVersion) {
+        eventCount++;
+        if (serverVersion == null) {
+            return;
+        }
+        if (serverVersion > maxServerVersion) {
+            maxServerVersion = serverVersion;
+        }
+        if (serverVersion < minServerVersion) {
+            minServerVersion = serverVersion;
+        }
+    }
+
+    public boolean hasServerVersions() {
+        return minServerVersion <= maxServerVersion;
+    }
+
+    public long getMinServerVersion() {
+        return hasServerVersions() ? minServerVersion : 0L;
+    }
+
+    public long getMaxServerVersion() {
+        return hasServerVersions() ? maxServerVersion : 0L;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public void setByteCount(long byteCount) {
+        this.byteCount = byteCount;
+    }
+
+    /**
+     * @return time spent reading and saving the page once the server started responding
+     */
+    public long getTransferMillis() {
+        return transferMillis;
+    }
+
+    public void setTransferMillis(long transferMillis) {
+        this.transferMillis = transferMillis;
+    }
+}
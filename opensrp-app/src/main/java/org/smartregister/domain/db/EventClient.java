@@ -4,6 +4,7 @@ public class EventClient {
 
     private Event event;
     private Client client;
+    private Long rowId;
 
     public EventClient(Event event) {
         this.event = event;
@@ -29,4 +30,12 @@ public class EventClient {
     public void setEvent(Event event) {
         this.event = event;
     }
+
+    public Long getRowId() {
+        return rowId;
+    }
+
+    public void setRowId(Long rowId) {
+        this.rowId = rowId;
+    }
 }
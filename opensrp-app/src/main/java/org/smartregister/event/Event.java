@@ -16,6 +16,8 @@ public class Event<CallbackType> {
     public static final Event<Boolean> SYNC_COMPLETED = new Event<Boolean>();
     public static final Event<String> FORM_SUBMITTED = new Event<String>();
     public static final Event<String> ACTION_HANDLED = new Event<String>();
+    // notified with the id of an entity whose data was changed by a form or by client processing
+    public static final Event<String> ENTITY_UPDATED = new Event<String>();
 
     List<WeakReference<Listener<CallbackType>>> listeners;
 
@@ -0,0 +1,20 @@
+package org.smartregister.job;
+
+import android.content.Intent;
+import android.support.annotation.NonNull;
+
+import org.smartregister.AllConstants;
+import org.smartregister.sync.intent.JsonStorageMigrationIntentService;
+
+public class JsonStorageMigrationServiceJob extends BaseJob {
+
+    public static final String TAG = "JsonStorageMigrationServiceJob";
+
+    @NonNull
+    @Override
+    protected Result onRunJob(@NonNull Params params) {
+        Intent intent = new Intent(getApplicationContext(), JsonStorageMigrationIntentService.class);
+        getApplicationContext().startService(intent);
+        return params != null && params.getExtras().getBoolean(AllConstants.INTENT_KEY.TO_RESCHEDULE, false) ? Result.RESCHEDULE : Result.SUCCESS;
+    }
+}
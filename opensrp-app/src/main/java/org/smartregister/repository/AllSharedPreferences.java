@@ -28,6 +28,7 @@ public class AllSharedPreferences {
     private static final String HOST = "HOST";
     private static final String PORT = "PORT";
     private static final String LAST_SYNC_DATE = "LAST_SYNC_DATE";
+    private static final String SYNC_CHECKPOINT = "SYNC_CHECKPOINT";
     private static final String LAST_UPDATED_AT_DATE = "LAST_UPDATED_AT_DATE";
     private static final String LAST_CHECK_TIMESTAMP = "LAST_SYNC_CHECK_TIMESTAMP";
     public final static String LAST_SETTINGS_SYNC_TIMESTAMP = "LAST_SETTINGS_SYNC_TIMESTAMP";
@@ -207,6 +208,22 @@ public class AllSharedPreferences {
         preferences.edit().putLong(LAST_SYNC_DATE, lastSyncDate).commit();
     }
 
+    public String fetchSyncCheckpoint() {
+        return preferences.getString(SYNC_CHECKPOINT, null);
+    }
+
+    public void saveSyncCheckpoint(String syncCheckpoint) {
+        preferences.edit().putString(SYNC_CHECKPOINT, syncCheckpoint).commit();
+    }
+
+    /**
+     * Saves the last sync date and the sync checkpoint in a single commit so that a crash can
+     * never leave one updated without the other
+     */
+    public void saveLastSyncDateAndCheckpoint(long lastSyncDate, String syncCheckpoint) {
+        preferences.edit().putLong(LAST_SYNC_DATE, lastSyncDate).putString(SYNC_CHECKPOINT, syncCheckpoint).commit();
+    }
+
     public Long fetchLastUpdatedAtDate(long lastSyncDate) {
 
         return preferences.getLong(LAST_UPDATED_AT_DATE, lastSyncDate);
@@ -25,6 +25,9 @@ public class BaseRepository {
     public static String TYPE_Valid = "Valid";
     public static String TYPE_InValid = "Invalid";
     public static String TYPE_Task_Unprocessed = "task_unprocessed";
+    public static String TYPE_Unprocessed = "Unprocessed";
+    public static String TYPE_Unprocessed_Staged = "unprocessed_staged";
+    public static String TYPE_Unprocessed_No_Client = "unprocessed_no_client";
     public static String TYPE_Created = "Created";
     protected static final String ORDER_BY = " order by ";
 
@@ -0,0 +1,67 @@
+package org.smartregister.repository;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores json documents as deflated UTF-8. Event and client documents repeat the same keys and
+ * concept codes many times, so they usually shrink to a fraction of their text size, which cuts
+ * the pages SQLCipher has to decrypt for every read.
+ */
+public class DeflateJsonStorageCodec implements JsonStorageCodec {
+
+    public static final byte ID = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int level;
+
+    public DeflateJsonStorageCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level deflate compression level, 1 (fastest) to 9 (smallest)
+     */
+    public DeflateJsonStorageCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(String json) throws IOException {
+        byte[] bytes = json.getBytes(UTF_8);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4 + 16);
+        Deflater deflater = new Deflater(level);
+        DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater);
+        try {
+            deflaterOutputStream.write(bytes);
+            deflaterOutputStream.finish();
+        } finally {
+            deflaterOutputStream.close();
+            deflater.end();
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public String decode(byte[] data) throws IOException {
+        InflaterInputStream inputStream = new InflaterInputStream(new ByteArrayInputStream(data));
+        try {
+            return new String(IOUtils.toByteArray(inputStream), UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
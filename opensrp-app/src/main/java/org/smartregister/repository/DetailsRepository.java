@@ -2,15 +2,24 @@ package org.smartregister.repository;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
+import org.apache.commons.lang3.StringUtils;
 import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by koros on 4/19/16.
@@ -26,6 +35,26 @@ public class DetailsRepository extends DrishtiRepository {
     private static final String KEY_COLUMN = "key";
     private static final String VALUE_COLUMN = "value";
     private static final String EVENT_DATE_COLUMN = "event_date";
+    private static final int MAX_CACHED_CLIENTS = 500;
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    private static final int MAX_TRACKED_WRITES = 4 * MAX_CACHED_CLIENTS;
+
+    // Details by base entity id, evicted whenever the details of the client are written
+    private final LruCache<String, Map<String, String>> detailsCache = new LruCache<>(MAX_CACHED_CLIENTS);
+
+    // Generation of the last write of each client. Details read before a write of the client are
+    // not cached once the write is done, so a read racing a write can not cache stale details.
+    private final LruCache<String, Long> writeGenerations = new LruCache<String, Long>(MAX_TRACKED_WRITES) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, Long oldValue, Long newValue) {
+            if (evicted) {
+                evictedGeneration = Math.max(evictedGeneration, oldValue);
+            }
+        }
+    };
+    private long generation;
+    private long evictedGeneration;
 
     @Override
     protected void onCreate(SQLiteDatabase database) {
@@ -54,6 +83,130 @@ public class DetailsRepository extends DrishtiRepository {
             long rowId = database.insert(TABLE_NAME, null, values);
             //Log.i(getClass().getName(), "Details Row Inserted : " + String.valueOf(rowId));
         }
+        written(baseEntityId);
+    }
+
+    /**
+     * Saves several details of a client. The stored details are read with one query and only the
+     * keys whose value changed are written, in one transaction.
+     *
+     * @param baseEntityId client the details belong to
+     * @param values       details by key
+     * @param timestamp    event date of the changed details
+     */
+    public void add(String baseEntityId, Map<String, String> values, Long timestamp) {
+        if (baseEntityId == null || values == null || values.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase database = masterRepository.getWritableDatabase();
+        Map<String, String> storedValues = new HashMap<>();
+        Map<String, List<Long>> storedRowIds = new HashMap<>();
+        getStoredDetails(database, baseEntityId, storedValues, storedRowIds);
+
+        SQLiteStatement insertStatement = null;
+        SQLiteStatement updateStatement = null;
+        database.beginTransaction();
+        try {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                String key = entry.getKey();
+                String value = entry.getValue();
+                List<Long> rowIds = storedRowIds.get(key);
+                if (rowIds == null) {
+                    if (insertStatement == null) {
+                        insertStatement = database.compileStatement("INSERT INTO " + TABLE_NAME + " ("
+                                + BASE_ENTITY_ID_COLUMN + ", " + KEY_COLUMN + ", " + VALUE_COLUMN + ", "
+                                + EVENT_DATE_COLUMN + ") VALUES (?, ?, ?, ?)");
+                    }
+                    insertStatement.clearBindings();
+                    insertStatement.bindString(1, baseEntityId);
+                    bindString(insertStatement, 2, key);
+                    bindString(insertStatement, 3, value);
+                    bindLong(insertStatement, 4, timestamp);
+                    insertStatement.executeInsert();
+                } else if (value == null || !value.equals(storedValues.get(key))) {
+                    if (updateStatement == null) {
+                        updateStatement = database.compileStatement("UPDATE " + TABLE_NAME + " SET "
+                                + VALUE_COLUMN + " = ?, " + EVENT_DATE_COLUMN + " = ? WHERE rowid = ?");
+                    }
+                    for (Long rowId : rowIds) {
+                        updateStatement.clearBindings();
+                        bindString(updateStatement, 1, value);
+                        bindLong(updateStatement, 2, timestamp);
+                        updateStatement.bindLong(3, rowId);
+                        updateStatement.executeUpdateDelete();
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            if (insertStatement != null) {
+                insertStatement.close();
+            }
+            if (updateStatement != null) {
+                updateStatement.close();
+            }
+            database.endTransaction();
+            written(baseEntityId);
+        }
+    }
+
+    /**
+     * Reads the stored details of a client. base_entity_id is only indexed by the fts table, so
+     * the rows are found with a phrase match on it and then compared exactly.
+     */
+    private void getStoredDetails(SQLiteDatabase database, String baseEntityId, Map<String, String> storedValues, Map<String, List<Long>> storedRowIds) {
+        String query = "SELECT rowid, " + KEY_COLUMN + ", " + VALUE_COLUMN + " FROM " + TABLE_NAME + " WHERE ";
+        String[] args;
+        String tokens = matchTokens(baseEntityId);
+        if (!tokens.isEmpty()) {
+            query += BASE_ENTITY_ID_COLUMN + " MATCH ? AND " + BASE_ENTITY_ID_COLUMN + " = ?";
+            args = new String[]{"\"" + tokens + "\"", baseEntityId};
+        } else {
+            query += BASE_ENTITY_ID_COLUMN + " = ?";
+            args = new String[]{baseEntityId};
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(query, args);
+            while (cursor.moveToNext()) {
+                String key = cursor.getString(1);
+                List<Long> rowIds = storedRowIds.get(key);
+                if (rowIds == null) {
+                    rowIds = new ArrayList<>();
+                    storedRowIds.put(key, rowIds);
+                    storedValues.put(key, cursor.getString(2));
+                }
+                rowIds.add(cursor.getLong(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * The fts simple tokenizer splits on ascii characters that are not letters or digits
+     */
+    private static String matchTokens(String baseEntityId) {
+        return baseEntityId.replaceAll("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+", " ").trim();
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
     }
 
     private Boolean getIdForDetailsIfExists(String baseEntityId, String key, String value) {
@@ -83,6 +236,12 @@ public class DetailsRepository extends DrishtiRepository {
     }
 
     public Map<String, String> getAllDetailsForClient(String baseEntityId) {
+        Map<String, String> cachedDetails = baseEntityId == null ? null : detailsCache.get(baseEntityId);
+        if (cachedDetails != null) {
+            return new HashMap<>(cachedDetails);
+        }
+        long readGeneration = getGeneration();
+
         Cursor cursor = null;
         Map<String, String> clientDetails = new HashMap<String, String>();
         try {
@@ -97,6 +256,7 @@ public class DetailsRepository extends DrishtiRepository {
                     clientDetails.put(key, value);
                 } while (cursor.moveToNext());
             }
+            cache(baseEntityId, clientDetails, readGeneration);
             return clientDetails;
         } catch (Exception e) {
             Log.e(TAG, e.toString(), e);
@@ -108,6 +268,155 @@ public class DetailsRepository extends DrishtiRepository {
         return clientDetails;
     }
 
+    /**
+     * Reads the details of several clients, e.g. those of a register page, with one query for the
+     * clients whose details are not cached
+     *
+     * @return details by base entity id, clients without details map to an empty map
+     */
+    public Map<String, Map<String, String>> getAllDetailsForClients(Collection<String> baseEntityIds) {
+        Map<String, Map<String, String>> clientsDetails = new HashMap<>();
+        Set<String> missingIds = new LinkedHashSet<>();
+        long readGeneration = getGeneration();
+        for (String baseEntityId : baseEntityIds) {
+            if (baseEntityId == null || clientsDetails.containsKey(baseEntityId)) {
+                continue;
+            }
+            Map<String, String> cachedDetails = detailsCache.get(baseEntityId);
+            if (cachedDetails != null) {
+                clientsDetails.put(baseEntityId, new HashMap<>(cachedDetails));
+            } else {
+                clientsDetails.put(baseEntityId, new HashMap<String, String>());
+                missingIds.add(baseEntityId);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(missingIds);
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+            List<String> chunk = ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size()));
+            try {
+                readDetails(chunk, clientsDetails);
+                for (String baseEntityId : chunk) {
+                    cache(baseEntityId, clientsDetails.get(baseEntityId), readGeneration);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, e.toString(), e);
+            }
+        }
+        return clientsDetails;
+    }
+
+    /**
+     * Bulk {@link #updateDetails(CommonPersonObjectClient)}, reads the details of all the clients
+     * with {@link #getAllDetailsForClients(Collection)}
+     */
+    public void updateDetails(List<CommonPersonObjectClient> commonPersonObjectClients) {
+        List<String> baseEntityIds = new ArrayList<>();
+        for (CommonPersonObjectClient commonPersonObjectClient : commonPersonObjectClients) {
+            baseEntityIds.add(commonPersonObjectClient.entityId());
+        }
+
+        Map<String, Map<String, String>> clientsDetails = getAllDetailsForClients(baseEntityIds);
+        for (CommonPersonObjectClient commonPersonObjectClient : commonPersonObjectClients) {
+            Map<String, String> details = clientsDetails.get(commonPersonObjectClient.entityId());
+            details = details == null ? new HashMap<String, String>() : new HashMap<>(details);
+            details.putAll(commonPersonObjectClient.getColumnmaps());
+
+            if (commonPersonObjectClient.getDetails() != null) {
+                commonPersonObjectClient.getDetails().putAll(details);
+            } else {
+                commonPersonObjectClient.setDetails(details);
+            }
+        }
+    }
+
+    /**
+     * Reads the details of the clients into the maps of clientsDetails. base_entity_id is only
+     * indexed by the fts table, so the rows are found with a phrase match on any of the ids and
+     * then compared exactly.
+     */
+    private void readDetails(List<String> baseEntityIds, Map<String, Map<String, String>> clientsDetails) {
+        List<String> phrases = new ArrayList<>();
+        for (String baseEntityId : baseEntityIds) {
+            String tokens = matchTokens(baseEntityId);
+            if (tokens.isEmpty()) {
+                // An id without tokens can not be matched, fall back to comparing every row
+                phrases.clear();
+                break;
+            }
+            phrases.add("\"" + tokens + "\"");
+        }
+
+        List<String> args = new ArrayList<>();
+        String query = "SELECT " + BASE_ENTITY_ID_COLUMN + ", " + KEY_COLUMN + ", " + VALUE_COLUMN
+                + " FROM " + TABLE_NAME + " WHERE ";
+        if (!phrases.isEmpty()) {
+            query += BASE_ENTITY_ID_COLUMN + " MATCH ? AND ";
+            args.add(StringUtils.join(phrases, " OR "));
+        }
+        query += BASE_ENTITY_ID_COLUMN + " IN (" + StringUtils.repeat("?", ", ", baseEntityIds.size()) + ")";
+        args.addAll(baseEntityIds);
+
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase db = masterRepository.getReadableDatabase();
+            cursor = db.rawQuery(query, args.toArray(new String[args.size()]));
+            while (cursor != null && cursor.moveToNext()) {
+                Map<String, String> details = clientsDetails.get(cursor.getString(0));
+                if (details != null) {
+                    details.put(cursor.getString(1), cursor.getString(2));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached details of the client, e.g. after they are written outside this repository
+     */
+    public void evict(String baseEntityId) {
+        if (baseEntityId != null) {
+            written(baseEntityId);
+        }
+    }
+
+    public synchronized void evictAll() {
+        generation++;
+        evictedGeneration = generation;
+        writeGenerations.evictAll();
+        detailsCache.evictAll();
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Records a committed write of the details of the client and drops its cached details
+     */
+    private synchronized void written(String baseEntityId) {
+        generation++;
+        writeGenerations.put(baseEntityId, generation);
+        detailsCache.remove(baseEntityId);
+    }
+
+    /**
+     * Caches the details read at readGeneration unless the client was written since
+     */
+    private synchronized void cache(String baseEntityId, Map<String, String> details, long readGeneration) {
+        if (baseEntityId == null || details == null || evictedGeneration > readGeneration) {
+            return;
+        }
+        Long writeGeneration = writeGenerations.get(baseEntityId);
+        if (writeGeneration != null && writeGeneration > readGeneration) {
+            return;
+        }
+        detailsCache.put(baseEntityId, Collections.unmodifiableMap(new HashMap<>(details)));
+    }
+
     public Map<String, String> updateDetails(CommonPersonObjectClient commonPersonObjectClient) {
         Map<String, String> details = getAllDetailsForClient(commonPersonObjectClient.entityId());
         details.putAll(commonPersonObjectClient.getColumnmaps());
@@ -137,6 +446,7 @@ public class DetailsRepository extends DrishtiRepository {
             SQLiteDatabase db = masterRepository.getWritableDatabase();
             int afftectedRows = db
                     .delete(TABLE_NAME, BASE_ENTITY_ID_COLUMN + " = ?", new String[]{baseEntityId});
+            evict(baseEntityId);
             if (afftectedRows > 0) {
                 return true;
             }
@@ -7,8 +7,6 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
-import com.google.gson.reflect.TypeToken;
-
 import net.sqlcipher.database.SQLiteDatabase;
 import net.sqlcipher.database.SQLiteStatement;
 
@@ -27,15 +25,22 @@ import org.smartregister.domain.db.EventClient;
 import org.smartregister.util.JsonFormUtils;
 import org.smartregister.util.Utils;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by keyman on 27/07/2017.
@@ -46,10 +51,197 @@ public class EventClientRepository extends BaseRepository {
     private static final String EVENT_ID = "id";
     private static final String ROWID = "rowid";
 
+    // SQLite limits the number of bound parameters per statement to 999
+    private static final int MAX_QUERY_PARAMS = 500;
+    static final String SERVER_VERSION_RANGE = " AND " + event_column.serverVersion.name() + " >= ? AND "
+            + event_column.serverVersion.name() + " <= ?";
+
+    private static final Map<Table, QueryWrapper> insertQueries = new EnumMap<>(Table.class);
+    private static final Map<Table, QueryWrapper> updateQueries = new EnumMap<>(Table.class);
+
+    // decodes blobs written before codecs tagged them with their id, which were all deflated
+    private static final JsonStorageCodec DEFAULT_JSON_STORAGE_CODEC = new DeflateJsonStorageCodec();
+
+    // codecs stored blobs can be decoded with, by id
+    private static final Map<Byte, JsonStorageCodec> jsonStorageCodecs = new ConcurrentHashMap<>();
+
+    static {
+        jsonStorageCodecs.put(DEFAULT_JSON_STORAGE_CODEC.getId(), DEFAULT_JSON_STORAGE_CODEC);
+    }
+
+    private static volatile JsonStorageCodec jsonStorageCodec;
+
     public EventClientRepository(Repository repository) {
         super(repository);
     }
 
+    /**
+     * Sets the codec event and client json is written with, null to write plain text. Rows that
+     * are already stored keep their format until {@link #migrateJsonStorage(Table, long, int)} converts
+     * them, reads handle both formats.
+     */
+    public static void setJsonStorageCodec(JsonStorageCodec codec) {
+        if (codec != null) {
+            registerJsonStorageCodec(codec);
+        }
+        jsonStorageCodec = codec;
+    }
+
+    public static JsonStorageCodec getJsonStorageCodec() {
+        return jsonStorageCodec;
+    }
+
+    /**
+     * Registers a codec that stored blobs can be decoded with, e.g. one the app used to write
+     * with, so that its blobs stay readable until they are migrated to the current codec
+     */
+    public static void registerJsonStorageCodec(JsonStorageCodec codec) {
+        jsonStorageCodecs.put(codec.getId(), codec);
+    }
+
+    /**
+     * Reads a json column that may hold text or a blob written by a storage codec
+     *
+     * @return the json document, null if the column is null or cannot be decoded
+     */
+    protected String readJson(Cursor cursor, int columnIndex) {
+        if (cursor.getType(columnIndex) != Cursor.FIELD_TYPE_BLOB) {
+            return cursor.getString(columnIndex);
+        }
+        byte[] data = cursor.getBlob(columnIndex);
+        try {
+            JsonStorageCodec codec = data.length > 0 ? jsonStorageCodecs.get(data[0]) : null;
+            if (codec != null) {
+                return codec.decode(Arrays.copyOfRange(data, 1, data.length));
+            }
+            return DEFAULT_JSON_STORAGE_CODEC.decode(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to decode stored json", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the json encoded with the storage codec and prefixed with its id, the json itself if
+     * no codec is set or it cannot be encoded
+     */
+    private static Object encodeJson(String json) {
+        JsonStorageCodec codec = jsonStorageCodec;
+        if (codec == null || json == null) {
+            return json;
+        }
+        try {
+            byte[] encoded = codec.encode(json);
+            byte[] data = new byte[encoded.length + 1];
+            data[0] = codec.getId();
+            System.arraycopy(encoded, 0, data, 1, encoded.length);
+            return data;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode json, storing it as text", e);
+            return json;
+        }
+    }
+
+    private static void bindJson(SQLiteStatement statement, int index, String json) {
+        Object value = encodeJson(json);
+        if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, (String) value);
+        }
+    }
+
+    private static void putJson(ContentValues values, String key, String json) {
+        Object value = encodeJson(json);
+        if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
+        } else {
+            values.put(key, (String) value);
+        }
+    }
+
+    /**
+     * Converts stored rows of the table to the current storage format, i.e. encodes text rows and
+     * blobs of other codecs when a codec is set and decodes blob rows back to text when none is. Each call reads and
+     * converts one chunk of rows in rowid order in its own transaction, so the migration can run in
+     * the background between other writes and resume from the returned rowid. A row is only
+     * rewritten if it still holds the json that was read.
+     *
+     * @param table     event or client table
+     * @param fromRowId rowid to continue after, 0 to start from the first row
+     * @param limit     maximum number of rows to convert
+     * @return rowid of the last row looked at, -1 once no rows after fromRowId need converting
+     */
+    public long migrateJsonStorage(Table table, long fromRowId, int limit) {
+        JsonStorageCodec codec = jsonStorageCodec;
+        Map<Long, Object> storedValues = new LinkedHashMap<>();
+        Map<Long, String> rows = new LinkedHashMap<>();
+        Cursor cursor = null;
+        SQLiteStatement statement = null;
+        getWritableDatabase().beginTransaction();
+        try {
+            String query = "SELECT " + ROWID + ", json FROM " + table.name() + " WHERE " + ROWID + " > ? AND ";
+            String[] args;
+            if (codec != null) {
+                query += "(typeof(json) = 'text' OR (typeof(json) = 'blob' AND hex(substr(json, 1, 1)) != ?))";
+                args = new String[]{String.valueOf(fromRowId), String.format("%02X", codec.getId())};
+            } else {
+                query += "typeof(json) = 'blob'";
+                args = new String[]{String.valueOf(fromRowId)};
+            }
+            cursor = getWritableDatabase().rawQuery(query + " ORDER BY " + ROWID + " LIMIT " + limit, args);
+            while (cursor.moveToNext()) {
+                long rowId = cursor.getLong(0);
+                storedValues.put(rowId, cursor.getType(1) == Cursor.FIELD_TYPE_BLOB ? cursor.getBlob(1) : cursor.getString(1));
+                rows.put(rowId, readJson(cursor, 1));
+            }
+            cursor.close();
+            cursor = null;
+
+            if (rows.isEmpty()) {
+                getWritableDatabase().setTransactionSuccessful();
+                return -1;
+            }
+
+            long lastRowId = fromRowId;
+            // a row written since it was read keeps the newer json
+            statement = getWritableDatabase().compileStatement("UPDATE " + table.name()
+                    + " SET json = ? WHERE " + ROWID + " = ? AND json = ?");
+            for (Map.Entry<Long, String> row : rows.entrySet()) {
+                lastRowId = row.getKey();
+                if (row.getValue() == null) {
+                    // rows that cannot be decoded are left as they are
+                    continue;
+                }
+                statement.clearBindings();
+                bindJson(statement, 1, row.getValue());
+                statement.bindLong(2, row.getKey());
+                Object storedValue = storedValues.get(row.getKey());
+                if (storedValue instanceof byte[]) {
+                    statement.bindBlob(3, (byte[]) storedValue);
+                } else {
+                    statement.bindString(3, (String) storedValue);
+                }
+                if (statement.executeUpdateDelete() == 0) {
+                    Log.d(TAG, "Skipped " + table.name() + " row " + row.getKey() + " written since it was read");
+                }
+            }
+            getWritableDatabase().setTransactionSuccessful();
+            return lastRowId;
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to migrate " + table.name() + " rows", e);
+            return -1;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            getWritableDatabase().endTransaction();
+        }
+    }
+
 
     private void populateAdditionalColumns(ContentValues values, Column[] columns, JSONObject jsonObject) {
         for (Column column : columns) {
@@ -123,24 +315,22 @@ public class EventClientRepository extends BaseRepository {
         return false;
     }
 
-    private boolean populateStatement(SQLiteStatement statement, Table table, JSONObject jsonObject, Map<String, Integer> columnOrder) {
+    private boolean populateStatement(SQLiteStatement statement, Table table, JSONObject jsonObject, QueryWrapper queryWrapper, String syncStatus, String updatedAt) {
         if (statement == null)
             return false;
         statement.clearBindings();
-        List columns;
+        Map<String, Integer> columnOrder = queryWrapper.columnOrder;
         try {
             if (table.equals(Table.client)) {
-                columns = Arrays.asList(client_column.values());
-                statement.bindString(columnOrder.get(client_column.json.name()), jsonObject.toString());
-                statement.bindString(columnOrder.get(client_column.updatedAt.name()), dateFormat.format(new Date()));
-                statement.bindString(columnOrder.get(client_column.syncStatus.name()), BaseRepository.TYPE_Synced);
+                bindJson(statement, columnOrder.get(client_column.json.name()), jsonObject.toString());
+                statement.bindString(columnOrder.get(client_column.updatedAt.name()), updatedAt);
+                statement.bindString(columnOrder.get(client_column.syncStatus.name()), syncStatus);
                 statement.bindString(columnOrder.get(client_column.validationStatus.name()), BaseRepository.TYPE_Valid);
                 statement.bindString(columnOrder.get(client_column.baseEntityId.name()), jsonObject.getString(client_column.baseEntityId.name()));
             } else if (table.equals(Table.event)) {
-                columns = Arrays.asList(event_column.values());
-                statement.bindString(columnOrder.get(event_column.json.name()), jsonObject.toString());
-                statement.bindString(columnOrder.get(event_column.updatedAt.name()), dateFormat.format(new Date()));
-                statement.bindString(columnOrder.get(event_column.syncStatus.name()), BaseRepository.TYPE_Synced);
+                bindJson(statement, columnOrder.get(event_column.json.name()), jsonObject.toString());
+                statement.bindString(columnOrder.get(event_column.updatedAt.name()), updatedAt);
+                statement.bindString(columnOrder.get(event_column.syncStatus.name()), syncStatus);
                 statement.bindString(columnOrder.get(event_column.validationStatus.name()), BaseRepository.TYPE_Valid);
                 statement.bindString(columnOrder.get(event_column.baseEntityId.name()), jsonObject.getString(event_column.baseEntityId.name()));
                 if (jsonObject.has(EVENT_ID))
@@ -149,24 +339,19 @@ public class EventClientRepository extends BaseRepository {
                 return false;
             }
 
-            List<? extends Column> otherColumns = new ArrayList(columns);
-            if (!otherColumns.isEmpty()) {
-                otherColumns.removeAll(Arrays.asList(client_column.json, client_column.updatedAt, client_column.syncStatus, client_column.validationStatus, client_column.baseEntityId,
-                        event_column.json, event_column.updatedAt, event_column.syncStatus, event_column.validationStatus, event_column.baseEntityId, event_column.eventId));
-            }
-
-            for (Column column : otherColumns) {
+            for (Column column : queryWrapper.otherColumns) {
+                int index = columnOrder.get(column.name());
                 if (jsonObject.has(column.name())) {
                     Object value = jsonObject.get(column.name());
                     if (column.column().type().equals(ColumnAttribute.Type.date)) {
-                        statement.bindString(columnOrder.get(column.name()), dateFormat.format(new DateTime(value).toDate()));
+                        statement.bindString(index, dateFormat.format(new DateTime(value).toDate()));
                     } else if (column.column().type().equals(ColumnAttribute.Type.longnum)) {
-                        statement.bindLong(columnOrder.get(column.name()), Long.valueOf(value.toString()));
+                        statement.bindLong(index, Long.valueOf(value.toString()));
                     } else {
-                        statement.bindString(columnOrder.get(column.name()), value.toString());
+                        statement.bindString(index, value.toString());
                     }
                 } else {
-                    statement.bindNull(columnOrder.get(column.name()));
+                    statement.bindNull(index);
                 }
             }
             return true;
@@ -176,8 +361,36 @@ public class EventClientRepository extends BaseRepository {
         }
     }
 
+    /**
+     * Columns that are not bound explicitly by {@link #populateStatement} and are copied from the
+     * json object as is
+     */
+    private static List<Column> getOtherColumns(Table table) {
+        List<Column> otherColumns = new ArrayList<>(Arrays.asList(table.columns()));
+        otherColumns.removeAll(Arrays.asList(client_column.json, client_column.updatedAt, client_column.syncStatus, client_column.validationStatus, client_column.baseEntityId,
+                event_column.json, event_column.updatedAt, event_column.syncStatus, event_column.validationStatus, event_column.baseEntityId, event_column.eventId));
+        return otherColumns;
+    }
+
+    private static synchronized QueryWrapper getInsertQuery(Table table) {
+        QueryWrapper queryWrapper = insertQueries.get(table);
+        if (queryWrapper == null) {
+            queryWrapper = generateInsertQuery(table);
+            insertQueries.put(table, queryWrapper);
+        }
+        return queryWrapper;
+    }
+
+    private static synchronized QueryWrapper getUpdateQuery(Table table) {
+        QueryWrapper queryWrapper = updateQueries.get(table);
+        if (queryWrapper == null) {
+            queryWrapper = generateUpdateQuery(table);
+            updateQueries.put(table, queryWrapper);
+        }
+        return queryWrapper;
+    }
 
-    private QueryWrapper generateInsertQuery(Table table) {
+    private static QueryWrapper generateInsertQuery(Table table) {
 
         QueryWrapper queryWrapper = new QueryWrapper();
         Map<String, Integer> columnOrder = new HashMap();
@@ -202,21 +415,18 @@ public class EventClientRepository extends BaseRepository {
 
         queryWrapper.sqlQuery = queryBuilder.toString();
         queryWrapper.columnOrder = columnOrder;
+        queryWrapper.otherColumns = getOtherColumns(table);
 
         return queryWrapper;
     }
 
-    private QueryWrapper generateUpdateQuery(Table table) {
+    private static QueryWrapper generateUpdateQuery(Table table) {
         QueryWrapper queryWrapper = new QueryWrapper();
         Map<String, Integer> columnOrder = new HashMap();
 
-        Column filterColumn;
-
-        if (table.equals(Table.client))
-            filterColumn = client_column.baseEntityId;
-        else if (table.equals(Table.event))
-            filterColumn = event_column.formSubmissionId;
-        else return null;
+        Column filterColumn = getUpsertKeyColumn(table);
+        if (filterColumn == null)
+            return null;
         StringBuilder queryBuilder = new StringBuilder("UPDATE ");
         queryBuilder.append(table.name());
         queryBuilder.append(" SET ");
@@ -238,68 +448,54 @@ public class EventClientRepository extends BaseRepository {
 
         queryWrapper.sqlQuery = queryBuilder.toString();
         queryWrapper.columnOrder = columnOrder;
+        queryWrapper.otherColumns = getOtherColumns(table);
 
         return queryWrapper;
     }
 
-    public boolean batchInsertClients(JSONArray array) {
-        if (array == null || array.length() == 0) {
-            return false;
-        }
-        SQLiteStatement insertStatement = null;
-        SQLiteStatement updateStatement = null;
-        try {
-            getWritableDatabase().beginTransaction();
-
-            int maxRowId = 0;
-            QueryWrapper insertQueryWrapper = generateInsertQuery(Table.client);
-
-            QueryWrapper updateQueryWrapper = generateUpdateQuery(Table.client);
-
-            insertStatement = getWritableDatabase().compileStatement(insertQueryWrapper.sqlQuery);
-
-            updateStatement = getWritableDatabase().compileStatement(updateQueryWrapper.sqlQuery);
-
-            for (int i = 0; i < array.length(); i++) {
-                try {
-                    JSONObject jsonObject = array.getJSONObject(i);
-                    String baseEntityId = jsonObject.getString(client_column.baseEntityId.name());
-
-                    if (maxRowId == 0) {
-                        maxRowId = getMaxRowId(Table.client);
-                    }
-
-                    maxRowId++;
-                    if (checkIfExists(Table.client, baseEntityId)) {
-                        if (populateStatement(updateStatement, Table.client, jsonObject, updateQueryWrapper.columnOrder)) {
-                            updateStatement.bindLong(updateQueryWrapper.columnOrder.get(ROWID), (long) maxRowId);
-                            updateStatement.executeUpdateDelete();
-                        } else {
-                            Log.w(TAG, "Unable to update client with baseEntityId: " + baseEntityId);
-                        }
+    private static Column getUpsertKeyColumn(Table table) {
+        if (table.equals(Table.client))
+            return client_column.baseEntityId;
+        else if (table.equals(Table.event))
+            return event_column.formSubmissionId;
+        return null;
+    }
 
-                    } else {
-                        if (populateStatement(insertStatement, Table.client, jsonObject, insertQueryWrapper.columnOrder))
-                            insertStatement.executeInsert();
-                        else
-                            Log.w(TAG, "Unable to add client with baseEntityId: " + baseEntityId);
-                    }
-                } catch (JSONException e) {
-                    Log.e(TAG, "JSONException", e);
+    /**
+     * Finds which of the given keys already exist in the table using one IN query per
+     * {@link #MAX_QUERY_PARAMS} keys instead of one query per row
+     */
+    private Set<String> getExistingKeys(Table table, Column keyColumn, List<String> keys) {
+        Set<String> existingKeys = new HashSet<>();
+        for (int start = 0; start < keys.size(); start += MAX_QUERY_PARAMS) {
+            List<String> chunk = keys.subList(start, Math.min(keys.size(), start + MAX_QUERY_PARAMS));
+            Cursor cursor = null;
+            try {
+                cursor = getWritableDatabase().rawQuery(existingKeysQuery(table, keyColumn, chunk.size()), chunk.toArray(new String[0]));
+                while (cursor != null && cursor.moveToNext()) {
+                    existingKeys.add(cursor.getString(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
                 }
             }
-            getWritableDatabase().setTransactionSuccessful();
-            getWritableDatabase().endTransaction();
-            return true;
-        } catch (Exception e) {
-            Log.e(getClass().getName(), "", e);
-            return false;
-        } finally {
-            if (insertStatement != null)
-                insertStatement.close();
-            if (updateStatement != null)
-                updateStatement.close();
         }
+        return existingKeys;
+    }
+
+    static String existingKeysQuery(Table table, Column keyColumn, int keyCount) {
+        return "SELECT "
+                + keyColumn.name()
+                + " FROM "
+                + table.name()
+                + " WHERE "
+                + keyColumn.name()
+                + " IN (" + TextUtils.join(",", Collections.nCopies(keyCount, "?")) + ")";
+    }
+
+    public boolean batchInsertClients(JSONArray array) {
+        return batchUpsert(Table.client, array, BaseRepository.TYPE_Synced);
     }
 
 
@@ -318,50 +514,129 @@ public class EventClientRepository extends BaseRepository {
     }
 
     public boolean batchInsertEvents(JSONArray array, long serverVersion) {
+        return batchUpsert(Table.event, array, BaseRepository.TYPE_Synced);
+    }
+
+    /**
+     * Saves events pulled from the server and flags them as {@link BaseRepository#TYPE_Unprocessed_Staged}.
+     * Staged events are not picked up by client processing until {@link #releaseUnprocessedEvents()}
+     * is called once the clients of their sync page have been saved.
+     *
+     * @param array events to save
+     * @return true if the events were saved
+     */
+    public boolean batchInsertUnprocessedEvents(JSONArray array) {
+        return batchUpsert(Table.event, array, BaseRepository.TYPE_Unprocessed_Staged);
+    }
+
+    /**
+     * Flags staged events as {@link BaseRepository#TYPE_Unprocessed} so that client processing
+     * picks them up through {@link #fetchUnprocessedEventClients(int)}. Events that were skipped
+     * earlier because their client was missing are released too once the client has been saved.
+     *
+     * @return true if the events were updated
+     */
+    public boolean releaseUnprocessedEvents() {
+        boolean inTransaction = false;
+        try {
+            getWritableDatabase().beginTransaction();
+            inTransaction = true;
+            getWritableDatabase().execSQL("UPDATE "
+                            + Table.event.name()
+                            + " SET "
+                            + event_column.syncStatus.name()
+                            + " = ? WHERE "
+                            + event_column.syncStatus.name()
+                            + " = ?",
+                    new Object[]{BaseRepository.TYPE_Unprocessed, BaseRepository.TYPE_Unprocessed_Staged});
+            getWritableDatabase().execSQL("UPDATE "
+                            + Table.event.name()
+                            + " SET "
+                            + event_column.syncStatus.name()
+                            + " = ? WHERE "
+                            + event_column.syncStatus.name()
+                            + " = ? AND "
+                            + event_column.baseEntityId.name()
+                            + " IN (SELECT "
+                            + client_column.baseEntityId.name()
+                            + " FROM "
+                            + Table.client.name()
+                            + ")",
+                    new Object[]{BaseRepository.TYPE_Unprocessed, BaseRepository.TYPE_Unprocessed_No_Client});
+            getWritableDatabase().setTransactionSuccessful();
+            return true;
+        } catch (Exception e) {
+            Log.e(getClass().getName(), "Exception", e);
+            return false;
+        } finally {
+            if (inTransaction) {
+                getWritableDatabase().endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Inserts new rows and updates existing ones in a single transaction. Existence of the whole
+     * batch is resolved up front, the statements are compiled once and the updatedAt timestamp is
+     * formatted once per batch.
+     */
+    private boolean batchUpsert(Table table, JSONArray array, String syncStatus) {
         if (array == null || array.length() == 0) {
             return false;
         }
 
+        Column keyColumn = getUpsertKeyColumn(table);
+        List<JSONObject> rows = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            try {
+                JSONObject jsonObject = array.getJSONObject(i);
+                keys.add(jsonObject.getString(keyColumn.name()));
+                rows.add(jsonObject);
+            } catch (JSONException e) {
+                Log.e(TAG, "JSONException", e);
+            }
+        }
+
         SQLiteStatement insertStatement = null;
         SQLiteStatement updateStatement = null;
-
+        boolean inTransaction = false;
         try {
+            Set<String> existingKeys = getExistingKeys(table, keyColumn, keys);
 
             getWritableDatabase().beginTransaction();
-            int maxRowId = 0;
-
-            QueryWrapper insertQueryWrapper = generateInsertQuery(Table.event);
+            inTransaction = true;
 
-            QueryWrapper updateQueryWrapper = generateUpdateQuery(Table.event);
+            QueryWrapper insertQueryWrapper = getInsertQuery(table);
+            QueryWrapper updateQueryWrapper = getUpdateQuery(table);
 
             insertStatement = getWritableDatabase().compileStatement(insertQueryWrapper.sqlQuery);
-
             updateStatement = getWritableDatabase().compileStatement(updateQueryWrapper.sqlQuery);
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject jsonObject = array.getJSONObject(i);
-                String formSubmissionId = jsonObject.getString(event_column.formSubmissionId.name());
 
-                if (maxRowId == 0) {
-                    maxRowId = getMaxRowId(Table.event);
-                }
+            String updatedAt = dateFormat.format(new Date());
+            int maxRowId = getMaxRowId(table);
+            for (int i = 0; i < rows.size(); i++) {
+                JSONObject jsonObject = rows.get(i);
+                String key = keys.get(i);
 
                 maxRowId++;
-                if (checkIfExistsByFormSubmissionId(Table.event, formSubmissionId)) {
-                    if (populateStatement(updateStatement, Table.event, jsonObject, updateQueryWrapper.columnOrder)) {
+                if (existingKeys.contains(key)) {
+                    if (populateStatement(updateStatement, table, jsonObject, updateQueryWrapper, syncStatus, updatedAt)) {
                         updateStatement.bindLong(updateQueryWrapper.columnOrder.get(ROWID), (long) maxRowId);
                         updateStatement.executeUpdateDelete();
                     } else {
-                        Log.w(TAG, "Unable to update event with formSubmissionId:  " + formSubmissionId);
+                        Log.w(TAG, "Unable to update " + table.name() + " with " + keyColumn.name() + ": " + key);
                     }
                 } else {
-                    if (populateStatement(insertStatement, Table.event, jsonObject, insertQueryWrapper.columnOrder))
+                    if (populateStatement(insertStatement, table, jsonObject, insertQueryWrapper, syncStatus, updatedAt)) {
                         insertStatement.executeInsert();
-                    else
-                        Log.w(TAG, "Unable to update event with formSubmissionId: " + formSubmissionId);
+                        existingKeys.add(key);
+                    } else {
+                        Log.w(TAG, "Unable to add " + table.name() + " with " + keyColumn.name() + ": " + key);
+                    }
                 }
             }
             getWritableDatabase().setTransactionSuccessful();
-            getWritableDatabase().endTransaction();
             return true;
         } catch (Exception e) {
             Log.e(getClass().getName(), "", e);
@@ -371,6 +646,8 @@ public class EventClientRepository extends BaseRepository {
                 insertStatement.close();
             if (updateStatement != null)
                 updateStatement.close();
+            if (inTransaction)
+                getWritableDatabase().endTransaction();
         }
     }
 
@@ -412,15 +689,14 @@ public class EventClientRepository extends BaseRepository {
         try {
             if (jsonObject != null && jsonObject.has(EVENTS)) {
                 JSONArray events = jsonObject.getJSONArray(EVENTS);
-                Type listType = new TypeToken<List<Event>>() {
-                }.getType();
-                List<Event> eventList = JsonFormUtils.gson.fromJson(events.toString(), listType);
 
                 long maxServerVersion = Long.MIN_VALUE;
                 long minServerVersion = Long.MAX_VALUE;
 
-                for (Event event : eventList) {
-                    long serverVersion = event.getServerVersion();
+                // only the server versions are needed, read them without decoding the events
+                for (int i = 0; i < events.length(); i++) {
+                    JSONObject event = events.optJSONObject(i);
+                    long serverVersion = event == null ? 0 : event.optLong(event_column.serverVersion.name());
                     if (serverVersion > maxServerVersion) {
                         maxServerVersion = serverVersion;
                     }
@@ -455,9 +731,9 @@ public class EventClientRepository extends BaseRepository {
                             + event_column.serverVersion.name(),
                     null);
             while (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
 
                 JSONObject ev = new JSONObject(jsonEventStr);
 
@@ -479,42 +755,19 @@ public class EventClientRepository extends BaseRepository {
     }
 
     public List<EventClient> fetchEventClients(long startServerVersion, long lastServerVersion) {
-        List<EventClient> list = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            cursor = getWritableDatabase().rawQuery("SELECT json FROM "
-                            + Table.event.name()
-                            + " WHERE "
-                            + event_column.serverVersion.name()
-                            + " > ? AND "
-                            + event_column.serverVersion.name()
-                            + " <= ?  ORDER BY "
-                            + event_column.serverVersion.name(),
-                    new String[]{String.valueOf(startServerVersion), String.valueOf(lastServerVersion)});
-            while (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
-                if (StringUtils.isBlank(jsonEventStr)
-                        || "{}".equals(jsonEventStr)) { // Skip blank/empty json string
-                    continue;
-                }
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
-
-                Event event = convert(jsonEventStr, Event.class);
-
-                String baseEntityId = event.getBaseEntityId();
-                Client client = fetchClientByBaseEntityId(baseEntityId);
+        return fetchEventClients(eventClientsByServerVersionQuery(),
+                new String[]{String.valueOf(startServerVersion), String.valueOf(lastServerVersion)});
+    }
 
-                EventClient eventClient = new EventClient(event, client);
-                list.add(eventClient);
-            }
-        } catch (Exception e) {
-            Log.e(getClass().getName(), "Exception", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return list;
+    static String eventClientsByServerVersionQuery() {
+        return "SELECT json FROM "
+                + Table.event.name()
+                + " WHERE "
+                + event_column.serverVersion.name()
+                + " > ? AND "
+                + event_column.serverVersion.name()
+                + " <= ?  ORDER BY "
+                + event_column.serverVersion.name();
     }
 
     /**
@@ -526,40 +779,13 @@ public class EventClientRepository extends BaseRepository {
     public List<EventClient> fetchEventClientsByEventTypes(List<String> eventTypes) {
         if (eventTypes == null)
             return null;
-        List<EventClient> list = new ArrayList<>();
-        Cursor cursor = null;
-        try {
-            String eventTypeString = TextUtils.join(",", Collections.nCopies(eventTypes.size(), "?"));
-
-            cursor = getWritableDatabase().rawQuery(String.format("SELECT json FROM "
-                            + Table.event.name()
-                            + " WHERE " + event_column.eventType.name() + " IN (%s)  "
-                            + " ORDER BY " + event_column.serverVersion.name(), eventTypeString),
-                    eventTypes.toArray(new String[]{}));
-            while (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
-                if (StringUtils.isBlank(jsonEventStr)
-                        || "{}".equals(jsonEventStr)) { // Skip blank/empty json string
-                    continue;
-                }
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
-
-                Event event = convert(jsonEventStr, Event.class);
-
-                String baseEntityId = event.getBaseEntityId();
-                Client client = fetchClientByBaseEntityId(baseEntityId);
+        String eventTypeString = TextUtils.join(",", Collections.nCopies(eventTypes.size(), "?"));
 
-                EventClient eventClient = new EventClient(event, client);
-                list.add(eventClient);
-            }
-        } catch (Exception e) {
-            Log.e(getClass().getName(), "Exception", e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return list;
+        return fetchEventClients(String.format("SELECT json FROM "
+                        + Table.event.name()
+                        + " WHERE " + event_column.eventType.name() + " IN (%s)  "
+                        + " ORDER BY " + event_column.serverVersion.name(), eventTypeString),
+                eventTypes.toArray(new String[]{}));
     }
 
     public List<JSONObject> getEvents(Date lastSyncDate) {
@@ -585,7 +811,7 @@ public class EventClientRepository extends BaseRepository {
 
         try {
             while (cursor.moveToNext()) {
-                String jsonEventStr = (cursor.getString(0));
+                String jsonEventStr = readJson(cursor, 0);
                 // String jsonEventStr = new String(json, "UTF-8");
                 if (StringUtils.isBlank(jsonEventStr)
                         || "{}".equals(jsonEventStr)) { // Skip blank/empty json string
@@ -654,7 +880,7 @@ public class EventClientRepository extends BaseRepository {
 
         try {
             while (cursor.moveToNext()) {
-                String jsonEventStr = (cursor.getString(0));
+                String jsonEventStr = readJson(cursor, 0);
                 // String jsonEventStr = new String(json, "UTF-8");
                 if (StringUtils.isBlank(jsonEventStr)
                         || "{}".equals(jsonEventStr)) { // Skip blank/empty json string
@@ -700,10 +926,13 @@ public class EventClientRepository extends BaseRepository {
 
     public List<EventClient> fetchEventClients(Date lastSyncDate, String syncStatus) {
 
-        List<EventClient> list = new ArrayList<>();
         String lastSyncString = DateUtil.yyyyMMddHHmmss.format(lastSyncDate);
 
-        String query = "select "
+        return fetchEventClients(eventClientsBySyncStatusQuery(), new String[]{syncStatus, lastSyncString});
+    }
+
+    static String eventClientsBySyncStatusQuery() {
+        return "select "
                 + event_column.json
                 + ","
                 + event_column.updatedAt
@@ -715,85 +944,255 @@ public class EventClientRepository extends BaseRepository {
                 + event_column.updatedAt
                 + " > ? ORDER BY "
                 + event_column.serverVersion.name();
+    }
 
-        Cursor cursor = getWritableDatabase().rawQuery(query, new String[]{syncStatus, lastSyncString});
+    /**
+     * Fetches the oldest events that were saved by sync but have not gone through client processing
+     * yet. Each event carries its rowid so that it can be marked once processed. Events that cannot
+     * be read are flagged as {@link BaseRepository#TYPE_InValid} so that they are not fetched again.
+     *
+     * @param limit maximum number of events to read
+     * @return events and their clients ordered by serverVersion
+     */
+    public List<EventClient> fetchUnprocessedEventClients(int limit) {
+        return fetchUnprocessedEventClients("", new String[]{BaseRepository.TYPE_Unprocessed}, limit);
+    }
 
+    /**
+     * Fetches the oldest unprocessed events of a saved sync page, see {@link #fetchUnprocessedEventClients(int)}
+     *
+     * @param fromServerVersion lowest serverVersion of the page
+     * @param toServerVersion   highest serverVersion of the page
+     * @param limit             maximum number of events to read
+     * @return events and their clients ordered by serverVersion
+     */
+    public List<EventClient> fetchUnprocessedEventClients(long fromServerVersion, long toServerVersion, int limit) {
+        return fetchUnprocessedEventClients(SERVER_VERSION_RANGE, new String[]{BaseRepository.TYPE_Unprocessed,
+                String.valueOf(fromServerVersion), String.valueOf(toServerVersion)}, limit);
+    }
+
+    private List<EventClient> fetchUnprocessedEventClients(String selection, String[] params, int limit) {
+        List<Long> invalidRowIds = new ArrayList<>();
+        List<EventClient> eventClients = fetchEventClients(unprocessedEventsQuery(selection, limit), params, invalidRowIds);
+        if (!invalidRowIds.isEmpty()) {
+            Log.w(TAG, "Flagging " + invalidRowIds.size() + " unreadable events as " + BaseRepository.TYPE_InValid);
+            updateUnprocessedEvents(invalidRowIds, BaseRepository.TYPE_InValid);
+        }
+        return eventClients;
+    }
+
+    /**
+     * @param selection "" for every unprocessed event, {@link #SERVER_VERSION_RANGE} for those of a page
+     */
+    static String unprocessedEventsQuery(String selection, int limit) {
+        return "SELECT json, "
+                + ROWID
+                + " FROM "
+                + Table.event.name()
+                + " WHERE "
+                + event_column.syncStatus.name()
+                + " = ?"
+                + selection
+                + " ORDER BY "
+                + event_column.serverVersion.name()
+                + " LIMIT " + limit;
+    }
+
+    private List<EventClient> fetchEventClients(String query, String[] params) {
+        return fetchEventClients(query, params, null);
+    }
+
+    /**
+     * Runs an event query whose first column is the event json and pairs each event with its
+     * client. The clients of the whole result are fetched together after the events have been read
+     * so that each client is queried and converted once however many events refer to it. When the
+     * query returns the rowid it is set on each event client.
+     *
+     * @param query          event query
+     * @param params         query parameters
+     * @param invalidRowIds  collects the rowids of events that cannot be read, may be null
+     * @return events and their clients in the order returned by the query
+     */
+    private List<EventClient> fetchEventClients(String query, String[] params, List<Long> invalidRowIds) {
+        List<Event> events = new ArrayList<>();
+        List<Long> rowIds = new ArrayList<>();
+        Set<String> baseEntityIds = new HashSet<>();
+        Cursor cursor = null;
         try {
+            cursor = getWritableDatabase().rawQuery(query, params);
+            int rowIdColumn = cursor.getColumnIndex(ROWID);
             while (cursor.moveToNext()) {
-                String jsonEventStr = (cursor.getString(0));
-                // String jsonEventStr = new String(json, "UTF-8");
-                if (StringUtils.isBlank(jsonEventStr)
-                        || "{}".equals(jsonEventStr)) { // Skip blank/empty json string
+                Long rowId = rowIdColumn == -1 ? null : cursor.getLong(rowIdColumn);
+                Event event = null;
+                try {
+                    String jsonEventStr = readJson(cursor, 0);
+                    if (StringUtils.isNotBlank(jsonEventStr)
+                            && !"{}".equals(jsonEventStr)) { // Skip blank/empty json string
+                        event = convert(StringUtils.remove(jsonEventStr, '\''), Event.class);
+                    }
+                } catch (Exception e) {
+                    Log.e(getClass().getName(), "Exception", e);
+                }
+
+                if (event == null) {
+                    if (invalidRowIds != null && rowId != null) {
+                        invalidRowIds.add(rowId);
+                    }
                     continue;
                 }
+                events.add(event);
+                rowIds.add(rowId);
+                if (event.getBaseEntityId() != null) {
+                    baseEntityIds.add(event.getBaseEntityId());
+                }
+            }
+        } catch (Exception e) {
+            Log.e(getClass().getName(), "Exception", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+        Map<String, Client> clients = fetchClientsByBaseEntityIds(baseEntityIds);
+        List<EventClient> list = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            EventClient eventClient = new EventClient(event, clients.get(event.getBaseEntityId()));
+            eventClient.setRowId(rowIds.get(i));
+            list.add(eventClient);
+        }
+        return list;
+    }
 
-                Event event = convert(jsonEventStr, Event.class);
+    public int getUnprocessedEventsCount() {
+        return getUnprocessedEventsCount("", new String[]{BaseRepository.TYPE_Unprocessed});
+    }
+
+    /**
+     * @return the number of unprocessed events of a saved sync page
+     */
+    public int getUnprocessedEventsCount(long fromServerVersion, long toServerVersion) {
+        return getUnprocessedEventsCount(SERVER_VERSION_RANGE, new String[]{BaseRepository.TYPE_Unprocessed,
+                String.valueOf(fromServerVersion), String.valueOf(toServerVersion)});
+    }
+
+    private int getUnprocessedEventsCount(String selection, String[] params) {
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery(unprocessedEventsCountQuery(selection), params);
+            if (cursor.moveToFirst()) {
+                return cursor.getInt(0);
+            }
+        } catch (Exception e) {
+            Log.e(getClass().getName(), "Exception", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
 
-                String baseEntityId = event.getBaseEntityId();
-                Client client = fetchClientByBaseEntityId(baseEntityId);
+    /**
+     * @param selection "" for every unprocessed event, {@link #SERVER_VERSION_RANGE} for those of a page
+     */
+    static String unprocessedEventsCountQuery(String selection) {
+        return "SELECT COUNT(*) FROM "
+                + Table.event.name()
+                + " WHERE "
+                + event_column.syncStatus.name()
+                + " = ?" + selection;
+    }
 
-                EventClient eventClient = new EventClient(event, client);
-                list.add(eventClient);
+    /**
+     * Clears the unprocessed flag of events that have gone through client processing. Events are
+     * matched by the rowid they were fetched with, the rowid is left untouched since the event data
+     * itself did not change.
+     *
+     * @param eventClients processed events fetched through {@link #fetchUnprocessedEventClients(int)}
+     * @return true if the events were updated
+     */
+    public boolean markEventsAsProcessed(List<EventClient> eventClients) {
+        return updateUnprocessedEvents(eventClients, BaseRepository.TYPE_Synced);
+    }
+
+    /**
+     * Flags events that could not be processed because their client is not on the device. They
+     * are released for processing again by {@link #releaseUnprocessedEvents()} once the client is saved.
+     *
+     * @param eventClients events fetched through {@link #fetchUnprocessedEventClients(int)}
+     * @return true if the events were updated
+     */
+    public boolean markEventsAsAwaitingClient(List<EventClient> eventClients) {
+        return updateUnprocessedEvents(eventClients, BaseRepository.TYPE_Unprocessed_No_Client);
+    }
 
+    private boolean updateUnprocessedEvents(List<EventClient> eventClients, String syncStatus) {
+        List<Long> rowIds = new ArrayList<>();
+        for (EventClient eventClient : eventClients) {
+            if (eventClient.getRowId() == null) {
+                Log.e(TAG, "Unable to update event " + eventClient.getEvent().getFormSubmissionId() + " without a rowid");
+                return false;
             }
+            rowIds.add(eventClient.getRowId());
+        }
+        return updateUnprocessedEvents(rowIds, syncStatus);
+    }
+
+    private boolean updateUnprocessedEvents(Collection<Long> rowIds, String syncStatus) {
+        if (rowIds.isEmpty()) {
+            return true;
+        }
+        List<Long> ids = new ArrayList<>(rowIds);
+        boolean inTransaction = false;
+        try {
+            getWritableDatabase().beginTransaction();
+            inTransaction = true;
+            for (int start = 0; start < ids.size(); start += MAX_QUERY_PARAMS) {
+                List<Long> chunk = ids.subList(start, Math.min(start + MAX_QUERY_PARAMS, ids.size()));
+                ContentValues values = new ContentValues();
+                values.put(event_column.syncStatus.name(), syncStatus);
+                getWritableDatabase().update(Table.event.name(), values, ROWID
+                                + " IN (" + StringUtils.join(chunk, ",") + ") AND "
+                                + event_column.syncStatus.name() + " = ?",
+                        new String[]{BaseRepository.TYPE_Unprocessed});
+            }
+            getWritableDatabase().setTransactionSuccessful();
+            return true;
         } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
+            Log.e(getClass().getName(), "Exception", e);
+            return false;
         } finally {
-            cursor.close();
+            if (inTransaction) {
+                getWritableDatabase().endTransaction();
+            }
         }
-        return list;
     }
 
     public Map<String, Object> getUnSyncedEvents(int limit) {
         Map<String, Object> result = new HashMap<>();
-        List<JSONObject> clients = new ArrayList<>();
         List<JSONObject> events = new ArrayList<>();
+        Set<String> baseEntityIds = new LinkedHashSet<>();
 
-        String query = "select "
-                + event_column.json
-                + ","
-                + event_column.syncStatus
-                + " from "
-                + Table.event.name()
-                + " where "
-                + event_column.syncStatus
-                + " = ?  and length("
-                + event_column.json
-                + ")>2 order by "
-                + event_column.updatedAt
-                + " asc limit "
-                + limit;
         Cursor cursor = null;
         try {
-            cursor = getWritableDatabase().rawQuery(query, new String[]{BaseRepository.TYPE_Unsynced});
+            cursor = getWritableDatabase().rawQuery(unSyncedEventsQuery(limit), new String[]{BaseRepository.TYPE_Unsynced});
 
             while (cursor.moveToNext()) {
-                String jsonEventStr = (cursor.getString(0));
+                String jsonEventStr = readJson(cursor, 0);
                 if (StringUtils.isBlank(jsonEventStr)
                         || jsonEventStr.equals("{}")) { // Skip blank/empty json string
                     continue;
                 }
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
                 JSONObject jsonObectEvent = new JSONObject(jsonEventStr);
                 events.add(jsonObectEvent);
                 if (jsonObectEvent.has(event_column.baseEntityId.name())) {
-                    String baseEntityId = jsonObectEvent.getString(event_column.baseEntityId.name
-                            ());
-                    JSONObject cl = getUnSyncedClientByBaseEntityId(baseEntityId);
-                    if (cl != null) {
-                        clients.add(cl);
-                    }
+                    baseEntityIds.add(jsonObectEvent.getString(event_column.baseEntityId.name()));
                 }
 
             }
-            if (!clients.isEmpty()) {
-                result.put(AllConstants.KEY.CLIENTS, clients);
-            }
-            if (!events.isEmpty()) {
-                result.put(AllConstants.KEY.EVENTS, events);
-            }
         } catch (Exception e) {
             Log.e(TAG, e.getMessage());
         } finally {
@@ -802,31 +1201,54 @@ public class EventClientRepository extends BaseRepository {
             }
         }
 
-        return result;
-    }
-
+        List<JSONObject> clients = new ArrayList<>();
+        Map<String, String> unSyncedClients = getClientJsonByBaseEntityIds(baseEntityIds, BaseRepository.TYPE_Unsynced);
+        for (String baseEntityId : baseEntityIds) {
+            String json = unSyncedClients.get(baseEntityId);
+            if (json == null) {
+                continue;
+            }
+            try {
+                clients.add(new JSONObject(json));
+            } catch (JSONException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
 
-    public List<String> getUnValidatedEventFormSubmissionIds(int limit) {
-        List<String> ids = new ArrayList<>();
+        if (!clients.isEmpty()) {
+            result.put(AllConstants.KEY.CLIENTS, clients);
+        }
+        if (!events.isEmpty()) {
+            result.put(AllConstants.KEY.EVENTS, events);
+        }
 
-        final String validateFilter = " where "
-                + event_column.syncStatus + " = ? "
-                + " AND ( " + event_column.validationStatus + " is NULL or "
-                + event_column.validationStatus + " != ? ) ";
+        return result;
+    }
 
-        String query = "select "
-                + event_column.formSubmissionId
+    static String unSyncedEventsQuery(int limit) {
+        return "select "
+                + event_column.json
+                + ","
+                + event_column.syncStatus
                 + " from "
                 + Table.event.name()
-                + validateFilter
-                + ORDER_BY
+                + " where "
+                + event_column.syncStatus
+                + " = ?  and length("
+                + event_column.json
+                + ")>2 order by "
                 + event_column.updatedAt
                 + " asc limit "
                 + limit;
+    }
+
+
+    public List<String> getUnValidatedEventFormSubmissionIds(int limit) {
+        List<String> ids = new ArrayList<>();
 
         Cursor cursor = null;
         try {
-            cursor = getWritableDatabase().rawQuery(query, new String[]{BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid});
+            cursor = getWritableDatabase().rawQuery(unValidatedEventsQuery(limit), new String[]{BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid});
             if (cursor != null && cursor.getCount() > 0 && cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
                     String id = cursor.getString(0);
@@ -846,27 +1268,29 @@ public class EventClientRepository extends BaseRepository {
         return ids;
     }
 
-    public List<String> getUnValidatedClientBaseEntityIds(int limit) {
-        List<String> ids = new ArrayList<>();
-
+    static String unValidatedEventsQuery(int limit) {
         final String validateFilter = " where "
-                + client_column.syncStatus + " = ? "
-                + " AND ( " + client_column.validationStatus + " is NULL or "
-                + client_column.validationStatus + " != ? ) ";
+                + event_column.syncStatus + " = ? "
+                + " AND ( " + event_column.validationStatus + " is NULL or "
+                + event_column.validationStatus + " != ? ) ";
 
-        String query = "select "
-                + client_column.baseEntityId
+        return "select "
+                + event_column.formSubmissionId
                 + " from "
-                + Table.client.name()
+                + Table.event.name()
                 + validateFilter
                 + ORDER_BY
-                + client_column.updatedAt
+                + event_column.updatedAt
                 + " asc limit "
                 + limit;
+    }
+
+    public List<String> getUnValidatedClientBaseEntityIds(int limit) {
+        List<String> ids = new ArrayList<>();
 
         Cursor cursor = null;
         try {
-            cursor = getWritableDatabase().rawQuery(query, new String[]{BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid});
+            cursor = getWritableDatabase().rawQuery(unValidatedClientsQuery(limit), new String[]{BaseRepository.TYPE_Synced, BaseRepository.TYPE_Valid});
             if (cursor != null && cursor.getCount() > 0 && cursor.moveToFirst()) {
                 while (!cursor.isAfterLast()) {
                     String id = cursor.getString(0);
@@ -886,6 +1310,23 @@ public class EventClientRepository extends BaseRepository {
         return ids;
     }
 
+    static String unValidatedClientsQuery(int limit) {
+        final String validateFilter = " where "
+                + client_column.syncStatus + " = ? "
+                + " AND ( " + client_column.validationStatus + " is NULL or "
+                + client_column.validationStatus + " != ? ) ";
+
+        return "select "
+                + client_column.baseEntityId
+                + " from "
+                + Table.client.name()
+                + validateFilter
+                + ORDER_BY
+                + client_column.updatedAt
+                + " asc limit "
+                + limit;
+    }
+
     public void markAllAsUnSynced() {
 
         String events = "select "
@@ -967,8 +1408,8 @@ public class EventClientRepository extends BaseRepository {
                     + client_column.baseEntityId.name()
                     + "= ? ", new String[]{baseEntityId});
             if (cursor.moveToNext()) {
-                String jsonEventStr = (cursor.getString(0));
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                String jsonEventStr = readJson(cursor, 0);
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
                 JSONObject cl = new JSONObject(jsonEventStr);
 
                 return cl;
@@ -997,9 +1438,9 @@ public class EventClientRepository extends BaseRepository {
                     + event_column.baseEntityId.name()
                     + "= ? ", new String[]{baseEntityId});
             while (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
 
                 JSONObject ev = new JSONObject(jsonEventStr);
 
@@ -1032,9 +1473,9 @@ public class EventClientRepository extends BaseRepository {
                     + event_column.eventId.name()
                     + "= ? ", new String[]{eventId});
             if (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
 
                 return new JSONObject(jsonEventStr);
 
@@ -1062,9 +1503,9 @@ public class EventClientRepository extends BaseRepository {
                     + event_column.formSubmissionId.name()
                     + "= ? ", new String[]{formSubmissionId});
             if (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
 
                 return new JSONObject(jsonEventStr);
             }
@@ -1089,8 +1530,8 @@ public class EventClientRepository extends BaseRepository {
                     + client_column.baseEntityId.name()
                     + " = ? ", new String[]{baseEntityId});
             if (cursor.moveToNext()) {
-                String jsonString = cursor.getString(0);
-                jsonString = jsonString.replaceAll("'", "");
+                String jsonString = readJson(cursor, 0);
+                jsonString = StringUtils.remove(jsonString, '\'');
                 return new JSONObject(jsonString);
             }
         } catch (Exception e) {
@@ -1114,8 +1555,8 @@ public class EventClientRepository extends BaseRepository {
                     + client_column.baseEntityId.name()
                     + " = ? ", new String[]{baseEntityId});
             if (cursor.moveToNext()) {
-                String jsonString = cursor.getString(0);
-                jsonString = jsonString.replaceAll("'", "");
+                String jsonString = readJson(cursor, 0);
+                jsonString = StringUtils.remove(jsonString, '\'');
                 return convert(jsonString, Client.class);
             }
         } catch (Exception e) {
@@ -1128,21 +1569,66 @@ public class EventClientRepository extends BaseRepository {
         return null;
     }
 
-    public JSONObject getUnSyncedClientByBaseEntityId(String baseEntityId) {
-        Cursor cursor = null;
-        try {
-            cursor = getWritableDatabase().rawQuery("SELECT "
+    /**
+     * Fetches several clients with one query per {@link #MAX_QUERY_PARAMS} base entity ids
+     *
+     * @param baseEntityIds base entity ids of the clients
+     * @return clients keyed by base entity id, ids without a client are left out
+     */
+    public Map<String, Client> fetchClientsByBaseEntityIds(Collection<String> baseEntityIds) {
+        Map<String, Client> clients = new HashMap<>();
+        for (Map.Entry<String, String> entry : getClientJsonByBaseEntityIds(baseEntityIds, null).entrySet()) {
+            clients.put(entry.getKey(), convert(entry.getValue(), Client.class));
+        }
+        return clients;
+    }
+
+    private Map<String, String> getClientJsonByBaseEntityIds(Collection<String> baseEntityIds, String syncStatus) {
+        Map<String, String> clients = new HashMap<>();
+        List<String> ids = new ArrayList<>(baseEntityIds);
+        for (int start = 0; start < ids.size(); start += MAX_QUERY_PARAMS) {
+            List<String> params = new ArrayList<>(ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_PARAMS)));
+            String query = "SELECT "
+                    + client_column.baseEntityId
+                    + ", "
                     + client_column.json
                     + " FROM "
                     + Table.client.name()
                     + " WHERE "
-                    + client_column.syncStatus.name()
-                    + " = ? and "
                     + client_column.baseEntityId.name()
-                    + " = ? ", new String[]{BaseRepository.TYPE_Unsynced, baseEntityId});
+                    + " IN (" + TextUtils.join(",", Collections.nCopies(params.size(), "?")) + ")";
+            if (syncStatus != null) {
+                query += " AND " + client_column.syncStatus.name() + " = ?";
+                params.add(syncStatus);
+            }
+
+            Cursor cursor = null;
+            try {
+                cursor = getWritableDatabase().rawQuery(query, params.toArray(new String[0]));
+                while (cursor.moveToNext()) {
+                    String json = readJson(cursor, 1);
+                    if (json != null) {
+                        clients.put(cursor.getString(0), StringUtils.remove(json, '\''));
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(getClass().getName(), "Exception", e);
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        return clients;
+    }
+
+    public JSONObject getUnSyncedClientByBaseEntityId(String baseEntityId) {
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(unSyncedClientQuery(), new String[]{BaseRepository.TYPE_Unsynced, baseEntityId});
             if (cursor.moveToNext()) {
-                String json = cursor.getString(0);
-                json = json.replaceAll("'", "");
+                String json = readJson(cursor, 0);
+                json = StringUtils.remove(json, '\'');
                 return new JSONObject(json);
             }
         } catch (Exception e) {
@@ -1155,6 +1641,18 @@ public class EventClientRepository extends BaseRepository {
         return null;
     }
 
+    static String unSyncedClientQuery() {
+        return "SELECT "
+                + client_column.json
+                + " FROM "
+                + Table.client.name()
+                + " WHERE "
+                + client_column.syncStatus.name()
+                + " = ? and "
+                + client_column.baseEntityId.name()
+                + " = ? ";
+    }
+
     public JSONObject getEventsByBaseEntityIdAndEventType(String baseEntityId, String eventType) {
         if (StringUtils.isBlank(baseEntityId)) {
             return null;
@@ -1168,9 +1666,9 @@ public class EventClientRepository extends BaseRepository {
                     + event_column.baseEntityId.name()
                     + "= ? AND " + event_column.eventType.name() + "= ? ", new String[]{baseEntityId, eventType});
             if (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
 
                 return new JSONObject(jsonEventStr);
             }
@@ -1203,9 +1701,9 @@ public class EventClientRepository extends BaseRepository {
             cursor = getReadableDatabase().rawQuery(query, params);
 
             while (cursor.moveToNext()) {
-                String jsonEventStr = cursor.getString(0);
+                String jsonEventStr = readJson(cursor, 0);
 
-                jsonEventStr = jsonEventStr.replaceAll("'", "");
+                jsonEventStr = StringUtils.remove(jsonEventStr, '\'');
                 Event event = convert(jsonEventStr, Event.class);
                 list.add(new EventClient(event));
             }
@@ -1223,7 +1721,7 @@ public class EventClientRepository extends BaseRepository {
     public void addorUpdateClient(String baseEntityId, JSONObject jsonObject) {
         try {
             ContentValues values = new ContentValues();
-            values.put(client_column.json.name(), jsonObject.toString());
+            putJson(values, client_column.json.name(), jsonObject.toString());
             values.put(client_column.updatedAt.name(), dateFormat.format(new Date()));
             values.put(client_column.syncStatus.name(), BaseRepository.TYPE_Unsynced);
             values.put(client_column.baseEntityId.name(), baseEntityId);
@@ -1247,7 +1745,7 @@ public class EventClientRepository extends BaseRepository {
         try {
             final String EVENT_TYPE = "eventType";
             ContentValues values = new ContentValues();
-            values.put(event_column.json.name(), jsonObject.toString());
+            putJson(values, event_column.json.name(), jsonObject.toString());
             values.put(event_column.eventType.name(),
                     jsonObject.has(EVENT_TYPE) ? jsonObject.getString(EVENT_TYPE) : "");
             values.put(event_column.updatedAt.name(), dateFormat.format(new Date()));
@@ -1454,11 +1952,50 @@ public class EventClientRepository extends BaseRepository {
                     db.execSQL(create_id);
                 }
             }
+
+            for (Column[] compositeIndex : getCompositeIndexes(table)) {
+                db.execSQL("CREATE INDEX IF NOT EXISTS "
+                        + table.name() + "_" + StringUtils.join(compositeIndex, "_")
+                        + "_index ON "
+                        + table.name()
+                        + " ("
+                        + StringUtils.join(compositeIndex, ", ")
+                        + "); ");
+            }
         } catch (Exception e) {
             Log.e(EventClientRepository.class.getName(), "Exception", e);
         }
     }
 
+    /**
+     * Composite indexes matching the filter and sort order of the sync queries. Without them the
+     * low cardinality syncStatus index is the only candidate and every matching row has to be sorted
+     * before the limit is applied.
+     */
+    private static Column[][] getCompositeIndexes(BaseTable table) {
+        if (Table.event.name().equals(table.name())) {
+            return new Column[][]{
+                    {event_column.syncStatus, event_column.updatedAt},
+                    {event_column.syncStatus, event_column.serverVersion}};
+        } else if (Table.client.name().equals(table.name())) {
+            return new Column[][]{
+                    {client_column.syncStatus, client_column.updatedAt}};
+        }
+        return new Column[0][];
+    }
+
+    /**
+     * Creates any missing index on the event and client tables. Tables created by
+     * {@link #createTable(SQLiteDatabase, BaseTable, Column[])} already have them, existing
+     * installs should call this from {@link Repository#onUpgrade(SQLiteDatabase, int, int)}.
+     *
+     * @param db database to upgrade
+     */
+    public static void createSyncIndexes(SQLiteDatabase db) {
+        createIndex(db, Table.event, Table.event.columns());
+        createIndex(db, Table.client, Table.client.columns());
+    }
+
     public static void dropIndexes(SQLiteDatabase db, BaseTable table) {
         Cursor cursor = null;
         try {
@@ -1593,5 +2130,6 @@ public class EventClientRepository extends BaseRepository {
     static class QueryWrapper {
         public String sqlQuery;
         public Map<String, Integer> columnOrder;
+        public List<Column> otherColumns;
     }
 }
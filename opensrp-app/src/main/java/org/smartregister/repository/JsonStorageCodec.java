@@ -0,0 +1,33 @@
+package org.smartregister.repository;
+
+import java.io.IOException;
+
+/**
+ * Converts the json documents that {@link EventClientRepository} stores in the json column of the
+ * event and client tables to and from a compact binary form.
+ * <p>
+ * Rows written with a codec are stored as blobs, rows written without one as text, so the
+ * repository reads both and a table can hold a mix of the two while it is being migrated. Blobs
+ * start with the {@link #getId() id} of the codec that wrote them, so that they can still be read
+ * after the app switches to another codec.
+ */
+public interface JsonStorageCodec {
+
+    /**
+     * @return id stored as the first byte of the blobs the codec writes, unique among the codecs
+     * of the app
+     */
+    byte getId();
+
+    /**
+     * @param json json document
+     * @return the bytes to store
+     */
+    byte[] encode(String json) throws IOException;
+
+    /**
+     * @param data bytes written by {@link #encode(String)}
+     * @return the json document
+     */
+    String decode(byte[] data) throws IOException;
+}
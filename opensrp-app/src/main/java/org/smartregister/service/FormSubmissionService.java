@@ -52,8 +52,8 @@ public class FormSubmissionService {
                 try {
                     ziggyService.saveForm(getParams(submission), submission.instance());
 
-                    // Update FTS Tables
-                    updateFTSsearch(submission);
+                    // Mark the entities for the FTS update made after the batch
+                    markFTSsearchDirty(submission);
 
                 } catch (Exception e) {
                     logError(format("Form submission processing failed, with instanceId: {0}. "
@@ -65,6 +65,9 @@ public class FormSubmissionService {
                     .updateServerVersion(submission.instanceId(), submission.serverVersion());
             allSettings.savePreviousFormSyncIndex(submission.serverVersion());
         }
+
+        // Update FTS Tables
+        updateDirtyFTSsearch();
     }
 
     private String getParams(FormSubmission submission) {
@@ -75,6 +78,11 @@ public class FormSubmissionService {
     }
 
     public void updateFTSsearch(FormSubmission formSubmission) {
+        markFTSsearchDirty(formSubmission);
+        updateDirtyFTSsearch();
+    }
+
+    private void markFTSsearchDirty(FormSubmission formSubmission) {
         if (allCommonsRepositoryMap == null || allCommonsRepositoryMap.isEmpty()) {
             return;
         }
@@ -84,7 +92,7 @@ public class FormSubmissionService {
         for (FormField field : form.fields()) {
             if (field.name() != null && field.name().equals("id")) {
                 String entityId = field.value();
-                updateFTSsearch(bindType, entityId);
+                markFTSsearchDirty(bindType, entityId);
             }
         }
 
@@ -98,7 +106,7 @@ public class FormSubmissionService {
                     String innerBindType = sourceArray[sourceArray.length - 2];
                     if (!bindType.equals(innerBindType)) {
                         String innerEntityId = field.value();
-                        updateFTSsearch(innerBindType, innerEntityId);
+                        markFTSsearchDirty(innerBindType, innerEntityId);
                     }
                 }
             }
@@ -112,7 +120,7 @@ public class FormSubmissionService {
                 if (instances != null && !instances.isEmpty()) {
                     for (Map<String, String> instance : instances) {
                         String subEntityId = instance.get("id");
-                        updateFTSsearch(subBindType, subEntityId);
+                        markFTSsearchDirty(subBindType, subEntityId);
 
                     }
                 }
@@ -120,14 +128,24 @@ public class FormSubmissionService {
         }
     }
 
-    private boolean updateFTSsearch(String bindType, String entityId) {
-        if (allCommonsRepositoryMap != null && !allCommonsRepositoryMap.isEmpty()) {
-            AllCommonsRepository allCommonsRepository = allCommonsRepositoryMap.get(bindType);
-            if (allCommonsRepository != null) {
-                return allCommonsRepository.updateSearch(entityId);
-            }
+    private void markFTSsearchDirty(String bindType, String entityId) {
+        AllCommonsRepository allCommonsRepository = allCommonsRepositoryMap.get(bindType);
+        if (allCommonsRepository != null) {
+            allCommonsRepository.markSearchDirty(entityId);
+        }
+    }
+
+    /**
+     * Rebuilds the search rows marked dirty, including those left by a run killed before its
+     * update
+     */
+    public void updateDirtyFTSsearch() {
+        if (allCommonsRepositoryMap == null || allCommonsRepositoryMap.isEmpty()) {
+            return;
+        }
+        for (AllCommonsRepository allCommonsRepository : allCommonsRepositoryMap.values()) {
+            allCommonsRepository.updateDirtySearch();
         }
-        return false;
     }
 
 }
@@ -49,6 +49,12 @@ public class FormSubmissionSyncService {
 
     public FetchStatus sync() {
         try {
+            // replay the search updates interrupted before the app was last stopped
+            formSubmissionService.updateDirtyFTSsearch();
+        } catch (Exception e) {
+            logError(format("Replaying the dirty search rows failed: {0}", e.getMessage()));
+        }
+        try {
 //            CloudantSyncHandler mCloudantSyncHandler = CloudantSyncHandler.getInstance(Context
 // .getInstance().applicationContext());
 //            CountDownLatch mCountDownLatch = new CountDownLatch(2);
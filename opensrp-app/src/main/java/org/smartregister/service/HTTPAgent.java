@@ -37,6 +37,7 @@ import java.net.URL;
 import java.net.URLConnection;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 import static org.smartregister.domain.LoginResponse.CUSTOM_SERVER_RESPONSE;
 import static org.smartregister.domain.LoginResponse.MALFORMED_URL;
@@ -69,6 +70,8 @@ public class HTTPAgent {
     private AllSettings settings;
     private AllSharedPreferences allSharedPreferences;
     private DristhiConfiguration configuration;
+    private final HttpTrafficStats trafficStats = new HttpTrafficStats();
+    private SSLSocketFactory sslSocketFactory;
 
     private String boundary = "===" + System.currentTimeMillis() + "===";
     private String twoHyphens = "--";
@@ -94,11 +97,12 @@ public class HTTPAgent {
         URL url = new URL(requestURLPath);
         HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
         if (urlConnection instanceof HttpsURLConnection) {
-            OpensrpSSLHelper opensrpSSLHelper = new OpensrpSSLHelper(context, configuration);
-            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(opensrpSSLHelper.getSSLSocketFactory());
+            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(getSSLSocketFactory());
         }
         urlConnection.setConnectTimeout(CONNECTION_TIMEOUT);
         urlConnection.setReadTimeout(READ_TIMEOUT);
+        // Setting the header explicitly stops the platform from decoding silently, see getResponseStream
+        urlConnection.setRequestProperty("Accept-Encoding", configuration.shouldGzipResponses() ? HttpTrafficStats.GZIP : "identity");
 
         if(useBasicAuth) {
             final String basicAuth = "Basic " + Base64.encodeToString((allSharedPreferences.fetchRegisteredANM() +
@@ -108,6 +112,27 @@ public class HTTPAgent {
         return urlConnection;
     }
 
+    /**
+     * The platform only hands out pooled keep-alive connections to requests that use the same
+     * SSLSocketFactory instance, so one is built lazily and shared by every request of this agent.
+     */
+    private synchronized SSLSocketFactory getSSLSocketFactory() {
+        if (sslSocketFactory == null) {
+            sslSocketFactory = new OpensrpSSLHelper(context, configuration).getSSLSocketFactory();
+        }
+        return sslSocketFactory;
+    }
+
+    /**
+     * Returns a connection whose response body has been fully read and closed to the keep-alive
+     * pool. Only connections that failed are disconnected since disconnect closes the socket.
+     */
+    private void release(HttpURLConnection urlConnection, boolean failed) {
+        if (urlConnection != null && failed) {
+            urlConnection.disconnect();
+        }
+    }
+
     public Response<String> fetch(String requestURLPath) {
         HttpURLConnection urlConnection;
         try {
@@ -120,20 +145,66 @@ public class HTTPAgent {
         }
     }
 
+    /**
+     * Fetches the given url and passes the response body to the processor as it is read from
+     * the connection, instead of buffering the whole body into a string.
+     *
+     * @param requestURLPath url to fetch
+     * @param processor      consumer of the response stream
+     * @return the value produced by the processor, or a failure if the request or processing failed
+     */
+    public <T> Response<T> fetch(String requestURLPath, StreamProcessor<T> processor) {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        boolean failed = true;
+        try {
+            urlConnection = initializeHttp(requestURLPath, true);
+
+            int statusCode = urlConnection.getResponseCode();
+            inputStream = getResponseStream(urlConnection, statusCode);
+            if (statusCode >= HttpStatus.SC_BAD_REQUEST) {
+                Log.e(TAG, "Bad response from server. Status code: " + statusCode + " using " + requestURLPath);
+                readFully(inputStream);
+                failed = false;
+                return new Response<>(ResponseStatus.failure, null);
+            }
+
+            T result = processor.process(inputStream);
+            failed = false;
+            return new Response<>(ResponseStatus.success, result);
+
+        } catch (MalformedURLException e) {
+            Log.e(TAG, MALFORMED_URL + e.toString(), e);
+            return new Response<>(ResponseStatus.failure, null);
+        } catch (SocketTimeoutException e) {
+            Log.e(TAG, TIMEOUT + e.toString(), e);
+            return new Response<>(ResponseStatus.failure, null);
+        } catch (IOException e) {
+            Log.e(TAG, NO_INTERNET_CONNECTIVITY + e.toString(), e);
+            return new Response<>(ResponseStatus.failure, null);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+            release(urlConnection, failed);
+        }
+    }
+
     public Response<String> post(String postURLPath, String jsonPayload) {
-        HttpURLConnection urlConnection;
+        HttpURLConnection urlConnection = null;
         try {
             urlConnection = initializeHttp(postURLPath, true);
 
             urlConnection.setRequestMethod("POST");
             urlConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            boolean compress = configuration.shouldGzipRequests();
+            if (compress) {
+                urlConnection.setRequestProperty("Content-Encoding", HttpTrafficStats.GZIP);
+            }
 
-            OutputStream os = urlConnection.getOutputStream();
+            OutputStream os = trafficStats.countSent(urlConnection.getOutputStream(), compress);
             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
             writer.write(jsonPayload);
             writer.flush();
             writer.close();
-            os.close();
 
             urlConnection.connect();
 
@@ -141,6 +212,7 @@ public class HTTPAgent {
 
         } catch (IOException ex) {
             Log.e(TAG, "EXCEPTION" + ex.toString(), ex);
+            release(urlConnection, true);
             return new Response<>(ResponseStatus.failure, null);
         }
     }
@@ -153,6 +225,7 @@ public class HTTPAgent {
                                                             String password) {
         LoginResponse loginResponse = null;
         HttpURLConnection urlConnection = null;
+        boolean failed = true;
         try {
             requestURL = requestURL.replaceAll("\\s+", "");
             urlConnection = initializeHttp(requestURL, false);
@@ -160,12 +233,9 @@ public class HTTPAgent {
             final String basicAuth = "Basic " + Base64.encodeToString((userName + ":" + password).getBytes(), Base64.NO_WRAP);
             urlConnection.setRequestProperty("Authorization", basicAuth);
             int statusCode = urlConnection.getResponseCode();
-            InputStream inputStream;
-            if (statusCode >= HttpStatus.SC_BAD_REQUEST)
-                inputStream = urlConnection.getErrorStream();
-            else
-                inputStream = urlConnection.getInputStream();
-            String responseString = IOUtils.toString(inputStream);
+            InputStream inputStream = getResponseStream(urlConnection, statusCode);
+            String responseString = readFully(inputStream);
+            failed = false;
             if (statusCode == HttpStatus.SC_OK) {
                 LoginResponseData responseData = getResponseBody(responseString);
                 loginResponse = retrieveResponse(responseData);
@@ -198,9 +268,7 @@ public class HTTPAgent {
                     + "" + "" + "Error: " + e.toString(), e);
             loginResponse = NO_INTERNET_CONNECTIVITY;
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+            release(urlConnection, failed);
         }
         return loginResponse;
     }
@@ -234,16 +302,12 @@ public class HTTPAgent {
 
     private Response<String> handleResponse(HttpURLConnection urlConnection) {
         String responseString;
+        boolean failed = true;
         try {
             int statusCode = urlConnection.getResponseCode();
 
-            InputStream inputStream;
-            if (statusCode >= HttpStatus.SC_BAD_REQUEST)
-                inputStream = urlConnection.getErrorStream();
-            else
-                inputStream = urlConnection.getInputStream();
-
-            responseString = IOUtils.toString(inputStream);
+            responseString = readFully(getResponseStream(urlConnection, statusCode));
+            failed = false;
 
         } catch (MalformedURLException e) {
             Log.e(TAG, MALFORMED_URL + e.toString(), e);
@@ -255,13 +319,42 @@ public class HTTPAgent {
             Log.e(TAG, NO_INTERNET_CONNECTIVITY + e.toString(), e);
             return new Response<>(ResponseStatus.failure, null);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+            release(urlConnection, failed);
         }
         return new Response<>(ResponseStatus.success, responseString);
     }
 
+    /**
+     * Returns the body of the response, or the error body for error status codes, decoding it when
+     * the server gzipped it. The bytes read are counted in {@link #getTrafficStats()}.
+     */
+    private InputStream getResponseStream(HttpURLConnection urlConnection, int statusCode) throws IOException {
+        InputStream inputStream;
+        if (statusCode >= HttpStatus.SC_BAD_REQUEST)
+            inputStream = urlConnection.getErrorStream();
+        else
+            inputStream = urlConnection.getInputStream();
+
+        if (inputStream == null) {
+            return null;
+        }
+        return trafficStats.countReceived(inputStream, HttpTrafficStats.GZIP.equalsIgnoreCase(urlConnection.getContentEncoding()));
+    }
+
+    private String readFully(InputStream inputStream) throws IOException {
+        try {
+            return inputStream == null ? null : IOUtils.toString(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return bytes sent and received by this agent, compressed and uncompressed
+     */
+    public HttpTrafficStats getTrafficStats() {
+        return trafficStats;
+    }
 
     /**
      * @author  Rodgers Andati
@@ -275,9 +368,11 @@ public class HTTPAgent {
         OutputStream outputStream;
         PrintWriter writer;
         String responseString = "";
+        HttpURLConnection httpUrlConnection = null;
+        boolean failed = true;
 
         try {
-            HttpURLConnection httpUrlConnection = initializeHttp(urlString, true);
+            httpUrlConnection = initializeHttp(urlString, true);
 
             httpUrlConnection.setUseCaches(false);
             httpUrlConnection.setDoInput(true);
@@ -305,17 +400,18 @@ public class HTTPAgent {
             int status = httpUrlConnection.getResponseCode();
             if (status == HttpURLConnection.HTTP_OK) {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(
-                        httpUrlConnection.getInputStream()));
+                        getResponseStream(httpUrlConnection, status)));
                 String line = null;
                 while ((line = reader.readLine()) != null) {
                     responseString = line;
                     Log.d("RESPONSE", line);
                 }
                 reader.close();
-                httpUrlConnection.disconnect();
             } else {
+                readFully(getResponseStream(httpUrlConnection, status));
                 Log.d("RESPONSE", "Server returned non-OK status: " + status);
             }
+            failed = false;
 
         } catch (ProtocolException e) {
             Log.e(TAG, "Protocol exception " + e.toString(), e);
@@ -325,6 +421,8 @@ public class HTTPAgent {
             Log.e(TAG, MALFORMED_URL + e.toString(), e);
         } catch (IOException e) {
             Log.e(TAG, NO_INTERNET_CONNECTIVITY + e.toString(), e);
+        } finally {
+            release(httpUrlConnection, failed);
         }
         return responseString;
     }
@@ -0,0 +1,106 @@
+package org.smartregister.service;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Counts the bytes {@link HTTPAgent} sends and receives, both as transferred on the wire and
+ * after gzip decoding, so that the savings of compressed payloads can be measured.
+ * <p>
+ * The counts of a body are recorded when its stream is closed.
+ */
+public class HttpTrafficStats {
+
+    public static final String GZIP = "gzip";
+
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong uncompressedBytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+
+    /**
+     * Wraps a request body stream
+     *
+     * @param wire     stream of the connection
+     * @param compress whether to gzip what is written
+     * @return stream to write the uncompressed body to
+     */
+    public OutputStream countSent(OutputStream wire, boolean compress) throws IOException {
+        final CountingOutputStream wireCounter = new CountingOutputStream(wire);
+        OutputStream body = compress ? new GZIPOutputStream(wireCounter) : wireCounter;
+        return new CountingOutputStream(body) {
+            private boolean recorded;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!recorded) {
+                        recorded = true;
+                        bytesSent.addAndGet(wireCounter.getByteCount());
+                        uncompressedBytesSent.addAndGet(getByteCount());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a response body stream
+     *
+     * @param wire       stream of the connection
+     * @param compressed whether the server gzipped the body
+     * @return stream of the decoded body
+     */
+    public InputStream countReceived(InputStream wire, boolean compressed) throws IOException {
+        final CountingInputStream wireCounter = new CountingInputStream(wire);
+        InputStream body = compressed ? new GZIPInputStream(wireCounter) : wireCounter;
+        return new CountingInputStream(body) {
+            private boolean recorded;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!recorded) {
+                        recorded = true;
+                        bytesReceived.addAndGet(wireCounter.getByteCount());
+                        uncompressedBytesReceived.addAndGet(getByteCount());
+                    }
+                }
+            }
+        };
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getUncompressedBytesSent() {
+        return uncompressedBytesSent.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getUncompressedBytesReceived() {
+        return uncompressedBytesReceived.get();
+    }
+
+    public void reset() {
+        bytesSent.set(0);
+        uncompressedBytesSent.set(0);
+        bytesReceived.set(0);
+        uncompressedBytesReceived.set(0);
+    }
+}
@@ -0,0 +1,215 @@
+package org.smartregister.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.domain.FetchStatus;
+import org.smartregister.event.Listener;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.smartregister.domain.FetchStatus.fetched;
+import static org.smartregister.event.Event.ENTITY_UPDATED;
+import static org.smartregister.event.Event.FORM_SUBMITTED;
+import static org.smartregister.event.Event.ON_DATA_FETCHED;
+
+/**
+ * Keeps the counts of the register count queries so that registers show their totals without
+ * running COUNT(*) on every filter change. Counts are marked stale as register clients are
+ * updated, processed or submitted, a stale count is returned as an approximate total while the
+ * exact count is refreshed in the background.
+ */
+public class RegisterCountService {
+    private static final String TAG = RegisterCountService.class.getCanonicalName();
+    public static final int MAX_COUNTS = 50;
+
+    private final Map<String, Count> counts = new LinkedHashMap<String, Count>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Count> eldest) {
+            return size() > MAX_COUNTS;
+        }
+    };
+    private final Executor executor;
+    private Handler handler;
+
+    private final Listener<String> entityUpdatedListener;
+    private final Listener<String> formSubmittedListener;
+    private final Listener<FetchStatus> dataFetchedListener;
+
+    public RegisterCountService() {
+        this(Executors.newSingleThreadExecutor());
+    }
+
+    public RegisterCountService(Executor executor) {
+        this.executor = executor;
+
+        entityUpdatedListener = new Listener<String>() {
+            @Override
+            public void onEvent(String entityId) {
+                invalidateAll();
+            }
+        };
+        formSubmittedListener = new Listener<String>() {
+            @Override
+            public void onEvent(String reason) {
+                invalidateAll();
+            }
+        };
+        dataFetchedListener = new Listener<FetchStatus>() {
+            @Override
+            public void onEvent(FetchStatus data) {
+                if (fetched.equals(data)) {
+                    invalidateAll();
+                }
+            }
+        };
+        ENTITY_UPDATED.addListener(entityUpdatedListener);
+        FORM_SUBMITTED.addListener(formSubmittedListener);
+        ON_DATA_FETCHED.addListener(dataFetchedListener);
+    }
+
+    /**
+     * Returns the count of the query. A count not run before is run on the calling thread, so
+     * this must be called off the UI thread. A stale count is returned as is and refreshed in the
+     * background, the listener is then called on the UI thread with the exact count if it differs.
+     *
+     * @param listener notified of the exact count of a stale count, may be null
+     */
+    public int count(CommonRepository repository, String query, CountListener listener) {
+        int version;
+        synchronized (this) {
+            Count count = counts.get(query);
+            if (count != null && count.counted) {
+                if (count.version != count.countedVersion) {
+                    refresh(repository, query, count, listener);
+                }
+                return count.value;
+            }
+            if (count == null) {
+                count = new Count(repository.TABLE_NAME);
+                counts.put(query, count);
+            }
+            version = count.version;
+        }
+
+        int value = repository.countSearchIds(query);
+        synchronized (this) {
+            Count count = counts.get(query);
+            if (count != null && !count.counted) {
+                count.value = value;
+                count.countedVersion = version;
+                count.counted = true;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the last count of the query without running it, null if it was never counted
+     */
+    public synchronized Integer getApproximateCount(String query) {
+        Count count = counts.get(query);
+        return count == null || !count.counted ? null : count.value;
+    }
+
+    public synchronized boolean isExact(String query) {
+        Count count = counts.get(query);
+        return count != null && count.counted && count.version == count.countedVersion;
+    }
+
+    /**
+     * Marks the counts of the register table stale
+     */
+    public synchronized void invalidate(String tableName) {
+        for (Count count : counts.values()) {
+            if (count.tableName.equals(tableName)) {
+                count.version++;
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (Count count : counts.values()) {
+            count.version++;
+        }
+    }
+
+    public synchronized void clear() {
+        counts.clear();
+    }
+
+    private void refresh(final CommonRepository repository, final String query, final Count count,
+                         final CountListener listener) {
+        if (count.refreshing) {
+            // Notify the latest listener when the running refresh completes
+            count.listener = listener;
+            return;
+        }
+        count.refreshing = true;
+        count.listener = listener;
+        final int version = count.version;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int value = count.value;
+                try {
+                    value = repository.countSearchIds(query);
+                } catch (Exception e) {
+                    Log.e(TAG, e.getMessage(), e);
+                }
+
+                final CountListener countListener;
+                final boolean changed;
+                synchronized (RegisterCountService.this) {
+                    changed = value != count.value;
+                    count.value = value;
+                    count.countedVersion = version;
+                    count.refreshing = false;
+                    countListener = count.listener;
+                    count.listener = null;
+                }
+
+                if (changed && countListener != null) {
+                    final int exactCount = value;
+                    getHandler().post(new Runnable() {
+                        @Override
+                        public void run() {
+                            countListener.onCount(query, exactCount);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private synchronized Handler getHandler() {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        return handler;
+    }
+
+    public interface CountListener {
+        void onCount(String query, int count);
+    }
+
+    private static class Count {
+        private final String tableName;
+        private int value;
+        private int version;
+        private int countedVersion;
+        private boolean counted;
+        private boolean refreshing;
+        private CountListener listener;
+
+        private Count(String tableName) {
+            this.tableName = tableName;
+        }
+    }
+}
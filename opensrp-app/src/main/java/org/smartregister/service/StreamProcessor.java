@@ -0,0 +1,13 @@
+package org.smartregister.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes a response body directly from the connection stream so that large payloads
+ * do not have to be buffered into a string first.
+ */
+public interface StreamProcessor<T> {
+
+    T process(InputStream inputStream) throws IOException;
+}
@@ -37,6 +37,7 @@ import static org.smartregister.AllConstants.FormNames.TT_1;
 import static org.smartregister.AllConstants.FormNames.TT_2;
 import static org.smartregister.AllConstants.FormNames.TT_BOOSTER;
 import static org.smartregister.AllConstants.FormNames.VITAMIN_A;
+import static org.smartregister.event.Event.ENTITY_UPDATED;
 import static org.smartregister.event.Event.FORM_SUBMITTED;
 import static org.smartregister.util.Log.logWarn;
 
@@ -112,6 +113,7 @@ public class FormSubmissionRouter {
             }
         }
         FORM_SUBMITTED.notifyListeners(instanceId);
+        ENTITY_UPDATED.notifyListeners(submission.entityId());
     }
 
     public Map<String, FormSubmissionHandler> getHandlerMap() {
@@ -0,0 +1,228 @@
+package org.smartregister.sync;
+
+import android.os.SystemClock;
+
+import org.smartregister.domain.jsonmapping.ClassificationRule;
+import org.smartregister.domain.jsonmapping.ClientClassification;
+import org.smartregister.domain.jsonmapping.Field;
+import org.smartregister.util.FieldAccessor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The rule fields of ec_client_classification.json indexed by the event field they test and the
+ * value they expect, so that an event is only checked against the rule fields that can match it
+ * instead of against every rule.
+ * <p>
+ * The index only preselects rules, {@link ClientProcessorForJava#processClientClass} still
+ * evaluates each candidate rule in the order it appears in the classification file.
+ */
+public class ClassificationIndex {
+
+    private final List<Field> fields = new ArrayList<>();
+
+    // rule of each of the fields
+    private final List<ClassificationRule> fieldRules = new ArrayList<>();
+
+    // event field name -> expected value -> positions in fields
+    private final Map<String, Map<String, List<Integer>>> eventFields = new HashMap<>();
+
+    // data segment -> segment field name -> expected value -> positions in fields
+    private final Map<String, Map<String, Map<String, List<Integer>>>> segmentFields = new HashMap<>();
+
+    private final int ruleCount;
+    private final long buildMillis;
+
+    private final AtomicLong eventCount = new AtomicLong();
+    private final AtomicLong candidateCount = new AtomicLong();
+
+    public ClassificationIndex(ClientClassification clientClassification) {
+        long start = SystemClock.elapsedRealtime();
+        int rules = 0;
+        if (clientClassification != null && clientClassification.case_classification_rules != null) {
+            for (ClassificationRule classificationRule : clientClassification.case_classification_rules) {
+                if (classificationRule == null || classificationRule.rule == null || classificationRule.rule.fields == null) {
+                    continue;
+                }
+                rules++;
+                for (Field field : classificationRule.rule.fields) {
+                    if (field != null) {
+                        add(field, classificationRule);
+                    }
+                }
+            }
+        }
+        ruleCount = rules;
+        buildMillis = SystemClock.elapsedRealtime() - start;
+    }
+
+    private void add(Field field, ClassificationRule classificationRule) {
+        String fieldName = field.field;
+        String expectedValue = field.field_value;
+        if (fieldName == null) {
+            return;
+        }
+
+        int position = fields.size();
+        if (fieldName.contains(".")) {
+            String fieldNameArray[] = fieldName.split("\\.");
+            if (field.concept != null) {
+                expectedValue = field.concept;
+            }
+            if (expectedValue == null) {
+                return;
+            }
+            Map<String, Map<String, List<Integer>>> segment = segmentFields.get(fieldNameArray[0]);
+            if (segment == null) {
+                segment = new HashMap<>();
+                segmentFields.put(fieldNameArray[0], segment);
+            }
+            addPosition(segment, fieldNameArray[1], expectedValue, position);
+        } else {
+            if (expectedValue == null) {
+                return;
+            }
+            addPosition(eventFields, fieldName, expectedValue, position);
+        }
+        fields.add(field);
+        fieldRules.add(classificationRule);
+    }
+
+    private void addPosition(Map<String, Map<String, List<Integer>>> index, String fieldName, String expectedValue, int position) {
+        Map<String, List<Integer>> values = index.get(fieldName);
+        if (values == null) {
+            values = new HashMap<>();
+            index.put(fieldName, values);
+        }
+        String key = normalize(expectedValue);
+        List<Integer> positions = values.get(key);
+        if (positions == null) {
+            positions = new ArrayList<>();
+            values.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    /**
+     * @param event event being classified
+     * @return the rule fields the event can match, in classification file order
+     */
+    public List<Field> getCandidateFields(Object event) {
+        Set<Integer> positions = getCandidatePositions(event);
+        List<Field> candidates = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            candidates.add(fields.get(position));
+        }
+        eventCount.incrementAndGet();
+        candidateCount.addAndGet(candidates.size());
+        return candidates;
+    }
+
+    /**
+     * @param event event being classified
+     * @return the rules with at least one field the event can match, in classification file order
+     */
+    public List<ClassificationRule> getCandidateRules(Object event) {
+        Set<ClassificationRule> candidates = new LinkedHashSet<>();
+        for (Integer position : getCandidatePositions(event)) {
+            candidates.add(fieldRules.get(position));
+        }
+        long candidateFields = 0;
+        for (ClassificationRule candidate : candidates) {
+            candidateFields += candidate.rule.fields.size();
+        }
+        eventCount.incrementAndGet();
+        candidateCount.addAndGet(candidateFields);
+        return new ArrayList<>(candidates);
+    }
+
+    private Set<Integer> getCandidatePositions(Object event) {
+        Set<Integer> positions = new TreeSet<>();
+
+        for (Map.Entry<String, Map<String, List<Integer>>> entry : eventFields.entrySet()) {
+            Object value = FieldAccessor.of(event.getClass(), entry.getKey()).get(event);
+            addPositions(positions, entry.getValue(), value != null ? value.toString() : "");
+        }
+
+        for (Map.Entry<String, Map<String, Map<String, List<Integer>>>> segmentEntry : segmentFields.entrySet()) {
+            Object segmentObject = FieldAccessor.of(event.getClass(), segmentEntry.getKey()).get(event);
+            if (segmentObject == null) {
+                continue;
+            }
+            for (Map.Entry<String, Map<String, List<Integer>>> entry : segmentEntry.getValue().entrySet()) {
+                for (String value : getSegmentValues(segmentObject, entry.getKey())) {
+                    addPositions(positions, entry.getValue(), value);
+                }
+            }
+        }
+        return positions;
+    }
+
+    private Set<String> getSegmentValues(Object segmentObject, String fieldName) {
+        Set<String> values = new HashSet<>();
+        if (segmentObject instanceof List) {
+            for (Object segment : (List) segmentObject) {
+                Object value = segment == null ? null : FieldAccessor.of(segment.getClass(), fieldName).get(segment);
+                values.add(value != null ? value.toString() : "");
+            }
+        } else if (segmentObject instanceof Map) {
+            Object value = ((Map) segmentObject).get(fieldName);
+            if (value instanceof String) {
+                values.add(value.toString());
+            }
+        }
+        return values;
+    }
+
+    private void addPositions(Set<Integer> positions, Map<String, List<Integer>> values, String value) {
+        List<Integer> matches = values.get(normalize(value));
+        if (matches != null) {
+            positions.addAll(matches);
+        }
+    }
+
+    /**
+     * Folds case the same way {@link String#equalsIgnoreCase(String)} compares characters
+     */
+    private static String normalize(String value) {
+        char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * @return number of rule fields that can match an event
+     */
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    public long getEventCount() {
+        return eventCount.get();
+    }
+
+    /**
+     * @return number of rule fields evaluated, without the index it would be events times fields
+     */
+    public long getCandidateCount() {
+        return candidateCount.get();
+    }
+}
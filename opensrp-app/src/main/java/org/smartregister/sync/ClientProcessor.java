@@ -31,6 +31,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import static org.smartregister.event.Event.ENTITY_UPDATED;
 import static org.smartregister.event.Event.FORM_SUBMITTED;
 
 public class ClientProcessor {
@@ -605,10 +606,11 @@ public class ClientProcessor {
         try {
             String baseEntityId = values.getAsString("base_entity_id");
 
+            Map<String, String> details = new HashMap<>();
             for (String key : values.keySet()) {
-                String value = values.getAsString(key);
-                saveClientDetails(baseEntityId, key, value, eventDate);
+                details.put(key, values.getAsString(key));
             }
+            saveClientDetails(baseEntityId, details, eventDate);
         } catch (Exception e) {
             Log.e(TAG, e.toString(), e);
         }
@@ -734,25 +736,17 @@ public class ClientProcessor {
         return map;
     }
 
-    public void saveClientDetails(String baseEntityId, Map<String, String> values, Long timestamp) {
-        for (String key : values.keySet()) {
-            String value = values.get(key);
-            saveClientDetails(baseEntityId, key, value, timestamp);
-        }
-    }
-
     /**
-     * Save a single details row to the db
+     * Save the details of a client, only the keys whose value changed are written
      *
      * @param baseEntityId
-     * @param key
-     * @param value
+     * @param values
      * @param timestamp
      */
-    private void saveClientDetails(String baseEntityId, String key, String value, Long timestamp) {
+    public void saveClientDetails(String baseEntityId, Map<String, String> values, Long timestamp) {
         DetailsRepository detailsRepository = org.smartregister.CoreLibrary.getInstance().context().
                 detailsRepository();
-        detailsRepository.add(baseEntityId, key, value, timestamp);
+        detailsRepository.add(baseEntityId, values, timestamp);
     }
 
     /**
@@ -956,6 +950,7 @@ public class ClientProcessor {
 
     private void updateRegisterCount(String entityId) {
         FORM_SUBMITTED.notifyListeners(entityId);
+        ENTITY_UPDATED.notifyListeners(entityId);
     }
 
     public void setCloudantDataHandler(CloudantDataHandler mCloudantDataHandler) {
@@ -4,6 +4,8 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.util.Log;
 
+import net.sqlcipher.database.SQLiteDatabase;
+
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.smartregister.CoreLibrary;
@@ -18,21 +20,28 @@ import org.smartregister.domain.jsonmapping.ClassificationRule;
 import org.smartregister.domain.jsonmapping.ClientClassification;
 import org.smartregister.domain.jsonmapping.ClientField;
 import org.smartregister.domain.jsonmapping.Column;
-import org.smartregister.domain.jsonmapping.JsonMapping;
 import org.smartregister.domain.jsonmapping.Rule;
 import org.smartregister.domain.jsonmapping.Table;
 import org.smartregister.repository.DetailsRepository;
 import org.smartregister.util.AssetHandler;
+import org.smartregister.util.FieldAccessor;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.smartregister.event.Event.ENTITY_UPDATED;
 import static org.smartregister.event.Event.FORM_SUBMITTED;
 
 public class ClientProcessorForJava {
@@ -41,8 +50,17 @@ public class ClientProcessorForJava {
     protected static final String VALUES_KEY = "values";
     protected static final String detailsUpdated = "detailsUpdated";
 
+    private static final int PARTITIONS_PER_THREAD = 4;
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
     private String[] openmrsGenIds = {};
-    private Map<String, Object> jsonMap = new HashMap<>();
+    private Map<String, Object> jsonMap = Collections.synchronizedMap(new HashMap<String, Object>());
+    private Map<Column, CompiledColumn> compiledColumns = new ConcurrentHashMap<>();
+    private volatile ClassificationIndex classificationIndex;
+    private volatile ClientClassification indexedClassification;
+    private final ThreadLocal<List<Runnable>> pendingWrites = new ThreadLocal<>();
+    private final ThreadLocal<RegisterWriteBuffer> writeBuffer = new ThreadLocal<>();
+    private ThreadPoolExecutor processingExecutor;
 
     protected static ClientProcessorForJava instance;
     private Context mContext;
@@ -68,13 +86,253 @@ public class ClientProcessorForJava {
         }
 
         if (!eventClientList.isEmpty()) {
-            for (EventClient eventClient : eventClientList) {
-                // Iterate through the events
-                if (eventClient.getClient() != null) {
-                    processEvent(eventClient.getEvent(), eventClient.getClient(), clientClassification);
+            ClassificationIndex index = getClassificationIndex(clientClassification);
+            long start = System.currentTimeMillis();
+            long events = index.getEventCount();
+            long candidates = index.getCandidateCount();
+            int threads = getProcessingThreads();
+            boolean parallel = threads > 1 && eventClientList.size() > 1;
+            RegisterWriteBuffer buffer = createWriteBuffer();
+
+            writeBuffer.set(buffer);
+            try {
+                if (parallel) {
+                    applyWrites(processInParallel(eventClientList, clientClassification, threads), buffer == null);
+                } else {
+                    for (EventClient eventClient : eventClientList) {
+                        // Iterate through the events
+                        if (eventClient.getClient() != null) {
+                            processEvent(eventClient.getEvent(), eventClient.getClient(), clientClassification);
+                        }
+                    }
+                }
+            } finally {
+                writeBuffer.remove();
+            }
+            if (buffer != null) {
+                flush(buffer);
+            }
+
+            events = index.getEventCount() - events;
+            Log.i(TAG, String.format("Processed %d events in %d ms. Classification index of %d rules built in %d ms, "
+                            + "%d rule fields evaluated for %d events instead of %d",
+                    eventClientList.size(), System.currentTimeMillis() - start, index.getRuleCount(),
+                    index.getBuildMillis(), index.getCandidateCount() - candidates, events,
+                    events * index.getFieldCount()));
+        }
+    }
+
+    /**
+     * Writes the buffered rows of a batch in one transaction. The batch is processed before the
+     * transaction starts so that register reads are only blocked while the rows are written.
+     */
+    private void flush(RegisterWriteBuffer buffer) {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int writes = buffer.getWriteCount();
+        List<String> searchUpdated;
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            searchUpdated = buffer.flush();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        for (String entityId : searchUpdated) {
+            updateRegisterCount(entityId);
+        }
+        Log.i(TAG, String.format("Flushed %d buffered writes in %d ms", writes, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Creates the buffer that collects the register writes of a batch so that they are made in
+     * one transaction once the batch is processed
+     *
+     * @return the buffer, or null to write as each event is processed
+     */
+    protected RegisterWriteBuffer createWriteBuffer() {
+        if (!CoreLibrary.getInstance().getSyncConfiguration().bufferClientProcessingWrites()) {
+            return null;
+        }
+        return new RegisterWriteBuffer(CoreLibrary.getInstance().context());
+    }
+
+    /**
+     * Processes the events on the pool of worker threads. Events are partitioned by baseEntityId so
+     * that the events of a client are processed in order by a single worker. Workers only build
+     * the register rows, the writes they make are queued per partition and returned once every
+     * partition is done. No transaction is held while the workers run so that they can read the
+     * database.
+     *
+     * @return the queued writes, the writes of a client in the order its events were processed
+     */
+    private List<Runnable> processInParallel(List<EventClient> eventClientList, final ClientClassification clientClassification, int threads) throws Exception {
+        List<List<EventClient>> partitions = partition(eventClientList, threads * PARTITIONS_PER_THREAD);
+        ExecutorService executorService = getProcessingExecutor(threads);
+
+        List<Future<List<Runnable>>> futures = new ArrayList<>();
+        for (final List<EventClient> partition : partitions) {
+            futures.add(executorService.submit(new Callable<List<Runnable>>() {
+                @Override
+                public List<Runnable> call() throws Exception {
+                    List<Runnable> writes = new ArrayList<>();
+                    pendingWrites.set(writes);
+                    try {
+                        for (EventClient eventClient : partition) {
+                            if (eventClient.getClient() != null) {
+                                processEvent(eventClient.getEvent(), eventClient.getClient(), clientClassification);
+                            }
+                        }
+                    } finally {
+                        pendingWrites.remove();
+                    }
+                    return writes;
+                }
+            }));
+        }
+
+        List<Runnable> writes = new ArrayList<>();
+        boolean completed = false;
+        try {
+            for (Future<List<Runnable>> future : futures) {
+                writes.addAll(future.get());
+            }
+            completed = true;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            if (!completed) {
+                for (Future<List<Runnable>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Applies the writes queued by the workers on the calling thread. Writes that go to the
+     * database are made in one transaction, a write that fails rolls back the batch and is thrown
+     * so that the batch is not reported as processed.
+     *
+     * @param inTransaction whether to wrap the writes in a transaction, false when they are buffered
+     */
+    private void applyWrites(List<Runnable> writes, boolean inTransaction) {
+        if (!inTransaction) {
+            for (Runnable write : writes) {
+                write.run();
+            }
+            return;
+        }
+
+        SQLiteDatabase database = getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (Runnable write : writes) {
+                write.run();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the pool the events are processed on. The pool is kept for the lifetime of the
+     * processor, idle workers are let go and the pool is resized if the thread count changes.
+     */
+    protected synchronized ExecutorService getProcessingExecutor(int threads) {
+        if (processingExecutor == null) {
+            processingExecutor = new ThreadPoolExecutor(threads, threads, WORKER_KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            processingExecutor.allowCoreThreadTimeOut(true);
+        } else if (processingExecutor.getMaximumPoolSize() < threads) {
+            processingExecutor.setMaximumPoolSize(threads);
+            processingExecutor.setCorePoolSize(threads);
+        } else if (processingExecutor.getMaximumPoolSize() > threads) {
+            processingExecutor.setCorePoolSize(threads);
+            processingExecutor.setMaximumPoolSize(threads);
+        }
+        return processingExecutor;
+    }
+
+    /**
+     * Splits the events into at most the given number of partitions, all the events of a
+     * baseEntityId go to the same partition in their original order
+     */
+    protected static List<List<EventClient>> partition(List<EventClient> eventClientList, int partitionCount) {
+        List<List<EventClient>> buckets = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            buckets.add(new ArrayList<EventClient>());
+        }
+        for (EventClient eventClient : eventClientList) {
+            String baseEntityId = eventClient.getEvent() != null ? eventClient.getEvent().getBaseEntityId() : null;
+            if (baseEntityId == null && eventClient.getClient() != null) {
+                baseEntityId = eventClient.getClient().getBaseEntityId();
+            }
+            int bucket = baseEntityId == null ? 0 : (baseEntityId.hashCode() & Integer.MAX_VALUE) % partitionCount;
+            buckets.get(bucket).add(eventClient);
+        }
+
+        List<List<EventClient>> partitions = new ArrayList<>();
+        for (List<EventClient> bucket : buckets) {
+            if (!bucket.isEmpty()) {
+                partitions.add(bucket);
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Queues a write of the partition being processed on the current thread
+     *
+     * @return false if the current thread is not a processing worker and the write should be
+     * made right away
+     */
+    protected boolean deferWrite(Runnable write) {
+        List<Runnable> writes = pendingWrites.get();
+        if (writes == null) {
+            return false;
+        }
+        writes.add(write);
+        return true;
+    }
+
+    /**
+     * @return number of threads to process events on, 1 processes them sequentially
+     */
+    protected int getProcessingThreads() {
+        return CoreLibrary.getInstance().getSyncConfiguration().getClientProcessingThreads();
+    }
+
+    protected SQLiteDatabase getWritableDatabase() {
+        return CoreLibrary.getInstance().context().getEventClientRepository().getWritableDatabase();
+    }
+
+    /**
+     * Returns the index of the given classification, building it the first time the classification
+     * is seen. The classification file is loaded once so the index is built once.
+     */
+    protected ClassificationIndex getClassificationIndex(ClientClassification clientClassification) {
+        ClassificationIndex index = classificationIndex;
+        if (index == null || indexedClassification != clientClassification) {
+            synchronized (this) {
+                if (classificationIndex == null || indexedClassification != clientClassification) {
+                    classificationIndex = new ClassificationIndex(clientClassification);
+                    indexedClassification = clientClassification;
+                    Log.i(TAG, String.format("Built classification index of %d rules and %d fields in %d ms",
+                            classificationIndex.getRuleCount(), classificationIndex.getFieldCount(), classificationIndex.getBuildMillis()));
                 }
+                index = classificationIndex;
             }
         }
+        return index;
     }
 
     public Boolean processEvent(Event event, Client client, ClientClassification clientClassification) throws Exception {
@@ -100,7 +358,7 @@ public class ClientProcessorForJava {
                 return false;
             }
 
-            for (ClassificationRule clientClass : clientClasses) {
+            for (ClassificationRule clientClass : getClassificationIndex(clientClassification).getCandidateRules(event)) {
                 processClientClass(clientClass, event, client);
             }
 
@@ -117,6 +375,10 @@ public class ClientProcessorForJava {
         }
     }
 
+    /**
+     * Processes the fields of a classification rule for the event. {@link #processEvent} only
+     * calls it for the rules that have a field the event can match, see {@link ClassificationIndex}.
+     */
     public Boolean processClientClass(ClassificationRule clientClass, Event event, Client client) {
         try {
             if (clientClass == null) {
@@ -278,7 +540,7 @@ public class ClientProcessorForJava {
                 updateIdenitifier(contentValues);
 
                 // save the values to db
-                executeInsertStatement(contentValues, clientType);
+                saveRecord(contentValues, clientType);
 
                 updateFTSsearch(clientType, baseEntityId, contentValues);
                 Long timestamp = getEventDate(event.getEventDate());
@@ -295,31 +557,34 @@ public class ClientProcessorForJava {
     }
 
     public void processCaseModel(Event event, Client client, Column column, ContentValues contentValues) {
+        processCaseModel(event, client, getCompiledColumn(column), contentValues);
+    }
+
+    /**
+     * Returns the compiled form of a column mapping, compiling it the first time the column is seen.
+     * The mappings are loaded once from ec_client_fields.json so each column is compiled once.
+     */
+    protected CompiledColumn getCompiledColumn(Column column) {
+        CompiledColumn compiledColumn = compiledColumns.get(column);
+        if (compiledColumn == null) {
+            compiledColumn = new CompiledColumn(column);
+            compiledColumns.put(column, compiledColumn);
+        }
+        return compiledColumn;
+    }
+
+    protected void processCaseModel(Event event, Client client, CompiledColumn column, ContentValues contentValues) {
         try {
             String expectedEncounterType = event.getEventType();
-            String docType = column.type;
-            String columnName = column.column_name;
-            JsonMapping jsonMapping = column.json_mapping;
-            String dataSegment = null;
-            String fieldName = jsonMapping.field;
-            String fieldValue = null;
-            String responseKey = null;
-
-            String valueField = jsonMapping.value_field;
+            String columnName = column.columnName;
+            String dataSegment = column.dataSegment;
+            String fieldName = column.fieldName;
+            String fieldValue = column.fieldValue;
+            String responseKey = column.responseKey;
 
-            if (fieldName != null && fieldName.contains(".")) {
-                String fieldNameArray[] = fieldName.split("\\.");
-                dataSegment = fieldNameArray[0];
-                fieldName = fieldNameArray[1];
-                fieldValue = StringUtils.isNotBlank(jsonMapping.concept) ? jsonMapping.concept
-                        : (StringUtils.isNotBlank(jsonMapping.formSubmissionField) ? jsonMapping
-                        .formSubmissionField : null);
-                if (fieldValue != null) {
-                    responseKey = VALUES_KEY;
-                }
-            }
+            String valueField = column.valueField;
 
-            Object document = docType == null ? event : docType.equalsIgnoreCase("Event") ? event : client;
+            Object document = column.fromEvent ? event : client;
 
             Object docSegment;
 
@@ -352,7 +617,7 @@ public class ClientProcessorForJava {
                 return;
             }
 
-            String encounterType = jsonMapping.event_type;
+            String encounterType = column.encounterType;
 
             if (docSegment instanceof List) {
 
@@ -447,10 +712,11 @@ public class ClientProcessorForJava {
         try {
             String baseEntityId = values.getAsString("base_entity_id");
 
+            Map<String, String> details = new HashMap<>();
             for (String key : values.keySet()) {
-                String value = values.getAsString(key);
-                saveClientDetails(baseEntityId, key, value, eventDate);
+                details.put(key, values.getAsString(key));
             }
+            saveClientDetails(baseEntityId, details, eventDate);
         } catch (Exception e) {
             Log.e(TAG, e.toString(), e);
         }
@@ -559,25 +825,40 @@ public class ClientProcessorForJava {
         return map;
     }
 
-    public void saveClientDetails(String baseEntityId, Map<String, String> values, Long timestamp) {
-        for (String key : values.keySet()) {
-            String value = values.get(key);
-            saveClientDetails(baseEntityId, key, value, timestamp);
-        }
-    }
-
     /**
-     * Save a single details row to the db
+     * Save the details of a client, only the keys whose value changed are written
      *
      * @param baseEntityId
-     * @param key
-     * @param value
+     * @param values
      * @param timestamp
      */
-    private void saveClientDetails(String baseEntityId, String key, String value, Long timestamp) {
+    public void saveClientDetails(final String baseEntityId, Map<String, String> values, final Long timestamp) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        final Map<String, String> details = new HashMap<>(values);
+        boolean deferred = deferWrite(new Runnable() {
+            @Override
+            public void run() {
+                writeClientDetails(baseEntityId, details, timestamp);
+            }
+        });
+        if (!deferred) {
+            writeClientDetails(baseEntityId, details, timestamp);
+        }
+    }
+
+    private void writeClientDetails(String baseEntityId, Map<String, String> details, Long timestamp) {
+        RegisterWriteBuffer buffer = writeBuffer.get();
+        if (buffer != null) {
+            for (Map.Entry<String, String> entry : details.entrySet()) {
+                buffer.addDetail(baseEntityId, entry.getKey(), entry.getValue(), timestamp);
+            }
+            return;
+        }
         DetailsRepository detailsRepository = org.smartregister.CoreLibrary.getInstance().context().
                 detailsRepository();
-        detailsRepository.add(baseEntityId, key, value, timestamp);
+        detailsRepository.add(baseEntityId, details, timestamp);
     }
 
 
@@ -640,13 +921,12 @@ public class ClientProcessorForJava {
                     }
                 }
 
-                List<Field> fields = getFields(address.getClass());
-                for (Field classField : fields) {
-                    String fieldName = classField.getName();
+                for (FieldAccessor accessor : getFields(address.getClass())) {
+                    String fieldName = accessor.getName();
                     if (!fieldName.equals(addressFieldsKey)) {
-                        String value = getValueAsString(address, classField.getName());
+                        Object value = accessor.get(address);
                         if (value != null) {
-                            addressMap.put(classField.getName(), value);
+                            addressMap.put(fieldName, value.toString());
                         }
                     }
                 }
@@ -658,14 +938,59 @@ public class ClientProcessorForJava {
     }
 
     /**
-     * Insert the a new record to the database and returns its id
+     * Insert the a new record to the database and returns its id. The record is written right
+     * away, use {@link #saveRecord(ContentValues, String)} to keep it in order with the other
+     * writes of a processing batch
      **/
     public Long executeInsertStatement(ContentValues values, String tableName) {
         CommonRepository cr = org.smartregister.CoreLibrary.getInstance().context().commonrepository(tableName);
         return cr.executeInsertStatement(values, tableName);
     }
 
-    public void closeCase(String tableName, String baseEntityId) {
+    /**
+     * Insert the a new record to the database in order with the other writes of the batch being
+     * processed, it is deferred to the writing thread while processing in parallel and buffered
+     * when {@link org.smartregister.SyncConfiguration#bufferClientProcessingWrites()} is enabled
+     **/
+    public void saveRecord(final ContentValues values, final String tableName) {
+        boolean deferred = deferWrite(new Runnable() {
+            @Override
+            public void run() {
+                insert(values, tableName);
+            }
+        });
+        if (!deferred) {
+            insert(values, tableName);
+        }
+    }
+
+    private void insert(ContentValues values, String tableName) {
+        RegisterWriteBuffer buffer = writeBuffer.get();
+        if (buffer != null && values.getAsString(CommonRepository.BASE_ENTITY_ID_COLUMN) != null) {
+            buffer.upsert(tableName, values);
+            return;
+        }
+        executeInsertStatement(values, tableName);
+    }
+
+    public void closeCase(final String tableName, final String baseEntityId) {
+        boolean deferred = deferWrite(new Runnable() {
+            @Override
+            public void run() {
+                close(tableName, baseEntityId);
+            }
+        });
+        if (!deferred) {
+            close(tableName, baseEntityId);
+        }
+    }
+
+    private void close(String tableName, String baseEntityId) {
+        RegisterWriteBuffer buffer = writeBuffer.get();
+        if (buffer != null) {
+            buffer.closeCase(tableName, baseEntityId);
+            return;
+        }
         CommonRepository cr = org.smartregister.CoreLibrary.getInstance().context().commonrepository(tableName);
         cr.closeCase(baseEntityId, tableName);
     }
@@ -714,16 +1039,7 @@ public class ClientProcessorForJava {
         if (instance == null || StringUtils.isBlank(fieldName)) {
             return null;
         }
-        try {
-            Field field = getField(instance.getClass(), fieldName);
-            if (field == null) {
-                return null;
-            }
-            field.setAccessible(true);
-            return field.get(instance);
-        } catch (IllegalAccessException e) {
-            return null;
-        }
+        return FieldAccessor.of(instance.getClass(), fieldName).get(instance);
     }
 
     protected String getValueAsString(Object instance, String fieldName) {
@@ -743,47 +1059,33 @@ public class ClientProcessorForJava {
         }
     }
 
-    private List<Field> getFields(Class clazz) {
-        List<Field> fields = new ArrayList<>();
+    private List<FieldAccessor> getFields(Class clazz) {
         if (instance == null) {
             return new ArrayList<>();
         }
+        return FieldAccessor.allOf(clazz);
+    }
 
 
-        Class current = clazz;
-        while (current != null) { // we don't want to process Object.class
-            // do something with current's fields
-            Field[] fieldArray = current.getDeclaredFields();
-            if (fieldArray != null) {
-                fields.addAll(Arrays.asList(fieldArray));
+    public void updateFTSsearch(final String tableName, final String entityId, final ContentValues contentValues) {
+        boolean deferred = deferWrite(new Runnable() {
+            @Override
+            public void run() {
+                updateSearch(tableName, entityId);
             }
-
-            current = current.getSuperclass();
+        });
+        if (!deferred) {
+            updateSearch(tableName, entityId);
         }
-
-        return fields;
     }
 
-    private Field getField(Class clazz, String fieldName) {
-        if (clazz == null || StringUtils.isBlank(fieldName)) {
-            return null;
-        }
-
-        Field field = null;
-        try {
-            field = clazz.getDeclaredField(fieldName);
-        } catch (NoSuchFieldException e) {
-            // No need to log this, log will be to big
-        }
-        if (field != null) {
-            return field;
+    private void updateSearch(String tableName, String entityId) {
+        RegisterWriteBuffer buffer = writeBuffer.get();
+        if (buffer != null) {
+            buffer.updateSearch(tableName, entityId);
+            return;
         }
 
-        return getField(clazz.getSuperclass(), fieldName);
-    }
-
-
-    public void updateFTSsearch(String tableName, String entityId, ContentValues contentValues) {
         Log.d(TAG, "Starting updateFTSsearch table: " + tableName);
         AllCommonsRepository allCommonsRepository = org.smartregister.CoreLibrary.getInstance().context().
                 allCommonsRepositoryobjects(tableName);
@@ -798,6 +1100,7 @@ public class ClientProcessorForJava {
 
     protected void updateRegisterCount(String entityId) {
         FORM_SUBMITTED.notifyListeners(entityId);
+        ENTITY_UPDATED.notifyListeners(entityId);
     }
 
     /**
@@ -0,0 +1,63 @@
+package org.smartregister.sync;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.domain.jsonmapping.Column;
+import org.smartregister.domain.jsonmapping.JsonMapping;
+
+/**
+ * A column mapping of ec_client_fields.json with its json mapping already split into the parts
+ * {@link ClientProcessorForJava} needs, so that the field path is parsed once per column instead
+ * of once per event.
+ */
+public class CompiledColumn {
+
+    public final String columnName;
+
+    /**
+     * Whether the value is read from the event, otherwise it is read from the client
+     */
+    public final boolean fromEvent;
+
+    /**
+     * Section of the document holding the value e.g. obs, null when the field is on the document itself
+     */
+    public final String dataSegment;
+
+    public final String fieldName;
+
+    /**
+     * Concept or form submission field identifying the obs to read, null to read fieldName directly
+     */
+    public final String fieldValue;
+
+    public final String responseKey;
+
+    public final String valueField;
+
+    public final String encounterType;
+
+    public CompiledColumn(Column column) {
+        JsonMapping jsonMapping = column.json_mapping;
+        String segment = null;
+        String name = jsonMapping.field;
+        String value = null;
+
+        if (name != null && name.contains(".")) {
+            String fieldNameArray[] = name.split("\\.");
+            segment = fieldNameArray[0];
+            name = fieldNameArray[1];
+            value = StringUtils.isNotBlank(jsonMapping.concept) ? jsonMapping.concept
+                    : (StringUtils.isNotBlank(jsonMapping.formSubmissionField) ? jsonMapping
+                    .formSubmissionField : null);
+        }
+
+        this.columnName = column.column_name;
+        this.fromEvent = column.type == null || column.type.equalsIgnoreCase("Event");
+        this.dataSegment = segment;
+        this.fieldName = name;
+        this.fieldValue = value;
+        this.responseKey = value != null ? ClientProcessorForJava.VALUES_KEY : null;
+        this.valueField = jsonMapping.value_field;
+        this.encounterType = jsonMapping.event_type;
+    }
+}
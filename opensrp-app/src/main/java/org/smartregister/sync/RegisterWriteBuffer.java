@@ -0,0 +1,191 @@
+package org.smartregister.sync;
+
+import android.content.ContentValues;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.Context;
+import org.smartregister.commonregistry.AllCommonsRepository;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.repository.DetailsRepository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the register rows, closed cases, details and search updates that
+ * {@link ClientProcessorForJava} makes while processing a batch of events and writes them when
+ * the batch is done.
+ * <p>
+ * Writes for the same entity are merged in memory, so a later event for an entity overwrites the
+ * columns and details an earlier event of the batch set instead of both being written.
+ */
+public class RegisterWriteBuffer {
+
+    private final Context context;
+
+    // table -> base entity id -> merged row
+    private final Map<String, Map<String, ContentValues>> registerRows = new LinkedHashMap<>();
+
+    // table -> base entity ids closed without a row in this batch
+    private final Map<String, Set<String>> closedCases = new LinkedHashMap<>();
+
+    // base entity id -> key -> detail
+    private final Map<String, Map<String, Detail>> details = new LinkedHashMap<>();
+
+    // table -> base entity ids
+    private final Map<String, Set<String>> searchUpdates = new LinkedHashMap<>();
+
+    private int writeCount;
+
+    public RegisterWriteBuffer(Context context) {
+        this.context = context;
+    }
+
+    public void upsert(String tableName, ContentValues values) {
+        writeCount++;
+        String baseEntityId = values.getAsString(CommonRepository.BASE_ENTITY_ID_COLUMN);
+        Map<String, ContentValues> rows = registerRows.get(tableName);
+        if (rows == null) {
+            rows = new LinkedHashMap<>();
+            registerRows.put(tableName, rows);
+        }
+
+        ContentValues row = rows.get(baseEntityId);
+        if (row == null) {
+            row = new ContentValues();
+            Set<String> closed = closedCases.get(tableName);
+            if (closed != null && closed.remove(baseEntityId)) {
+                row.put(CommonRepository.IS_CLOSED_COLUMN, 1);
+            }
+            rows.put(baseEntityId, row);
+        }
+        row.putAll(values);
+    }
+
+    public void closeCase(String tableName, String baseEntityId) {
+        writeCount++;
+        Map<String, ContentValues> rows = registerRows.get(tableName);
+        if (rows != null && rows.containsKey(baseEntityId)) {
+            rows.get(baseEntityId).put(CommonRepository.IS_CLOSED_COLUMN, 1);
+            return;
+        }
+
+        Set<String> closed = closedCases.get(tableName);
+        if (closed == null) {
+            closed = new LinkedHashSet<>();
+            closedCases.put(tableName, closed);
+        }
+        closed.add(baseEntityId);
+    }
+
+    public void addDetail(String baseEntityId, String key, String value, Long timestamp) {
+        writeCount++;
+        Map<String, Detail> entityDetails = details.get(baseEntityId);
+        if (entityDetails == null) {
+            entityDetails = new LinkedHashMap<>();
+            details.put(baseEntityId, entityDetails);
+        }
+
+        Detail detail = entityDetails.get(key);
+        // An unchanged value keeps the date it was first set on, as DetailsRepository.add does
+        if (detail == null || detail.value == null || !detail.value.equals(value)) {
+            entityDetails.put(key, new Detail(value, timestamp));
+        }
+    }
+
+    public void updateSearch(String tableName, String baseEntityId) {
+        if (StringUtils.isBlank(baseEntityId)) {
+            return;
+        }
+        writeCount++;
+        Set<String> entityIds = searchUpdates.get(tableName);
+        if (entityIds == null) {
+            entityIds = new LinkedHashSet<>();
+            searchUpdates.put(tableName, entityIds);
+        }
+        entityIds.add(baseEntityId);
+    }
+
+    public boolean isEmpty() {
+        return writeCount == 0;
+    }
+
+    /**
+     * @return number of writes buffered since the last flush
+     */
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Writes the buffered rows, the search index is updated last so that it reads the rows
+     * written before it. Callers wrap the flush in a transaction.
+     *
+     * @return ids of the entities whose search index was updated
+     */
+    public List<String> flush() {
+        for (Map.Entry<String, Map<String, ContentValues>> entry : registerRows.entrySet()) {
+            context.commonrepository(entry.getKey()).executeInsertStatements(entry.getValue().values(), entry.getKey());
+        }
+
+        for (Map.Entry<String, Set<String>> entry : closedCases.entrySet()) {
+            CommonRepository commonRepository = context.commonrepository(entry.getKey());
+            for (String baseEntityId : entry.getValue()) {
+                commonRepository.closeCase(baseEntityId, entry.getKey());
+            }
+        }
+
+        if (!details.isEmpty()) {
+            DetailsRepository detailsRepository = context.detailsRepository();
+            for (Map.Entry<String, Map<String, Detail>> entityDetails : details.entrySet()) {
+                // details of an entity are written together, one write per event date
+                Map<Long, Map<String, String>> valuesByTimestamp = new LinkedHashMap<>();
+                for (Map.Entry<String, Detail> entry : entityDetails.getValue().entrySet()) {
+                    Map<String, String> values = valuesByTimestamp.get(entry.getValue().timestamp);
+                    if (values == null) {
+                        values = new LinkedHashMap<>();
+                        valuesByTimestamp.put(entry.getValue().timestamp, values);
+                    }
+                    values.put(entry.getKey(), entry.getValue().value);
+                }
+                for (Map.Entry<Long, Map<String, String>> entry : valuesByTimestamp.entrySet()) {
+                    detailsRepository.add(entityDetails.getKey(), entry.getValue(), entry.getKey());
+                }
+            }
+        }
+
+        List<String> searchUpdated = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> entry : searchUpdates.entrySet()) {
+            AllCommonsRepository allCommonsRepository = context.allCommonsRepositoryobjects(entry.getKey());
+            if (allCommonsRepository != null) {
+                allCommonsRepository.updateSearch(new ArrayList<>(entry.getValue()));
+                searchUpdated.addAll(entry.getValue());
+            }
+        }
+
+        clear();
+        return searchUpdated;
+    }
+
+    public void clear() {
+        registerRows.clear();
+        closedCases.clear();
+        details.clear();
+        searchUpdates.clear();
+        writeCount = 0;
+    }
+
+    private static class Detail {
+        private final String value;
+        private final Long timestamp;
+
+        private Detail(String value, Long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.smartregister.sync.helper;
+
+import android.util.Log;
+
+/**
+ * Adapts the number of records requested or sent per sync page to the measured link quality.
+ * <p>
+ * Pages whose time is dominated by round trip latency grow quickly so that latency is paid for
+ * fewer times, pages that take longer than the target duration shrink proportionally and failed
+ * pages halve the batch size so that a flaky link retries smaller pages. The size always stays
+ * within the configured bounds.
+ */
+public class BatchSizeController {
+
+    private static final String TAG = BatchSizeController.class.getCanonicalName();
+
+    public static final long DEFAULT_TARGET_PAGE_MILLIS = 15000;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long targetPageMillis;
+
+    private int batchSize;
+
+    public BatchSizeController(int initialBatchSize, int minBatchSize, int maxBatchSize) {
+        this(initialBatchSize, minBatchSize, maxBatchSize, DEFAULT_TARGET_PAGE_MILLIS);
+    }
+
+    public BatchSizeController(int initialBatchSize, int minBatchSize, int maxBatchSize, long targetPageMillis) {
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, maxBatchSize));
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.targetPageMillis = targetPageMillis > 0 ? targetPageMillis : DEFAULT_TARGET_PAGE_MILLIS;
+        this.batchSize = clamp(initialBatchSize);
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Records a successful page
+     *
+     * @param latencyMillis  time spent waiting for the server before any data was transferred
+     * @param transferMillis time spent transferring and saving the page
+     * @param bytes          size of the page payload
+     */
+    public synchronized void onSuccess(long latencyMillis, long transferMillis, long bytes) {
+        adjust(latencyMillis, transferMillis, bytes, true);
+    }
+
+    /**
+     * Records a successful page whose latency cannot be told apart from its transfer, such as a
+     * push where the response only starts once the whole payload has been sent. The batch size
+     * never doubles since the page is not known to be latency bound.
+     *
+     * @param totalMillis time from the start of the request to the response
+     * @param bytes       size of the page payload
+     */
+    public synchronized void onSuccess(long totalMillis, long bytes) {
+        adjust(0, totalMillis, bytes, false);
+    }
+
+    private void adjust(long latencyMillis, long transferMillis, long bytes, boolean latencyMeasured) {
+        long totalMillis = Math.max(1, latencyMillis + transferMillis);
+        int previous = batchSize;
+
+        if (totalMillis > targetPageMillis) {
+            batchSize = clamp((int) (batchSize * targetPageMillis / totalMillis));
+        } else if (latencyMeasured && latencyMillis >= transferMillis) {
+            batchSize = clamp(batchSize * 2);
+        } else {
+            batchSize = clamp(batchSize + Math.max(1, batchSize / 4));
+        }
+
+        if (previous != batchSize) {
+            Log.i(TAG, String.format("Batch size %d -> %d (latency %d ms, transfer %d ms, %d bytes)",
+                    previous, batchSize, latencyMillis, transferMillis, bytes));
+        }
+    }
+
+    /**
+     * Records a failed page, halving the batch size
+     */
+    public synchronized void onFailure() {
+        batchSize = clamp(batchSize / 2);
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    private int clamp(int size) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+    }
+}
@@ -0,0 +1,104 @@
+package org.smartregister.sync.helper;
+
+import android.util.Log;
+import android.util.Pair;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs client processing of pulled pages on a background worker so that the next page can be
+ * fetched and saved while the previous one is being processed.
+ * <p>
+ * Pages are handed over as serverVersion ranges through a bounded queue. When the queue is full
+ * {@link #submit(Pair)} blocks, which keeps the number of pages waiting for processing capped.
+ * Ranges are processed strictly in the order they were submitted.
+ */
+public class ClientProcessingPipeline {
+
+    private static final String TAG = ClientProcessingPipeline.class.getCanonicalName();
+
+    public static final int DEFAULT_CAPACITY = 2;
+
+    private static final Pair<Long, Long> END_OF_SYNC = Pair.create(Long.MIN_VALUE, Long.MIN_VALUE);
+
+    private final BlockingQueue<Pair<Long, Long>> queue;
+    private final PageProcessor pageProcessor;
+    private Thread worker;
+
+    public ClientProcessingPipeline(PageProcessor pageProcessor) {
+        this(pageProcessor, DEFAULT_CAPACITY);
+    }
+
+    public ClientProcessingPipeline(PageProcessor pageProcessor, int capacity) {
+        this.pageProcessor = pageProcessor;
+        this.queue = new ArrayBlockingQueue<>(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+    }
+
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "ClientProcessingPipeline");
+        worker.start();
+    }
+
+    /**
+     * Queues a serverVersion range for processing, blocking while the queue is full
+     *
+     * @param serverVersionRange the (min, max) serverVersion pair of a saved page
+     */
+    public void submit(Pair<Long, Long> serverVersionRange) throws InterruptedException {
+        if (worker == null) {
+            pageProcessor.process(serverVersionRange);
+            return;
+        }
+        queue.put(serverVersionRange);
+    }
+
+    /**
+     * Waits until every submitted range has been processed and stops the worker
+     */
+    public void finish() {
+        Thread currentWorker;
+        synchronized (this) {
+            currentWorker = worker;
+            worker = null;
+        }
+        if (currentWorker == null) {
+            return;
+        }
+        try {
+            queue.put(END_OF_SYNC);
+            currentWorker.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for client processing to finish", e);
+            currentWorker.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Pair<Long, Long> serverVersionRange = queue.take();
+                if (serverVersionRange == END_OF_SYNC) {
+                    return;
+                }
+                pageProcessor.process(serverVersionRange);
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Client processing interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public interface PageProcessor {
+        void process(Pair<Long, Long> serverVersionRange);
+    }
+}
@@ -3,13 +3,18 @@ package org.smartregister.sync.helper;
 import android.content.Context;
 import android.support.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.Pair;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.smartregister.CoreLibrary;
+import org.smartregister.domain.SyncCheckpoint;
+import org.smartregister.domain.SyncPage;
 import org.smartregister.domain.db.EventClient;
 import org.smartregister.repository.AllSharedPreferences;
 import org.smartregister.repository.EventClientRepository;
+import org.smartregister.service.StreamProcessor;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -62,6 +67,15 @@ public class ECSyncHelper {
         }
     }
 
+    /**
+     * Creates a processor that saves a sync page into the database while it is being downloaded
+     *
+     * @return processor that summarises the saved page
+     */
+    public StreamProcessor<SyncPage> getSyncPageProcessor() {
+        return new ECSyncStreamParser(eventClientRepository);
+    }
+
     public List<EventClient> allEventClients(long startSyncTimeStamp, long lastSyncTimeStamp) {
         try {
             return eventClientRepository.fetchEventClients(startSyncTimeStamp, lastSyncTimeStamp);
@@ -79,6 +93,44 @@ public class ECSyncHelper {
         allSharedPreferences.saveLastSyncDate(lastSyncTimeStamp);
     }
 
+    /**
+     * Loads the persisted pull checkpoint. The last persisted serverVersion is the last sync timestamp.
+     *
+     * @return the checkpoint, empty if none was saved or it could not be read
+     */
+    public synchronized SyncCheckpoint getSyncCheckpoint() {
+        long lastSyncTimeStamp = getLastSyncTimeStamp();
+        try {
+            return SyncCheckpoint.fromJson(lastSyncTimeStamp, allSharedPreferences.fetchSyncCheckpoint());
+        } catch (JSONException e) {
+            Log.e(getClass().getName(), "Unable to read sync checkpoint", e);
+            return new SyncCheckpoint(lastSyncTimeStamp);
+        }
+    }
+
+    /**
+     * Records a saved page as pending client processing and moves the pull cursor past it
+     *
+     * @param serverVersionRange (min, max) serverVersion of the saved page
+     * @param lastSyncTimeStamp  serverVersion to request the next page from
+     */
+    public synchronized void onPagePersisted(Pair<Long, Long> serverVersionRange, long lastSyncTimeStamp) {
+        SyncCheckpoint syncCheckpoint = getSyncCheckpoint();
+        syncCheckpoint.onPersisted(serverVersionRange, lastSyncTimeStamp);
+        allSharedPreferences.saveLastSyncDateAndCheckpoint(lastSyncTimeStamp, syncCheckpoint.toJson());
+    }
+
+    /**
+     * Removes a page from the pending ranges once client processing has completed for it
+     *
+     * @param serverVersionRange (min, max) serverVersion of the processed page
+     */
+    public synchronized void onPageProcessed(Pair<Long, Long> serverVersionRange) {
+        SyncCheckpoint syncCheckpoint = getSyncCheckpoint();
+        syncCheckpoint.onProcessed(serverVersionRange);
+        allSharedPreferences.saveSyncCheckpoint(syncCheckpoint.toJson());
+    }
+
     public void updateLastCheckTimeStamp(long lastCheckTimeStamp) {
         allSharedPreferences.updateLastCheckTimeStamp(lastCheckTimeStamp);
     }
@@ -0,0 +1,173 @@
+package org.smartregister.sync.helper;
+
+import com.google.gson.stream.JsonReader;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.smartregister.AllConstants;
+import org.smartregister.domain.SyncPage;
+import org.smartregister.repository.EventClientRepository;
+import org.smartregister.service.StreamProcessor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads a /rest/event/sync page token by token and saves clients and events into the
+ * {@link EventClientRepository} in small chunks while the response is still being downloaded.
+ * Only one chunk of clients or events is held in memory at any time. Events are saved as staged
+ * and are released to {@link UnprocessedEventsProcessor} once the whole page, including its
+ * clients, has been saved, so that no event is processed before its client.
+ */
+public class ECSyncStreamParser implements StreamProcessor<SyncPage> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 50;
+
+    private static final String NO_OF_EVENTS = "no_of_events";
+    private static final String SERVER_VERSION = "serverVersion";
+
+    private final EventClientRepository eventClientRepository;
+    private final int chunkSize;
+
+    public ECSyncStreamParser(EventClientRepository eventClientRepository) {
+        this(eventClientRepository, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ECSyncStreamParser(EventClientRepository eventClientRepository, int chunkSize) {
+        this.eventClientRepository = eventClientRepository;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    @Override
+    public SyncPage process(InputStream inputStream) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        SyncPage syncPage = new SyncPage();
+        CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+        JsonReader reader = new JsonReader(new InputStreamReader(countingInputStream, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (AllConstants.KEY.EVENTS.equals(name)) {
+                    readEvents(reader, syncPage);
+                } else if (AllConstants.KEY.CLIENTS.equals(name)) {
+                    readClients(reader, syncPage);
+                } else if (NO_OF_EVENTS.equals(name)) {
+                    syncPage.setNoOfEvents(reader.nextInt());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if ((syncPage.getEventCount() > 0 || syncPage.getClientCount() > 0)
+                    && !eventClientRepository.releaseUnprocessedEvents()) {
+                throw new IOException("Unable to release events from sync page");
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+        syncPage.setByteCount(countingInputStream.getByteCount());
+        syncPage.setTransferMillis(System.currentTimeMillis() - startedAt);
+        return syncPage;
+    }
+
+    private void readClients(JsonReader reader, SyncPage syncPage) throws IOException, JSONException {
+        JSONArray chunk = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            chunk.put(readObject(reader));
+            if (chunk.length() >= chunkSize) {
+                saveClients(chunk, syncPage);
+                chunk = new JSONArray();
+            }
+        }
+        reader.endArray();
+        saveClients(chunk, syncPage);
+    }
+
+    private void readEvents(JsonReader reader, SyncPage syncPage) throws IOException, JSONException {
+        JSONArray chunk = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JSONObject event = readObject(reader);
+            syncPage.addEvent(event.has(SERVER_VERSION) ? event.getLong(SERVER_VERSION) : null);
+            chunk.put(event);
+            if (chunk.length() >= chunkSize) {
+                saveEvents(chunk);
+                chunk = new JSONArray();
+            }
+        }
+        reader.endArray();
+        saveEvents(chunk);
+    }
+
+    private void saveClients(JSONArray chunk, SyncPage syncPage) throws IOException {
+        if (chunk.length() == 0) {
+            return;
+        }
+        if (!eventClientRepository.batchInsertClients(chunk)) {
+            throw new IOException("Unable to save clients from sync page");
+        }
+        syncPage.addClients(chunk.length());
+    }
+
+    private void saveEvents(JSONArray chunk) throws IOException {
+        if (chunk.length() == 0) {
+            return;
+        }
+        if (!eventClientRepository.batchInsertUnprocessedEvents(chunk)) {
+            throw new IOException("Unable to save events from sync page");
+        }
+    }
+
+    private JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject jsonObject = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            jsonObject.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return jsonObject;
+    }
+
+    private JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray jsonArray = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            jsonArray.put(readValue(reader));
+        }
+        reader.endArray();
+        return jsonArray;
+    }
+
+    private Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                return toNumber(reader.nextString());
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private Number toNumber(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return Double.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package org.smartregister.sync.helper;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import android.util.Pair;
+
+import org.smartregister.AllConstants;
+import org.smartregister.CoreLibrary;
+import org.smartregister.domain.FetchStatus;
+import org.smartregister.domain.db.EventClient;
+import org.smartregister.receiver.SyncStatusBroadcastReceiver;
+import org.smartregister.repository.EventClientRepository;
+import org.smartregister.sync.ClientProcessorForJava;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs events flagged as unprocessed in the event table through client processing. The pages
+ * saved by a sync are processed one by one by the {@link ClientProcessingPipeline} through
+ * {@link #processRange(ClientProcessorForJava, Pair)}, events left over, e.g. those released once
+ * their client was saved, are drained on a background thread by {@link #schedule(ClientProcessorForJava)}.
+ * <p>
+ * Events are processed in batches ordered by serverVersion. A batch that fails is retried with a
+ * growing delay; once the retries are used up the run stops and reports
+ * {@link FetchStatus#fetchedFailed}, leaving the events flagged so that the next run picks them up
+ * again. Progress is broadcast after every batch through {@link SyncStatusBroadcastReceiver}.
+ */
+public class UnprocessedEventsProcessor {
+
+    private static final String TAG = UnprocessedEventsProcessor.class.getCanonicalName();
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY_MILLIS = 2000;
+
+    private static UnprocessedEventsProcessor instance;
+
+    private final Context context;
+    private final EventClientRepository eventClientRepository;
+    private final ECSyncHelper ecSyncHelper;
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean runScheduled = new AtomicBoolean(false);
+    private final Object batchLock = new Object();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public static synchronized UnprocessedEventsProcessor getInstance(Context context) {
+        if (instance == null) {
+            instance = new UnprocessedEventsProcessor(context.getApplicationContext(),
+                    CoreLibrary.getInstance().context().getEventClientRepository(),
+                    ECSyncHelper.getInstance(context));
+        }
+        return instance;
+    }
+
+    @VisibleForTesting
+    protected UnprocessedEventsProcessor(Context context, EventClientRepository eventClientRepository, ECSyncHelper ecSyncHelper) {
+        this.context = context;
+        this.eventClientRepository = eventClientRepository;
+        this.ecSyncHelper = ecSyncHelper;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Schedules a run that drains all unprocessed events. Calls made while a run is already waiting
+     * to start are coalesced into that run.
+     *
+     * @param clientProcessor processor used for the events
+     */
+    public void schedule(final ClientProcessorForJava clientProcessor) {
+        if (!runScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                runScheduled.set(false);
+                processAll(clientProcessor);
+            }
+        });
+    }
+
+    /**
+     * Processes the unprocessed events of a saved page and removes the page from the checkpoint's
+     * pending ranges once none are left. A page whose events keep failing stays pending so that the
+     * next sync resumes it.
+     *
+     * @param clientProcessor    processor used for the events
+     * @param serverVersionRange (min, max) serverVersion of the saved page
+     * @return true if the page was processed
+     */
+    public boolean processRange(ClientProcessorForJava clientProcessor, Pair<Long, Long> serverVersionRange) {
+        drain(clientProcessor, serverVersionRange);
+        if (countUnprocessed(serverVersionRange) > 0) {
+            return false;
+        }
+        ecSyncHelper.onPageProcessed(serverVersionRange);
+        return true;
+    }
+
+    /**
+     * Processes unprocessed events batch by batch until none are left or a batch keeps failing.
+     * Events whose client is not on the device are not processed, they are flagged to wait for the
+     * client instead of being marked as processed.
+     *
+     * @param clientProcessor processor used for the events
+     * @return the number of events processed
+     */
+    @VisibleForTesting
+    protected int processAll(ClientProcessorForJava clientProcessor) {
+        return drain(clientProcessor, null);
+    }
+
+    /**
+     * @param serverVersionRange page whose events are processed, null for every unprocessed event
+     */
+    private int drain(ClientProcessorForJava clientProcessor, Pair<Long, Long> serverVersionRange) {
+        int processed = 0;
+        int failures = 0;
+        int remaining = countUnprocessed(serverVersionRange);
+        while (remaining > 0) {
+            int fetched;
+            try {
+                // the pipeline and the background drain must not process the same events twice
+                synchronized (batchLock) {
+                    List<EventClient> eventClients = fetchUnprocessed(serverVersionRange);
+                    fetched = eventClients.size();
+                    if (!eventClients.isEmpty()) {
+                        processed += processBatch(clientProcessor, eventClients);
+                    }
+                }
+                if (fetched > 0) {
+                    failures = 0;
+                    sendProgressBroadcast(FetchStatus.fetched, processed);
+                }
+            } catch (Exception e) {
+                failures++;
+                Log.e(TAG, "Client processing failed, attempt " + failures + " of " + (MAX_RETRIES + 1), e);
+                if (failures > MAX_RETRIES || !waitBeforeRetry(failures)) {
+                    sendProgressBroadcast(FetchStatus.fetchedFailed, processed);
+                    return processed;
+                }
+                continue;
+            }
+
+            int left = countUnprocessed(serverVersionRange);
+            if (fetched == 0 && left >= remaining) {
+                // Nothing could be read and nothing was flagged, stop instead of spinning
+                Log.w(TAG, left + " unprocessed events could not be read");
+                return processed;
+            }
+            remaining = left;
+        }
+        return processed;
+    }
+
+    private List<EventClient> fetchUnprocessed(Pair<Long, Long> serverVersionRange) {
+        if (serverVersionRange == null) {
+            return eventClientRepository.fetchUnprocessedEventClients(batchSize);
+        }
+        return eventClientRepository.fetchUnprocessedEventClients(serverVersionRange.first, serverVersionRange.second, batchSize);
+    }
+
+    private int countUnprocessed(Pair<Long, Long> serverVersionRange) {
+        if (serverVersionRange == null) {
+            return eventClientRepository.getUnprocessedEventsCount();
+        }
+        return eventClientRepository.getUnprocessedEventsCount(serverVersionRange.first, serverVersionRange.second);
+    }
+
+    private int processBatch(ClientProcessorForJava clientProcessor, List<EventClient> eventClients) throws Exception {
+        List<EventClient> withClient = new ArrayList<>();
+        List<EventClient> withoutClient = new ArrayList<>();
+        for (EventClient eventClient : eventClients) {
+            if (eventClient.getClient() != null) {
+                withClient.add(eventClient);
+            } else {
+                withoutClient.add(eventClient);
+            }
+        }
+
+        if (!withClient.isEmpty()) {
+            clientProcessor.processClient(withClient);
+        }
+        if (!eventClientRepository.markEventsAsProcessed(withClient)) {
+            throw new IllegalStateException("Unable to mark " + withClient.size() + " events as processed");
+        }
+        if (!eventClientRepository.markEventsAsAwaitingClient(withoutClient)) {
+            throw new IllegalStateException("Unable to flag " + withoutClient.size() + " events without a client");
+        }
+        if (!withoutClient.isEmpty()) {
+            Log.w(TAG, withoutClient.size() + " events are waiting for their client");
+        }
+        return withClient.size();
+    }
+
+    private boolean waitBeforeRetry(int failures) {
+        try {
+            sleep(RETRY_DELAY_MILLIS * failures);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    protected void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+
+    private void sendProgressBroadcast(FetchStatus fetchStatus, int processed) {
+        Intent intent = new Intent();
+        intent.setAction(SyncStatusBroadcastReceiver.ACTION_SYNC_STATUS);
+        intent.putExtra(SyncStatusBroadcastReceiver.EXTRA_FETCH_STATUS, fetchStatus);
+        intent.putExtra(AllConstants.INTENT_KEY.PROCESSED_RECORDS, processed);
+        intent.putExtra(AllConstants.INTENT_KEY.UNPROCESSED_RECORDS, eventClientRepository.getUnprocessedEventsCount());
+        context.sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,32 @@
+package org.smartregister.sync.intent;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import org.smartregister.CoreLibrary;
+import org.smartregister.util.DatabaseMigrationUtils;
+
+/**
+ * Runs the migrations scheduled by the background variants of {@link DatabaseMigrationUtils} off
+ * the upgrade. Progress is saved with every chunk, so a killed run resumes where it stopped the
+ * next time the service starts.
+ */
+public class DatabaseMigrationIntentService extends IntentService {
+
+    private static final String TAG = DatabaseMigrationIntentService.class.getCanonicalName();
+    private static final int MIGRATION_CHUNK_SIZE = 500;
+
+    public DatabaseMigrationIntentService() {
+        super("DatabaseMigrationIntentService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            DatabaseMigrationUtils.runPendingMigrations(CoreLibrary.getInstance().context().getEventClientRepository().getWritableDatabase(), MIGRATION_CHUNK_SIZE);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+}
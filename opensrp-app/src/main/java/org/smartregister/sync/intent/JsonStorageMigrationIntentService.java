@@ -0,0 +1,42 @@
+package org.smartregister.sync.intent;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import org.smartregister.CoreLibrary;
+import org.smartregister.repository.EventClientRepository;
+
+/**
+ * Converts the stored event and client json to the format of the current
+ * {@link org.smartregister.repository.JsonStorageCodec} a chunk at a time, so the migration does
+ * not hold the database for long and stops cleanly if the service is killed.
+ */
+public class JsonStorageMigrationIntentService extends IntentService {
+
+    private static final String TAG = JsonStorageMigrationIntentService.class.getCanonicalName();
+    private static final int MIGRATION_CHUNK_SIZE = 200;
+
+    public JsonStorageMigrationIntentService() {
+        super("JsonStorageMigrationIntentService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        try {
+            EventClientRepository eventClientRepository = CoreLibrary.getInstance().context().getEventClientRepository();
+            migrate(eventClientRepository, EventClientRepository.Table.client);
+            migrate(eventClientRepository, EventClientRepository.Table.event);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    private void migrate(EventClientRepository eventClientRepository, EventClientRepository.Table table) {
+        long rowId = 0;
+        while (rowId >= 0) {
+            rowId = eventClientRepository.migrateJsonStorage(table, rowId, MIGRATION_CHUNK_SIZE);
+        }
+        Log.i(TAG, "Migrated " + table.name() + " json storage");
+    }
+}
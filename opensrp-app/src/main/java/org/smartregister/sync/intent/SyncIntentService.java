@@ -8,8 +8,6 @@ import android.util.Pair;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.smartregister.AllConstants;
 import org.smartregister.CoreLibrary;
@@ -17,12 +15,15 @@ import org.smartregister.R;
 import org.smartregister.SyncConfiguration;
 import org.smartregister.domain.FetchStatus;
 import org.smartregister.domain.Response;
-import org.smartregister.domain.db.EventClient;
+import org.smartregister.domain.SyncPage;
 import org.smartregister.receiver.SyncStatusBroadcastReceiver;
 import org.smartregister.repository.EventClientRepository;
 import org.smartregister.service.HTTPAgent;
 import org.smartregister.sync.ClientProcessorForJava;
+import org.smartregister.sync.helper.BatchSizeController;
+import org.smartregister.sync.helper.ClientProcessingPipeline;
 import org.smartregister.sync.helper.ECSyncHelper;
+import org.smartregister.sync.helper.UnprocessedEventsProcessor;
 import org.smartregister.util.NetworkUtils;
 import org.smartregister.util.SyncUtils;
 
@@ -39,8 +40,6 @@ public class SyncIntentService extends IntentService {
     private HTTPAgent httpAgent;
     private SyncUtils syncUtils;
 
-    protected static final int EVENT_PULL_LIMIT = 250;
-    protected static final int EVENT_PUSH_LIMIT = 50;
 
     public SyncIntentService() {
         super("SyncIntentService");
@@ -91,17 +90,78 @@ public class SyncIntentService extends IntentService {
 
 
     private void pullECFromServer() {
-        fetchRetry(0);
+        SyncConfiguration configs = CoreLibrary.getInstance().getSyncConfiguration();
+        if (configs.getSyncFilterParam() == null || StringUtils.isBlank(configs.getSyncFilterValue()) || httpAgent == null) {
+            complete(FetchStatus.fetchedFailed);
+            return;
+        }
+
+        final ClientProcessorForJava clientProcessor = getClientProcessor();
+        final UnprocessedEventsProcessor unprocessedEventsProcessor = UnprocessedEventsProcessor.getInstance(context);
+        ClientProcessingPipeline processingPipeline = new ClientProcessingPipeline(new ClientProcessingPipeline.PageProcessor() {
+            @Override
+            public void process(Pair<Long, Long> serverVersionRange) {
+                unprocessedEventsProcessor.processRange(clientProcessor, serverVersionRange);
+            }
+        });
+        processingPipeline.start();
+        resumePendingProcessing(processingPipeline);
+
+        BatchSizeController batchSizeController = configs.getEventPullBatchSizeController();
+
+        FetchStatus fetchStatus = FetchStatus.fetchedFailed;
+        try {
+            fetchStatus = fetchAllPages(configs, processingPipeline, batchSizeController);
+        } finally {
+            processingPipeline.finish();
+        }
+        // Events released once their client was saved and pages that kept failing are left flagged
+        scheduleClientProcessing();
+        complete(fetchStatus);
     }
 
-    private synchronized void fetchRetry(final int count) {
+    /**
+     * Queues pages that were saved by an earlier sync but never processed, for example because
+     * the sync process was killed, so they are processed without being downloaded again.
+     */
+    private void resumePendingProcessing(ClientProcessingPipeline processingPipeline) {
+        List<Pair<Long, Long>> pendingRanges = ECSyncHelper.getInstance(context).getSyncCheckpoint().getPendingRanges();
+        if (pendingRanges.isEmpty()) {
+            return;
+        }
+        Log.i(getClass().getName(), "Resuming client processing of " + pendingRanges.size() + " saved pages");
         try {
-            SyncConfiguration configs = CoreLibrary.getInstance().getSyncConfiguration();
-            if (configs.getSyncFilterParam() == null || StringUtils.isBlank(configs.getSyncFilterValue())) {
-                complete(FetchStatus.fetchedFailed);
-                return;
+            for (Pair<Long, Long> serverVersionRange : pendingRanges) {
+                processingPipeline.submit(serverVersionRange);
             }
+        } catch (InterruptedException e) {
+            Log.e(getClass().getName(), "Interrupted while resuming client processing", e);
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    /**
+     * Fetches pages until the server has nothing more to send. Each saved page is handed over to
+     * the processing pipeline so the next page is downloaded while the previous one is processed.
+     */
+    private FetchStatus fetchAllPages(SyncConfiguration configs, ClientProcessingPipeline processingPipeline,
+                                      BatchSizeController batchSizeController) {
+        int retryCount = 0;
+        while (true) {
+            FetchStatus fetchStatus = fetchPage(configs, processingPipeline, batchSizeController);
+            if (FetchStatus.fetched.equals(fetchStatus)) {
+                retryCount = 0;
+            } else if (FetchStatus.fetchedFailed.equals(fetchStatus) && retryCount < configs.getSyncMaxRetries()) {
+                retryCount++;
+            } else {
+                return fetchStatus;
+            }
+        }
+    }
+
+    private FetchStatus fetchPage(SyncConfiguration configs, ClientProcessingPipeline processingPipeline,
+                                  BatchSizeController batchSizeController) {
+        try {
             final ECSyncHelper ecSyncUpdater = ECSyncHelper.getInstance(context);
             String baseUrl = CoreLibrary.getInstance().context().
                     configuration().dristhiBaseURL();
@@ -112,65 +172,51 @@ public class SyncIntentService extends IntentService {
             Long lastSyncDatetime = ecSyncUpdater.getLastSyncTimeStamp();
             Log.i(SyncIntentService.class.getName(), "LAST SYNC DT :" + new DateTime(lastSyncDatetime));
 
-            String url = baseUrl + SYNC_URL + "?" + configs.getSyncFilterParam().value() + "=" + configs.getSyncFilterValue() + "&serverVersion=" + lastSyncDatetime + "&limit=" + SyncIntentService.EVENT_PULL_LIMIT;
+            int limit = batchSizeController.getBatchSize();
+            String url = baseUrl + SYNC_URL + "?" + configs.getSyncFilterParam().value() + "=" + configs.getSyncFilterValue() + "&serverVersion=" + lastSyncDatetime + "&limit=" + limit;
             Log.i(SyncIntentService.class.getName(), "URL: " + url);
 
-            if (httpAgent == null) {
-                complete(FetchStatus.fetchedFailed);
-            }
-
-            Response resp = httpAgent.fetch(url);
+            long requestStartedAt = System.currentTimeMillis();
+            Response<SyncPage> resp = httpAgent.fetch(url, ecSyncUpdater.getSyncPageProcessor());
             if (resp.isFailure()) {
-                fetchFailed(count);
+                batchSizeController.onFailure();
+                return FetchStatus.fetchedFailed;
             }
 
-            JSONObject jsonObject = new JSONObject((String) resp.payload());
+            SyncPage syncPage = resp.payload();
+            long transferMillis = syncPage.getTransferMillis();
+            long latencyMillis = Math.max(0, System.currentTimeMillis() - requestStartedAt - transferMillis);
+            batchSizeController.onSuccess(latencyMillis, transferMillis, syncPage.getByteCount());
 
-            int eCount = fetchNumberOfEvents(jsonObject);
+            int eCount = syncPage.getNoOfEvents();
             Log.i(getClass().getName(), "Parse Network Event Count: " + eCount);
 
             if (eCount == 0) {
-                complete(FetchStatus.nothingFetched);
+                return FetchStatus.nothingFetched;
             } else if (eCount < 0) {
-                fetchFailed(count);
-            } else if (eCount > 0) {
-                final Pair<Long, Long> serverVersionPair = getMinMaxServerVersions(jsonObject);
-                long lastServerVersion = serverVersionPair.second - 1;
-                if (eCount < EVENT_PULL_LIMIT) {
-                    lastServerVersion = serverVersionPair.second;
-                }
+                return FetchStatus.fetchedFailed;
+            }
 
-                ecSyncUpdater.saveAllClientsAndEvents(jsonObject);
-                ecSyncUpdater.updateLastSyncTimeStamp(lastServerVersion);
+            final Pair<Long, Long> serverVersionPair = Pair.create(syncPage.getMinServerVersion(), syncPage.getMaxServerVersion());
+            long lastServerVersion = serverVersionPair.second - 1;
+            if (eCount < limit) {
+                lastServerVersion = serverVersionPair.second;
+            }
 
-                processClient(serverVersionPair);
+            ecSyncUpdater.onPagePersisted(serverVersionPair, lastServerVersion);
 
-                fetchRetry(0);
-            }
+            processingPipeline.submit(serverVersionPair);
+
+            return FetchStatus.fetched;
         } catch (Exception e) {
             Log.e(getClass().getName(), "Fetch Retry Exception: " + e.getMessage(), e.getCause());
-            fetchFailed(count);
-        }
-    }
-
-    public void fetchFailed(int count) {
-        if (count < CoreLibrary.getInstance().getSyncConfiguration().getSyncMaxRetries()) {
-            int newCount = count + 1;
-            fetchRetry(newCount);
-        } else {
-            complete(FetchStatus.fetchedFailed);
+            batchSizeController.onFailure();
+            return FetchStatus.fetchedFailed;
         }
     }
 
-    private void processClient(Pair<Long, Long> serverVersionPair) {
-        try {
-            ECSyncHelper ecUpdater = ECSyncHelper.getInstance(context);
-            List<EventClient> events = ecUpdater.allEventClients(serverVersionPair.first - 1, serverVersionPair.second);
-            getClientProcessor().processClient(events);
-            sendSyncStatusBroadcastMessage(FetchStatus.fetched);
-        } catch (Exception e) {
-            Log.e(getClass().getName(), "Process Client Exception: " + e.getMessage(), e.getCause());
-        }
+    private void scheduleClientProcessing() {
+        UnprocessedEventsProcessor.getInstance(context).schedule(getClientProcessor());
     }
 
     // PUSH TO SERVER
@@ -180,11 +226,12 @@ public class SyncIntentService extends IntentService {
 
     private void pushECToServer() {
         EventClientRepository db = CoreLibrary.getInstance().context().getEventClientRepository();
+        BatchSizeController batchSizeController = CoreLibrary.getInstance().getSyncConfiguration().getEventPushBatchSizeController();
         boolean keepSyncing = true;
 
         while (keepSyncing) {
             try {
-                Map<String, Object> pendingEvents = db.getUnSyncedEvents(EVENT_PUSH_LIMIT);
+                Map<String, Object> pendingEvents = db.getUnSyncedEvents(batchSizeController.getBatchSize());
 
                 if (pendingEvents.isEmpty()) {
                     return;
@@ -203,15 +250,26 @@ public class SyncIntentService extends IntentService {
                     request.put(AllConstants.KEY.EVENTS, pendingEvents.get(AllConstants.KEY.EVENTS));
                 }
                 String jsonPayload = request.toString();
-                Response<String> response = httpAgent.post(
-                        MessageFormat.format("{0}/{1}",
-                                baseUrl,
-                                ADD_URL),
-                        jsonPayload);
+                long requestStartedAt = System.currentTimeMillis();
+                Response<String> response;
+                try {
+                    response = httpAgent.post(
+                            MessageFormat.format("{0}/{1}",
+                                    baseUrl,
+                                    ADD_URL),
+                            jsonPayload);
+                } catch (Exception e) {
+                    batchSizeController.onFailure();
+                    Log.e(getClass().getName(), "Events sync failed: " + e.getMessage(), e);
+                    return;
+                }
                 if (response.isFailure()) {
+                    batchSizeController.onFailure();
                     Log.e(getClass().getName(), "Events sync failed.");
                     return;
                 }
+                batchSizeController.onSuccess(System.currentTimeMillis() - requestStartedAt, jsonPayload.getBytes("UTF-8").length);
+                // a local failure from here on says nothing about the batch size the server handles
                 db.markEventsAsSynced(pendingEvents);
                 Log.i(getClass().getName(), "Events synced successfully.");
             } catch (Exception e) {
@@ -239,53 +297,6 @@ public class SyncIntentService extends IntentService {
         ecSyncUpdater.updateLastCheckTimeStamp(new Date().getTime());
     }
 
-    private Pair<Long, Long> getMinMaxServerVersions(JSONObject jsonObject) {
-        final String EVENTS = "events";
-        final String SERVER_VERSION = "serverVersion";
-        try {
-            if (jsonObject != null && jsonObject.has(EVENTS)) {
-                JSONArray events = jsonObject.getJSONArray(EVENTS);
-
-                long maxServerVersion = Long.MIN_VALUE;
-                long minServerVersion = Long.MAX_VALUE;
-
-                for (int i = 0; i < events.length(); i++) {
-                    Object o = events.get(i);
-                    if (o instanceof JSONObject) {
-                        JSONObject jo = (JSONObject) o;
-                        if (jo.has(SERVER_VERSION)) {
-                            long serverVersion = jo.getLong(SERVER_VERSION);
-                            if (serverVersion > maxServerVersion) {
-                                maxServerVersion = serverVersion;
-                            }
-
-                            if (serverVersion < minServerVersion) {
-                                minServerVersion = serverVersion;
-                            }
-                        }
-                    }
-                }
-                return Pair.create(minServerVersion, maxServerVersion);
-            }
-        } catch (Exception e) {
-            Log.e(getClass().getName(), e.getMessage(), e);
-        }
-        return Pair.create(0L, 0L);
-    }
-
-    private int fetchNumberOfEvents(JSONObject jsonObject) {
-        int count = -1;
-        final String NO_OF_EVENTS = "no_of_events";
-        try {
-            if (jsonObject != null && jsonObject.has(NO_OF_EVENTS)) {
-                count = jsonObject.getInt(NO_OF_EVENTS);
-            }
-        } catch (JSONException e) {
-            Log.e(getClass().getName(), e.getMessage(), e);
-        }
-        return count;
-    }
-
     protected ClientProcessorForJava getClientProcessor() {
         return ClientProcessorForJava.getInstance(context);
     }
@@ -4,73 +4,238 @@ import org.smartregister.domain.FetchStatus;
 import org.smartregister.event.CapturedPhotoInformation;
 import org.smartregister.event.Listener;
 
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static java.text.MessageFormat.format;
 import static org.smartregister.domain.FetchStatus.fetched;
 import static org.smartregister.event.Event.ACTION_HANDLED;
-import static org.smartregister.event.Event.FORM_SUBMITTED;
+import static org.smartregister.event.Event.ENTITY_UPDATED;
 import static org.smartregister.event.Event.ON_DATA_FETCHED;
 import static org.smartregister.event.Event.ON_PHOTO_CAPTURED;
 import static org.smartregister.util.Log.logWarn;
 
+/**
+ * Least recently used cache bounded by a total weight, one per entry unless a {@link Weigher}
+ * is given. The least recently used entries are evicted once the weight is exceeded, the most
+ * recently added entry is always kept so that an entry heavier than the bound still caches.
+ * <p>
+ * Entries cached without entities, e.g. whole register lists, are invalidated whenever an entity is
+ * updated, data is fetched, a photo is captured or an action is handled. Entries cached for
+ * entities, e.g. a single register client, are only invalidated when one of those entities is
+ * updated or its photo is captured, or when data is fetched or an action is handled.
+ */
 public class Cache<T> {
-    private final Listener<String> formSubmittedListener;
+    public static final int DEFAULT_MAX_ENTRIES = 100;
+
+    /**
+     * Weighs entries by the number of elements of the collection they hold
+     */
+    public static final Weigher<Collection<?>> COLLECTION_SIZE = new Weigher<Collection<?>>() {
+        @Override
+        public int weigh(String key, Collection<?> value) {
+            return value == null ? 1 : Math.max(1, value.size());
+        }
+    };
+
+    private final Listener<String> entityUpdatedListener;
     private final Listener<FetchStatus> actionsFetchedListener;
     private final Listener<CapturedPhotoInformation> photoCapturedListener;
     private final Listener<String> actionHandledListener;
-    private Map<String, T> value = new HashMap<String, T>();
+
+    private final int maxWeight;
+    private final Weigher<? super T> weigher;
+    private final LinkedHashMap<String, Entry<T>> value = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true);
+    private int weight;
+    private long generation;
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
 
     public Cache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of entries
+     */
+    public Cache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxWeight maximum total weight of the entries
+     * @param weigher   weighs entries, null to count each entry as one
+     */
+    public Cache(int maxWeight, Weigher<? super T> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
         actionsFetchedListener = new Listener<FetchStatus>() {
             @Override
             public void onEvent(FetchStatus data) {
                 if (fetched.equals(data)) {
                     logWarn("List cache invalidated as new data was fetched from server.");
-                    value.clear();
+                    invalidateAll();
                 }
             }
         };
-        formSubmittedListener = new Listener<String>() {
+        entityUpdatedListener = new Listener<String>() {
             @Override
-            public void onEvent(String reason) {
-                logWarn(format("List cache invalidated: {0}.", reason));
-                value.clear();
+            public void onEvent(String entityId) {
+                logWarn(format("List cache invalidated as entity updated: {0}.", entityId));
+                invalidateEntity(entityId);
             }
         };
         photoCapturedListener = new Listener<CapturedPhotoInformation>() {
             @Override
             public void onEvent(CapturedPhotoInformation data) {
-                value.clear();
+                invalidateEntity(data == null ? null : data.entityId());
             }
         };
         actionHandledListener = new Listener<String>() {
             @Override
             public void onEvent(String data) {
                 logWarn(format("List cache invalidated as Action handled: {0}", data));
-                value.clear();
+                invalidateAll();
             }
         };
         ON_DATA_FETCHED.addListener(actionsFetchedListener);
-        FORM_SUBMITTED.addListener(formSubmittedListener);
+        ENTITY_UPDATED.addListener(entityUpdatedListener);
         ON_PHOTO_CAPTURED.addListener(photoCapturedListener);
         ACTION_HANDLED.addListener(actionHandledListener);
     }
 
+    /**
+     * Returns the cached value of the key, fetching and caching it if there is none
+     */
     public T get(String key, CacheableData<T> cacheableData) {
-        if (value.get(key) != null) {
-            return value.get(key);
+        return get(key, Collections.<String>emptySet(), cacheableData);
+    }
+
+    /**
+     * Returns the cached value of the key, fetching and caching it if there is none. The value is
+     * kept until one of the entities is updated instead of being invalidated on every update.
+     *
+     * @param entityIds entities the value is built from, read after the fetch so that the fetch
+     *                  may add the related entities it read, e.g. the mother of a couple
+     */
+    public T get(String key, Collection<String> entityIds, CacheableData<T> cacheableData) {
+        long fetchGeneration;
+        synchronized (this) {
+            Entry<T> entry = value.get(key);
+            if (entry != null && entry.value != null) {
+                hitCount++;
+                return entry.value;
+            }
+            missCount++;
+            fetchGeneration = generation;
         }
+
         T fetchedData = cacheableData.fetch();
-        value.put(key, fetchedData);
+        synchronized (this) {
+            // an invalidation during the fetch may have been missed by the fetched value
+            if (fetchGeneration == generation) {
+                put(key, new HashSet<String>(entityIds), fetchedData);
+            }
+        }
         return fetchedData;
     }
 
-    public void evict(String key) {
-        if (value.get(key) != null) {
-            value.remove(key);
+    private synchronized void put(String key, Set<String> entityIds, T data) {
+        int entryWeight = weigher == null ? 1 : weigher.weigh(key, data);
+        Entry<T> previous = value.put(key, new Entry<T>(data, entityIds, entryWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += entryWeight;
+
+        Iterator<Map.Entry<String, Entry<T>>> iterator = value.entrySet().iterator();
+        while (weight > maxWeight && value.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, Entry<T>> eldest = iterator.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            weight -= eldest.getValue().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    public synchronized void evict(String key) {
+        generation++;
+        Entry<T> entry = value.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
         }
     }
-}
 
+    /**
+     * Removes the entries cached without entities and the entries cached for the entity
+     */
+    public synchronized void invalidateEntity(String entityId) {
+        generation++;
+        Iterator<Entry<T>> iterator = value.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (entry.entityIds.isEmpty() || entry.entityIds.contains(entityId)) {
+                weight -= entry.weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        value.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return value.size();
+    }
+
+    public synchronized int weight() {
+        return weight;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return format("Cache[size={0}, weight={1}/{2}, hits={3}, misses={4}, evictions={5}]",
+                value.size(), weight, maxWeight, hitCount, missCount, evictionCount);
+    }
+
+    public interface Weigher<T> {
+        int weigh(String key, T value);
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final Set<String> entityIds;
+        private final int weight;
+
+        private Entry(T value, Set<String> entityIds, int weight) {
+            this.value = value;
+            this.entityIds = entityIds;
+            this.weight = weight;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.smartregister.CoreLibrary;
 import org.smartregister.commonregistry.CommonFtsObject;
 import org.smartregister.commonregistry.CommonRepositoryInformationHolder;
+import org.smartregister.domain.db.Column;
 import org.smartregister.repository.EventClientRepository;
 
 import java.util.ArrayList;
@@ -40,8 +41,7 @@ public class DatabaseMigrationUtils {
         return false;
     }
 
-    public static void addFieldsToFTSTable(SQLiteDatabase database, CommonFtsObject commonFtsObject, String originalTableName, List<String> newlyAddedFields) {
-
+    private static Set<String> getSearchColumns(CommonFtsObject commonFtsObject, String originalTableName) {
         Set<String> searchColumns = new LinkedHashSet<>();
         searchColumns.add(CommonFtsObject.idColumn);
         searchColumns.add(CommonFtsObject.relationalIdColumn);
@@ -64,17 +64,14 @@ public class DatabaseMigrationUtils {
                 searchColumns.add(sortValue);
             }
         }
+        return searchColumns;
+    }
 
-        String joinedSearchColumns = StringUtils.join(searchColumns, ",");
-
-        String searchSql = "create virtual table "
-                + CommonFtsObject.searchTableName(originalTableName) + TABLE_PREFIX
-                + " using fts4 (" + joinedSearchColumns + ");";
-        Log.d(TAG, "Create query is\n---------------------------\n" + searchSql);
-
-        database.execSQL(searchSql);
-
-        ArrayList<String> oldFields = new ArrayList<>();
+    /**
+     * @return the search columns the old search table already has
+     */
+    private static List<String> getOldSearchFields(Set<String> searchColumns, List<String> newlyAddedFields) {
+        List<String> oldFields = new ArrayList<>();
 
         for (String curColumn : searchColumns) {
             curColumn = curColumn.trim();
@@ -89,6 +86,28 @@ public class DatabaseMigrationUtils {
                 Log.d(TAG, "Skipping field " + curColumn + " from the select query");
             }
         }
+        return oldFields;
+    }
+
+    private static void createFTSTable(SQLiteDatabase database, String tableName, Set<String> searchColumns) {
+        String searchSql = "create virtual table "
+                + tableName
+                + " using fts4 (" + StringUtils.join(searchColumns, ",") + ");";
+        Log.d(TAG, "Create query is\n---------------------------\n" + searchSql);
+
+        database.execSQL(searchSql);
+    }
+
+    /**
+     * Adds fields to the search table by copying it into a new table with the fields. Copies the
+     * whole table in the upgrade, {@link #addFieldsToFTSTableInBackground} does not.
+     */
+    public static void addFieldsToFTSTable(SQLiteDatabase database, CommonFtsObject commonFtsObject, String originalTableName, List<String> newlyAddedFields) {
+
+        Set<String> searchColumns = getSearchColumns(commonFtsObject, originalTableName);
+        createFTSTable(database, CommonFtsObject.searchTableName(originalTableName) + TABLE_PREFIX, searchColumns);
+
+        List<String> oldFields = getOldSearchFields(searchColumns, newlyAddedFields);
 
         String insertQuery = "insert into "
                 + CommonFtsObject.searchTableName(originalTableName) + TABLE_PREFIX
@@ -114,6 +133,11 @@ public class DatabaseMigrationUtils {
     }
 
 
+    /**
+     * Copies the table into a new table with only the columns the table declares. Copies the
+     * whole table in the upgrade, {@link #recreateSyncTableWithExistingColumnsOnlyInBackground}
+     * does not.
+     */
     public static void recreateSyncTableWithExistingColumnsOnly(SQLiteDatabase database, EventClientRepository.Table table) {
         database.beginTransaction();
         //rename original table
@@ -140,6 +164,74 @@ public class DatabaseMigrationUtils {
     }
 
 
+    /**
+     * Schedules {@link #recreateSyncTableWithExistingColumnsOnly} as a background migration. Only
+     * the empty replacement table and the triggers that keep it up to date are created in the
+     * upgrade, the rows are copied by {@link #runPendingMigrations(SQLiteDatabase, int)}. The table
+     * is read and written as before until the copy completes.
+     *
+     * @return the name of the migration, to check with {@link #isMigrationPending(SQLiteDatabase, String)}
+     */
+    public static String recreateSyncTableWithExistingColumnsOnlyInBackground(SQLiteDatabase database, EventClientRepository.Table table) {
+        String name = "recreate_" + table.name();
+        if (!TableCopyMigration.isPending(database, name)) {
+            List<String> columns = new ArrayList<>();
+            String createColumns = "";
+            for (Column column : table.columns()) {
+                columns.add(column.name());
+                createColumns += EventClientRepository.getCreateTableColumn(column) + ",";
+            }
+            database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PREFIX + table.name()
+                    + " ( " + EventClientRepository.removeEndingComma(createColumns) + " )");
+            new TableCopyMigration(name, table.name(), TABLE_PREFIX + table.name(), columns, null).schedule(database);
+        }
+        return name;
+    }
+
+    /**
+     * Schedules {@link #addFieldsToFTSTable} as a background migration. Searches keep using the
+     * current search table, without the new fields, until the copy completes. The search rows of
+     * register rows written during the copy are rebuilt when it completes.
+     *
+     * @return the name of the migration, to check with {@link #isMigrationPending(SQLiteDatabase, String)}
+     */
+    public static String addFieldsToFTSTableInBackground(SQLiteDatabase database, CommonFtsObject commonFtsObject, String originalTableName, List<String> newlyAddedFields) {
+        String name = "fts_" + originalTableName;
+        if (!TableCopyMigration.isPending(database, name)) {
+            Set<String> searchColumns = getSearchColumns(commonFtsObject, originalTableName);
+            String searchTableName = CommonFtsObject.searchTableName(originalTableName);
+            createFTSTable(database, searchTableName + TABLE_PREFIX, searchColumns);
+            new TableCopyMigration(name, searchTableName, searchTableName + TABLE_PREFIX,
+                    getOldSearchFields(searchColumns, newlyAddedFields), originalTableName).schedule(database);
+        }
+        return name;
+    }
+
+    /**
+     * Runs the scheduled migrations a chunk at a time until they complete
+     *
+     * @param chunkSize rows copied per transaction
+     */
+    public static void runPendingMigrations(SQLiteDatabase database, int chunkSize) {
+        for (TableCopyMigration migration : TableCopyMigration.getPendingMigrations(database)) {
+            // a migration interrupted after the swap only has its search rows left to rebuild
+            if (!migration.isSwapped(database)) {
+                while (migration.migrateChunk(database, chunkSize) > 0) {
+                    Log.d(TAG, "Migration " + migration.getName() + " copied rows up to " + migration.getLastRowId());
+                }
+            }
+            migration.complete(database);
+        }
+    }
+
+    /**
+     * @return true while a migration scheduled with the name has not completed, reads that depend
+     * on the migrated layout should use the previous one until then
+     */
+    public static boolean isMigrationPending(SQLiteDatabase database, String name) {
+        return TableCopyMigration.isPending(database, name);
+    }
+
     private static boolean tableExists(SQLiteDatabase database, String tableName) {
         Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type='table' AND name= ?", new String[]{tableName});
         boolean exists = false;
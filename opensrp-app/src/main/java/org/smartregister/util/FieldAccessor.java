@@ -0,0 +1,108 @@
+package org.smartregister.util;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads a named field of a class or of one of its superclasses through a {@link Field} handle
+ * that is looked up and made accessible once per class and field name. Missing fields are cached
+ * too so that repeated lookups do not walk the class hierarchy again.
+ */
+public class FieldAccessor {
+
+    private static final FieldAccessor MISSING = new FieldAccessor(null);
+
+    private static final ConcurrentMap<Class, ConcurrentMap<String, FieldAccessor>> accessors = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<Class, List<FieldAccessor>> allAccessors = new ConcurrentHashMap<>();
+
+    private final Field field;
+
+    private FieldAccessor(Field field) {
+        this.field = field;
+    }
+
+    /**
+     * @param clazz     class to read from
+     * @param fieldName name of the field
+     * @return the accessor, reading null if the class has no such field
+     */
+    public static FieldAccessor of(Class clazz, String fieldName) {
+        ConcurrentMap<String, FieldAccessor> classAccessors = accessors.get(clazz);
+        if (classAccessors == null) {
+            classAccessors = new ConcurrentHashMap<>();
+            ConcurrentMap<String, FieldAccessor> existing = accessors.putIfAbsent(clazz, classAccessors);
+            if (existing != null) {
+                classAccessors = existing;
+            }
+        }
+
+        FieldAccessor accessor = classAccessors.get(fieldName);
+        if (accessor == null) {
+            Field field = findField(clazz, fieldName);
+            if (field == null) {
+                accessor = MISSING;
+            } else {
+                field.setAccessible(true);
+                accessor = new FieldAccessor(field);
+            }
+            classAccessors.put(fieldName, accessor);
+        }
+        return accessor;
+    }
+
+    /**
+     * @param clazz class to read from
+     * @return accessors for all the fields declared by the class and its superclasses
+     */
+    public static List<FieldAccessor> allOf(Class clazz) {
+        List<FieldAccessor> classAccessors = allAccessors.get(clazz);
+        if (classAccessors == null) {
+            List<FieldAccessor> list = new ArrayList<>();
+            Class current = clazz;
+            while (current != null) {
+                for (Field field : current.getDeclaredFields()) {
+                    // a superclass field hidden by a subclass field of the same name is read as declared
+                    field.setAccessible(true);
+                    list.add(new FieldAccessor(field));
+                }
+                current = current.getSuperclass();
+            }
+            classAccessors = Collections.unmodifiableList(list);
+            allAccessors.put(clazz, classAccessors);
+        }
+        return classAccessors;
+    }
+
+    public String getName() {
+        return field == null ? null : field.getName();
+    }
+
+    public Object get(Object instance) {
+        if (field == null || instance == null) {
+            return null;
+        }
+        try {
+            return field.get(instance);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static Field findField(Class clazz, String fieldName) {
+        Class current = clazz;
+        while (current != null) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.getName().equals(fieldName)) {
+                    return field;
+                }
+            }
+            current = current.getSuperclass();
+        }
+        return null;
+    }
+}
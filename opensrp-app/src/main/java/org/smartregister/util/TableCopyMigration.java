@@ -0,0 +1,380 @@
+package org.smartregister.util;
+
+import android.content.ContentValues;
+import android.util.Log;
+
+import net.sqlcipher.Cursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.apache.commons.lang3.StringUtils;
+import org.smartregister.CoreLibrary;
+import org.smartregister.commonregistry.AllCommonsRepository;
+import org.smartregister.commonregistry.CommonFtsObject;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.repository.EventClientRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Copies the rows of a table into a replacement table a chunk at a time and swaps the
+ * replacement in once every row has been copied. Progress is saved with each chunk, so the copy
+ * can run in the background and resume after the app is killed.
+ * <p>
+ * The source table stays in place and is read and written as usual until the swap. Writes to it
+ * reach the replacement either through triggers that mirror them, or, for FTS search tables which
+ * cannot have triggers, by rebuilding the search rows of the register rows written during the copy
+ * and deleting those of the register rows deleted during the copy.
+ */
+public class TableCopyMigration {
+
+    private static final String TAG = TableCopyMigration.class.getCanonicalName();
+
+    public static final String PROGRESS_TABLE = "background_migration";
+    public static final String CHANGED_ROWS_TABLE = "background_migration_row";
+
+    private static final String NAME = "name";
+    private static final String SOURCE_TABLE = "source_table";
+    private static final String TARGET_TABLE = "target_table";
+    private static final String COPY_COLUMNS = "copy_columns";
+    private static final String REGISTER_TABLE = "register_table";
+    private static final String LAST_ROW_ID = "last_row_id";
+    private static final String COMPLETED = "completed";
+    private static final String MIGRATION = "migration";
+    private static final String ROW_ID = "row_id";
+    private static final int MAX_QUERY_PARAMS = 500;
+
+    private static final String CREATE_PROGRESS_TABLE = "CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " ("
+            + NAME + " VARCHAR PRIMARY KEY, "
+            + SOURCE_TABLE + " VARCHAR NOT NULL, "
+            + TARGET_TABLE + " VARCHAR NOT NULL, "
+            + COPY_COLUMNS + " VARCHAR NOT NULL, "
+            + REGISTER_TABLE + " VARCHAR, "
+            + LAST_ROW_ID + " INTEGER NOT NULL DEFAULT 0, "
+            + COMPLETED + " INTEGER NOT NULL DEFAULT 0)";
+
+    private static final String CREATE_CHANGED_ROWS_TABLE = "CREATE TABLE IF NOT EXISTS " + CHANGED_ROWS_TABLE + " ("
+            + MIGRATION + " VARCHAR NOT NULL, "
+            + ROW_ID + " VARCHAR NOT NULL, "
+            + "PRIMARY KEY (" + MIGRATION + ", " + ROW_ID + "))";
+
+    private final String name;
+    private final String sourceTable;
+    private final String targetTable;
+    private final List<String> columns;
+    private final String registerTable;
+    private long lastRowId;
+    private boolean completed;
+
+    /**
+     * @param name          unique name of the migration, also used to name its triggers
+     * @param sourceTable   table whose rows are copied and which is replaced when done
+     * @param targetTable   replacement table, created by the caller before scheduling
+     * @param columns       columns copied from the source to the replacement
+     * @param registerTable register table the source search table indexes, null if the source
+     *                      is not an FTS search table
+     */
+    public TableCopyMigration(String name, String sourceTable, String targetTable, List<String> columns, String registerTable) {
+        this.name = name;
+        this.sourceTable = sourceTable;
+        this.targetTable = targetTable;
+        this.columns = columns;
+        this.registerTable = registerTable;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastRowId() {
+        return lastRowId;
+    }
+
+    public static void createTables(SQLiteDatabase database) {
+        database.execSQL(CREATE_PROGRESS_TABLE);
+        database.execSQL(CREATE_CHANGED_ROWS_TABLE);
+    }
+
+    /**
+     * Records the migration and creates the triggers that keep the replacement up to date. This
+     * is quick enough to run in {@link org.smartregister.repository.Repository#onUpgrade}, the
+     * rows are copied later by {@link #migrateChunk(SQLiteDatabase, int)}. A pending migration
+     * with the same name is left as it is, a completed one is replaced.
+     *
+     * @return false if a migration with this name is already pending
+     */
+    public boolean schedule(SQLiteDatabase database) {
+        createTables(database);
+        if (isPending(database, name)) {
+            return false;
+        }
+        database.delete(PROGRESS_TABLE, NAME + " = ?", new String[]{name});
+
+        ContentValues values = new ContentValues();
+        values.put(NAME, name);
+        values.put(SOURCE_TABLE, sourceTable);
+        values.put(TARGET_TABLE, targetTable);
+        values.put(COPY_COLUMNS, StringUtils.join(columns, ","));
+        values.put(REGISTER_TABLE, registerTable);
+        database.insert(PROGRESS_TABLE, null, values);
+
+        if (registerTable == null) {
+            createMirrorTriggers(database);
+        } else {
+            createChangedRowTriggers(database);
+        }
+        return true;
+    }
+
+    private void createMirrorTriggers(SQLiteDatabase database) {
+        String joinedColumns = StringUtils.join(columns, ", ");
+        String newValues = "NEW." + StringUtils.join(columns, ", NEW.");
+        String mirrorInsert = "INSERT OR REPLACE INTO " + targetTable + " (rowid, " + joinedColumns + ")"
+                + " VALUES (NEW.rowid, " + newValues + "); ";
+        String mirrorDelete = "DELETE FROM " + targetTable + " WHERE rowid = OLD.rowid; ";
+
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_insert AFTER INSERT ON " + sourceTable
+                + " BEGIN " + mirrorInsert + "END");
+        // an update may move the row to a new rowid
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_update AFTER UPDATE ON " + sourceTable
+                + " BEGIN " + mirrorDelete + mirrorInsert + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_delete AFTER DELETE ON " + sourceTable
+                + " BEGIN " + mirrorDelete + "END");
+    }
+
+    private void createChangedRowTriggers(SQLiteDatabase database) {
+        String recordRow = "INSERT OR IGNORE INTO " + CHANGED_ROWS_TABLE + " (" + MIGRATION + ", " + ROW_ID + ")"
+                + " VALUES ('" + name + "', %s." + CommonRepository.ID_COLUMN + "); ";
+        String recordNewRow = String.format(recordRow, "NEW");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_insert AFTER INSERT ON " + registerTable
+                + " BEGIN " + recordNewRow + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_update AFTER UPDATE ON " + registerTable
+                + " BEGIN " + recordNewRow + String.format(recordRow, "OLD") + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS " + name + "_delete AFTER DELETE ON " + registerTable
+                + " BEGIN " + String.format(recordRow, "OLD") + "END");
+    }
+
+    private void dropTriggers(SQLiteDatabase database) {
+        database.execSQL("DROP TRIGGER IF EXISTS " + name + "_insert");
+        database.execSQL("DROP TRIGGER IF EXISTS " + name + "_update");
+        database.execSQL("DROP TRIGGER IF EXISTS " + name + "_delete");
+    }
+
+    /**
+     * Copies the next rows of the source table and saves the progress in the same transaction
+     *
+     * @param limit maximum number of rows to copy
+     * @return number of rows looked at, 0 once every row has been copied
+     */
+    public int migrateChunk(SQLiteDatabase database, int limit) {
+        long fromRowId = lastRowId;
+        long toRowId;
+        int count;
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT max(rowid), count(*) FROM (SELECT rowid FROM " + sourceTable
+                    + " WHERE rowid > ? ORDER BY rowid LIMIT " + limit + ")", new String[]{String.valueOf(fromRowId)});
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return 0;
+            }
+            toRowId = cursor.getLong(0);
+            count = cursor.getInt(1);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        String joinedColumns = StringUtils.join(columns, ", ");
+        database.beginTransaction();
+        try {
+            // rows the triggers already mirrored are newer than the source rows read here
+            database.execSQL("INSERT " + (registerTable == null ? "OR IGNORE " : "") + "INTO " + targetTable
+                            + " (rowid, " + joinedColumns + ") SELECT rowid, " + joinedColumns + " FROM " + sourceTable
+                            + " WHERE rowid > ? AND rowid <= ?",
+                    new Object[]{fromRowId, toRowId});
+            ContentValues values = new ContentValues();
+            values.put(LAST_ROW_ID, toRowId);
+            database.update(PROGRESS_TABLE, values, NAME + " = ?", new String[]{name});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        lastRowId = toRowId;
+        return count;
+    }
+
+    /**
+     * Replaces the source table with the copy and, for search tables, rebuilds the search rows of
+     * the register rows written during the copy. Call once {@link #migrateChunk(SQLiteDatabase, int)}
+     * returns 0. The migration is only marked completed after the rebuild, so a migration
+     * interrupted after the swap is finished by calling this again.
+     */
+    public void complete(SQLiteDatabase database) {
+        if (!isSwapped(database)) {
+            database.beginTransaction();
+            try {
+                dropTriggers(database);
+                database.execSQL("DROP TABLE " + sourceTable);
+                database.execSQL("ALTER TABLE " + targetTable + " RENAME TO " + sourceTable);
+                EventClientRepository.Table syncTable = getSyncTable(sourceTable);
+                if (syncTable != null) {
+                    EventClientRepository.createIndex(database, syncTable, syncTable.columns());
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        }
+
+        if (registerTable != null) {
+            rebuildChangedSearchRows(database);
+        }
+
+        database.beginTransaction();
+        try {
+            database.delete(CHANGED_ROWS_TABLE, MIGRATION + " = ?", new String[]{name});
+            ContentValues values = new ContentValues();
+            values.put(COMPLETED, 1);
+            database.update(PROGRESS_TABLE, values, NAME + " = ?", new String[]{name});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        completed = true;
+        Log.i(TAG, "Completed migration " + name);
+    }
+
+    /**
+     * @return true once the copy has replaced the source table, no rows are left to copy then
+     */
+    public boolean isSwapped(SQLiteDatabase database) {
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?", new String[]{targetTable});
+            return cursor != null && !cursor.moveToFirst();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private void rebuildChangedSearchRows(SQLiteDatabase database) {
+        List<String> rowIds = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("SELECT " + ROW_ID + " FROM " + CHANGED_ROWS_TABLE + " WHERE " + MIGRATION + " = ?", new String[]{name});
+            while (cursor.moveToNext()) {
+                rowIds.add(cursor.getString(0));
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        rowIds.removeAll(deleteRemovedSearchRows(database, rowIds));
+        if (!rowIds.isEmpty()) {
+            AllCommonsRepository allCommonsRepository = CoreLibrary.getInstance().context().allCommonsRepositoryobjects(registerTable);
+            if (allCommonsRepository != null) {
+                allCommonsRepository.updateSearch(rowIds);
+            }
+        }
+    }
+
+    /**
+     * Deletes the search rows of the register rows deleted during the copy, the copy may have
+     * read them before they were deleted
+     *
+     * @return ids of the deleted register rows
+     */
+    private List<String> deleteRemovedSearchRows(SQLiteDatabase database, List<String> rowIds) {
+        List<String> removedIds = new ArrayList<>();
+        for (int from = 0; from < rowIds.size(); from += MAX_QUERY_PARAMS) {
+            List<String> chunk = rowIds.subList(from, Math.min(from + MAX_QUERY_PARAMS, rowIds.size()));
+            String placeholders = StringUtils.repeat("?", ", ", chunk.size());
+            List<String> remaining = new ArrayList<>(chunk);
+            Cursor cursor = null;
+            try {
+                cursor = database.rawQuery("SELECT " + CommonRepository.ID_COLUMN + " FROM " + registerTable
+                        + " WHERE " + CommonRepository.ID_COLUMN + " IN (" + placeholders + ")", chunk.toArray(new String[0]));
+                while (cursor.moveToNext()) {
+                    remaining.remove(cursor.getString(0));
+                }
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+
+            if (!remaining.isEmpty()) {
+                database.delete(sourceTable, CommonFtsObject.idColumn + " IN (" + StringUtils.repeat("?", ", ", remaining.size()) + ")",
+                        remaining.toArray(new String[0]));
+                removedIds.addAll(remaining);
+            }
+        }
+        return removedIds;
+    }
+
+    private static EventClientRepository.Table getSyncTable(String tableName) {
+        for (EventClientRepository.Table table : EventClientRepository.Table.values()) {
+            if (table.name().equals(tableName)) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the migration with the name, null if it was never scheduled
+     */
+    public static TableCopyMigration load(SQLiteDatabase database, String name) {
+        createTables(database);
+        List<TableCopyMigration> migrations = query(database, NAME + " = ?", new String[]{name});
+        return migrations.isEmpty() ? null : migrations.get(0);
+    }
+
+    /**
+     * @return migrations that have been scheduled and not completed, in the order they were scheduled
+     */
+    public static List<TableCopyMigration> getPendingMigrations(SQLiteDatabase database) {
+        createTables(database);
+        return query(database, COMPLETED + " = 0", null);
+    }
+
+    /**
+     * Tells whether reads should still use the layout from before the migration, e.g. not filter
+     * on a search column the migration adds
+     *
+     * @return true if the migration is scheduled and has not completed yet
+     */
+    public static boolean isPending(SQLiteDatabase database, String name) {
+        TableCopyMigration migration = load(database, name);
+        return migration != null && !migration.completed;
+    }
+
+    private static List<TableCopyMigration> query(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        List<TableCopyMigration> migrations = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.query(PROGRESS_TABLE, new String[]{NAME, SOURCE_TABLE, TARGET_TABLE, COPY_COLUMNS, REGISTER_TABLE, LAST_ROW_ID, COMPLETED},
+                    selection, selectionArgs, null, null, "rowid");
+            while (cursor.moveToNext()) {
+                TableCopyMigration migration = new TableCopyMigration(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                        Arrays.asList(cursor.getString(3).split(",")), cursor.getString(4));
+                migration.lastRowId = cursor.getLong(5);
+                migration.completed = cursor.getInt(6) == 1;
+                migrations.add(migration);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to read migrations", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return migrations;
+    }
+}
@@ -140,7 +140,8 @@ public class NativeECSmartRegisterActivity extends SecuredNativeSmartRegisterAct
     @Override
     protected void onInitialization() {
         controller = new ECSmartRegisterController(context().allEligibleCouples(),
-                context().allBeneficiaries(), context().listCache(), context().ecClientsCache());
+                context().allBeneficiaries(), context().listCache(), context().ecClientsCache(),
+                context().ecClientCache());
         villageController = new VillageController(context().allEligibleCouples(),
                 context().listCache(), context().villagesCache());
         dialogOptionMapper = new DialogOptionMapper();
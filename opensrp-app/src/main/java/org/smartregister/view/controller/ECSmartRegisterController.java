@@ -22,7 +22,9 @@ import org.smartregister.view.contract.SmartRegisterClient;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static java.util.Collections.sort;
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -62,13 +64,26 @@ public class ECSmartRegisterController {
     private final AllBeneficiaries allBeneficiaries;
     private final Cache<String> cache;
     private final Cache<ECClients> ecClientsCache;
+    private final Cache<ECClient> ecClientCache;
 
     public ECSmartRegisterController(AllEligibleCouples allEligibleCouples, AllBeneficiaries
             allBeneficiaries, Cache<String> cache, Cache<ECClients> ecClientsCache) {
+        this(allEligibleCouples, allBeneficiaries, cache, ecClientsCache, new Cache<ECClient>());
+    }
+
+    /**
+     * @param ecClientCache caches each client by the couple, mother and children it is built
+     *                      from, so that a list rebuilt after an update only rebuilds the clients
+     *                      of the updated entities
+     */
+    public ECSmartRegisterController(AllEligibleCouples allEligibleCouples, AllBeneficiaries
+            allBeneficiaries, Cache<String> cache, Cache<ECClients> ecClientsCache,
+                                     Cache<ECClient> ecClientCache) {
         this.allEligibleCouples = allEligibleCouples;
         this.allBeneficiaries = allBeneficiaries;
         this.cache = cache;
         this.ecClientsCache = ecClientsCache;
+        this.ecClientCache = ecClientCache;
     }
 
     public String get() {
@@ -79,33 +94,7 @@ public class ECSmartRegisterController {
                 List<ECClient> ecClients = new ArrayList<ECClient>();
 
                 for (EligibleCouple ec : ecs) {
-                    String photoPath =
-                            isBlank(ec.photoPath()) ? DEFAULT_WOMAN_IMAGE_PLACEHOLDER_PATH
-                                    : ec.photoPath();
-                    ECClient ecClient = new ECClient(ec.caseId(), ec.wifeName(), ec.husbandName(),
-                            ec.village(), IntegerUtil.tryParse(ec.ecNumber(), 0))
-                            .withDateOfBirth(ec.getDetail(WOMAN_DOB))
-                            .withFPMethod(ec.getDetail(CURRENT_FP_METHOD))
-                            .withFamilyPlanningMethodChangeDate(
-                                    ec.getDetail(FAMILY_PLANNING_METHOD_CHANGE_DATE))
-                            .withIUDPlace(ec.getDetail(IUD_PLACE))
-                            .withIUDPerson(ec.getDetail(IUD_PERSON))
-                            .withNumberOfCondomsSupplied(ec.getDetail(NUMBER_OF_CONDOMS_SUPPLIED))
-                            .withNumberOfCentchromanPillsDelivered(
-                                    ec.getDetail(NUMBER_OF_CENTCHROMAN_PILLS_DELIVERED))
-                            .withNumberOfOCPDelivered(ec.getDetail(NUMBER_OF_OCP_DELIVERED))
-                            .withCaste(ec.getDetail(CASTE))
-                            .withEconomicStatus(ec.getDetail(ECONOMIC_STATUS))
-                            .withNumberOfPregnancies(ec.getDetail(NUMBER_OF_PREGNANCIES))
-                            .withParity(ec.getDetail(PARITY))
-                            .withNumberOfLivingChildren(ec.getDetail(NUMBER_OF_LIVING_CHILDREN))
-                            .withNumberOfStillBirths(ec.getDetail(NUMBER_OF_STILL_BIRTHS))
-                            .withNumberOfAbortions(ec.getDetail(NUMBER_OF_ABORTIONS))
-                            .withIsHighPriority(ec.isHighPriority()).withPhotoPath(photoPath)
-                            .withHighPriorityReason(ec.getDetail(HIGH_PRIORITY_REASON))
-                            .withIsOutOfArea(ec.isOutOfArea());
-                    updateStatusInformation(ec, ecClient);
-                    updateChildrenInformation(ecClient);
+                    ECClient ecClient = ecClient(ec);
                     ecClients.add(ecClient);
                 }
                 sortByName(ecClients);
@@ -123,33 +112,7 @@ public class ECSmartRegisterController {
                 ECClients ecClients = new ECClients();
 
                 for (EligibleCouple ec : ecs) {
-                    String photoPath =
-                            isBlank(ec.photoPath()) ? DEFAULT_WOMAN_IMAGE_PLACEHOLDER_PATH
-                                    : ec.photoPath();
-                    ECClient ecClient = new ECClient(ec.caseId(), ec.wifeName(), ec.husbandName(),
-                            ec.village(), IntegerUtil.tryParse(ec.ecNumber(), 0))
-                            .withDateOfBirth(ec.getDetail(WOMAN_DOB))
-                            .withFPMethod(ec.getDetail(CURRENT_FP_METHOD))
-                            .withFamilyPlanningMethodChangeDate(
-                                    ec.getDetail(FAMILY_PLANNING_METHOD_CHANGE_DATE))
-                            .withIUDPlace(ec.getDetail(IUD_PLACE))
-                            .withIUDPerson(ec.getDetail(IUD_PERSON))
-                            .withNumberOfCondomsSupplied(ec.getDetail(NUMBER_OF_CONDOMS_SUPPLIED))
-                            .withNumberOfCentchromanPillsDelivered(
-                                    ec.getDetail(NUMBER_OF_CENTCHROMAN_PILLS_DELIVERED))
-                            .withNumberOfOCPDelivered(ec.getDetail(NUMBER_OF_OCP_DELIVERED))
-                            .withCaste(ec.getDetail(CASTE))
-                            .withEconomicStatus(ec.getDetail(ECONOMIC_STATUS))
-                            .withNumberOfPregnancies(ec.getDetail(NUMBER_OF_PREGNANCIES))
-                            .withParity(ec.getDetail(PARITY))
-                            .withNumberOfLivingChildren(ec.getDetail(NUMBER_OF_LIVING_CHILDREN))
-                            .withNumberOfStillBirths(ec.getDetail(NUMBER_OF_STILL_BIRTHS))
-                            .withNumberOfAbortions(ec.getDetail(NUMBER_OF_ABORTIONS))
-                            .withIsHighPriority(ec.isHighPriority()).withPhotoPath(photoPath)
-                            .withHighPriorityReason(ec.getDetail(HIGH_PRIORITY_REASON))
-                            .withIsOutOfArea(ec.isOutOfArea());
-                    updateStatusInformation(ec, ecClient);
-                    updateChildrenInformation(ecClient);
+                    ECClient ecClient = ecClient(ec);
                     ecClients.add(ecClient);
                 }
                 sortByName(ecClients);
@@ -158,11 +121,52 @@ public class ECSmartRegisterController {
         });
     }
 
-    private void updateChildrenInformation(ECClient ecClient) {
+    private ECClient ecClient(final EligibleCouple ec) {
+        final Set<String> entityIds = new HashSet<String>();
+        entityIds.add(ec.caseId());
+        return ecClientCache.get(ec.caseId(), entityIds, new CacheableData<ECClient>() {
+            @Override
+            public ECClient fetch() {
+                String photoPath =
+                        isBlank(ec.photoPath()) ? DEFAULT_WOMAN_IMAGE_PLACEHOLDER_PATH
+                                : ec.photoPath();
+                ECClient ecClient = new ECClient(ec.caseId(), ec.wifeName(), ec.husbandName(),
+                        ec.village(), IntegerUtil.tryParse(ec.ecNumber(), 0))
+                        .withDateOfBirth(ec.getDetail(WOMAN_DOB))
+                        .withFPMethod(ec.getDetail(CURRENT_FP_METHOD))
+                        .withFamilyPlanningMethodChangeDate(
+                                ec.getDetail(FAMILY_PLANNING_METHOD_CHANGE_DATE))
+                        .withIUDPlace(ec.getDetail(IUD_PLACE))
+                        .withIUDPerson(ec.getDetail(IUD_PERSON))
+                        .withNumberOfCondomsSupplied(ec.getDetail(NUMBER_OF_CONDOMS_SUPPLIED))
+                        .withNumberOfCentchromanPillsDelivered(
+                                ec.getDetail(NUMBER_OF_CENTCHROMAN_PILLS_DELIVERED))
+                        .withNumberOfOCPDelivered(ec.getDetail(NUMBER_OF_OCP_DELIVERED))
+                        .withCaste(ec.getDetail(CASTE))
+                        .withEconomicStatus(ec.getDetail(ECONOMIC_STATUS))
+                        .withNumberOfPregnancies(ec.getDetail(NUMBER_OF_PREGNANCIES))
+                        .withParity(ec.getDetail(PARITY))
+                        .withNumberOfLivingChildren(ec.getDetail(NUMBER_OF_LIVING_CHILDREN))
+                        .withNumberOfStillBirths(ec.getDetail(NUMBER_OF_STILL_BIRTHS))
+                        .withNumberOfAbortions(ec.getDetail(NUMBER_OF_ABORTIONS))
+                        .withIsHighPriority(ec.isHighPriority()).withPhotoPath(photoPath)
+                        .withHighPriorityReason(ec.getDetail(HIGH_PRIORITY_REASON))
+                        .withIsOutOfArea(ec.isOutOfArea());
+                updateStatusInformation(ec, ecClient, entityIds);
+                updateChildrenInformation(ecClient, entityIds);
+                return ecClient;
+            }
+        });
+    }
+
+    private void updateChildrenInformation(ECClient ecClient, Set<String> entityIds) {
         List<Child> children = allBeneficiaries.findAllChildrenByECId(ecClient.entityId());
         sortByDateOfBirth(children);
         Iterable<Child> youngestTwoChildren = Iterables
                 .skip(children, children.size() < 2 ? 0 : children.size() - 2);
+        for (Child child : children) {
+            entityIds.add(child.caseId());
+        }
         for (Child child : youngestTwoChildren) {
             ecClient.addChild(
                     new ECChildClient(child.caseId(), child.gender(), child.dateOfBirth()));
@@ -190,8 +194,12 @@ public class ECSmartRegisterController {
     }
 
     //#TODO: Needs refactoring
-    private void updateStatusInformation(EligibleCouple eligibleCouple, ECClient ecClient) {
+    private void updateStatusInformation(EligibleCouple eligibleCouple, ECClient ecClient,
+                                         Set<String> entityIds) {
         Mother mother = allBeneficiaries.findMotherWithOpenStatusByECId(eligibleCouple.caseId());
+        if (mother != null) {
+            entityIds.add(mother.caseId());
+        }
 
         if (mother == null && !eligibleCouple.hasFPMethod()) {
             ecClient.withStatus(EasyMap.create(STATUS_TYPE_FIELD, EC_STATUS)
@@ -1,8 +1,10 @@
 package org.smartregister.view.fragment;
 
+import android.database.Cursor;
 import android.os.Bundle;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.Nullable;
+import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.Editable;
@@ -71,6 +73,8 @@ public abstract class BaseRegisterFragment extends RecyclerViewFragment implemen
     protected ProgressBar syncProgressBar;
     protected ImageView syncButton;
     protected boolean globalQrSearch = false;
+    // Qr code searched locally, searched globally if the local search finds no clients
+    private String qrCodeFilter;
     protected final TextWatcher textWatcher = new TextWatcher() {
         @Override
         public void beforeTextChanged(CharSequence charSequence, int i, int i2, int i3) {
@@ -79,7 +83,13 @@ public abstract class BaseRegisterFragment extends RecyclerViewFragment implemen
 
         @Override
         public void onTextChanged(final CharSequence cs, int start, int before, int count) {
-            filter(cs.toString(), "", getMainCondition(), false);
+            final String filterString = cs.toString();
+            searchExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    filter(filterString, "", getMainCondition(), false);
+                }
+            });
         }
 
         @Override
@@ -301,18 +311,30 @@ public abstract class BaseRegisterFragment extends RecyclerViewFragment implemen
         this.filters = filterString;
         this.joinTable = joinTableString;
         this.mainCondition = mainConditionString;
+        this.qrCodeFilter = qrCode && StringUtils.isNotBlank(filterString) ? filterString : null;
+
+        // Counts in the same background load as the page, see onLoadFinished
+        filterandSortExecute(countBundle());
+    }
 
-        countExecute();
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        super.onLoadFinished(loader, cursor);
 
-        if (qrCode && StringUtils.isNotBlank(filterString) && clientAdapter.getTotalcount() == 0 && NetworkUtils.isNetworkAvailable()) {
+        String qrCodeSearch = qrCodeFilter;
+        qrCodeFilter = null;
+        if (qrCodeSearch != null && clientAdapter.getTotalcount() == 0 && NetworkUtils.isNetworkAvailable()) {
             globalQrSearch = true;
-            presenter.searchGlobally(filterString);
-        } else {
-            filterandSortExecute();
+            presenter.searchGlobally(qrCodeSearch);
         }
 
         setTotalPatients();
+    }
 
+    @Override
+    protected void onCountRefreshed() {
+        super.onCountRefreshed();
+        setTotalPatients();
     }
 
     @Override
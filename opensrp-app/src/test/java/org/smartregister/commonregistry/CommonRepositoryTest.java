@@ -554,4 +554,41 @@ public class CommonRepositoryTest extends BaseUnitTest {
         Assert.assertEquals(commonRepository.populateSearchValues("caseID", CommonFtsObject.phraseColumn, "hello_world", new String[]{"hello"}), true);
     }
 
+    @Test
+    public void assertUpdateDirtySearchRebuildsEachMarkedCaseOnce() {
+        String[] columns = new String[]{"id", "relationalid", "details", "is_closed"};
+        MatrixCursor cursor = new MatrixCursor(columns);
+        cursor.addRow(new Object[]{"caseID", "relationalID", new HashMap<String, String>(), 0});
+        MatrixCursor searchCursor = new MatrixCursor(new String[]{"rowid", CommonFtsObject.idColumn});
+        searchCursor.addRow(new Object[]{7L, "caseID"});
+        MatrixCursor dirtyCursor = new MatrixCursor(new String[]{"rowid", "case_id"});
+        dirtyCursor.addRow(new Object[]{2L, "caseID"});
+        dirtyCursor.addRow(new Object[]{3L, "missingID"});
+
+        commonFtsObject = Mockito.mock(CommonFtsObject.class);
+        CommonRepository commonRepository = new CommonRepository(commonFtsObject, "common", new String[]{});
+        repository = Mockito.mock(Repository.class);
+        sqliteDatabase = Mockito.mock(SQLiteDatabase.class);
+        Mockito.when(repository.getWritableDatabase()).thenReturn(sqliteDatabase);
+        Mockito.when(repository.getReadableDatabase()).thenReturn(sqliteDatabase);
+        commonRepository.updateMasterRepository(repository);
+        Mockito.when(sqliteDatabase.query(org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(String[].class), org.mockito.ArgumentMatchers.anyString(), org.mockito.ArgumentMatchers.any(String[].class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class))).thenReturn(cursor);
+        Mockito.when(sqliteDatabase.rawQuery(org.mockito.ArgumentMatchers.startsWith("SELECT rowid, " + CommonFtsObject.idColumn), org.mockito.ArgumentMatchers.any(String[].class))).thenReturn(searchCursor);
+        Mockito.when(sqliteDatabase.rawQuery(org.mockito.ArgumentMatchers.contains(CommonRepository.DIRTY_SEARCH_TABLE), org.mockito.ArgumentMatchers.eq(new String[]{"common"}))).thenReturn(dirtyCursor, new MatrixCursor(new String[]{"rowid", "case_id"}));
+        Mockito.when(commonFtsObject.getSearchFields(Mockito.anyString())).thenReturn(columns);
+        Mockito.when(commonFtsObject.getMainConditions(Mockito.anyString())).thenReturn(new String[]{"details"});
+
+        commonRepository.markSearchDirty("caseID");
+        commonRepository.markSearchDirty("caseID");
+        commonRepository.markSearchDirty("missingID");
+        Mockito.verify(sqliteDatabase, Mockito.times(3)).insertWithOnConflict(org.mockito.ArgumentMatchers.eq(CommonRepository.DIRTY_SEARCH_TABLE), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.any(ContentValues.class), org.mockito.ArgumentMatchers.eq(SQLiteDatabase.CONFLICT_REPLACE));
+
+        Assert.assertEquals(java.util.Collections.singletonList("missingID"), commonRepository.updateDirtySearch());
+        Mockito.verify(sqliteDatabase).query(org.mockito.ArgumentMatchers.eq("common"), org.mockito.ArgumentMatchers.any(String[].class), org.mockito.ArgumentMatchers.eq("id IN (?,?)"), org.mockito.ArgumentMatchers.any(String[].class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class), org.mockito.ArgumentMatchers.isNull(String.class));
+        Mockito.verify(sqliteDatabase).update(org.mockito.ArgumentMatchers.eq("common_search"), org.mockito.ArgumentMatchers.any(ContentValues.class), org.mockito.ArgumentMatchers.eq("rowid = ?"), org.mockito.ArgumentMatchers.eq(new String[]{"7"}));
+        Mockito.verify(sqliteDatabase).delete(CommonRepository.DIRTY_SEARCH_TABLE, "register_table = ? AND rowid <= ?", new String[]{"common", "3"});
+        Assert.assertTrue(commonRepository.updateDirtySearch().isEmpty());
+        Mockito.verify(sqliteDatabase).execSQL(org.mockito.ArgumentMatchers.startsWith("CREATE TABLE IF NOT EXISTS " + CommonRepository.DIRTY_SEARCH_TABLE));
+    }
+
 }
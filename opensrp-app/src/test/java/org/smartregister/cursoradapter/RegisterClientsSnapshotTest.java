@@ -0,0 +1,115 @@
+package org.smartregister.cursoradapter;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.commonregistry.CommonPersonObject;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.repository.DetailsRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RegisterClientsSnapshotTest extends BaseUnitTest {
+
+    @Mock
+    private CommonRepository commonRepository;
+
+    @Mock
+    private DetailsRepository detailsRepository;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(commonRepository.readAllcommonforCursorAdapter(Mockito.any(Cursor.class))).thenAnswer(new Answer<CommonPersonObject>() {
+            @Override
+            public CommonPersonObject answer(InvocationOnMock invocation) throws Throwable {
+                Cursor cursor = (Cursor) invocation.getArguments()[0];
+                Map<String, String> columns = new HashMap<>();
+                columns.put("_id", cursor.getString(0));
+                columns.put("first_name", cursor.getString(1));
+                CommonPersonObject person = new CommonPersonObject(cursor.getString(0), null, new HashMap<>(columns), "ec_child");
+                person.setColumnmaps(columns);
+                return person;
+            }
+        });
+    }
+
+    @Test
+    public void testReadHydratesEveryRowWithDetails() {
+        MatrixCursor cursor = cursor(new String[]{"a", "Jane"}, new String[]{"b", "John"});
+
+        RegisterClientsSnapshot snapshot = RegisterClientsSnapshot.read(cursor, commonRepository, detailsRepository);
+
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertEquals("a", snapshot.get(0).getCaseId());
+        Assert.assertEquals("John", snapshot.get(1).getColumnmaps().get("first_name"));
+        Assert.assertEquals(-1, cursor.getPosition());
+        Mockito.verify(detailsRepository, Mockito.times(1)).updateDetails(snapshot.getClients());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotCannotBeModified() {
+        RegisterClientsSnapshot snapshot = RegisterClientsSnapshot.read(cursor(new String[]{"a", "Jane"}), commonRepository, null);
+        snapshot.getClients().clear();
+    }
+
+    @Test
+    public void testDiffOnlyReportsChangedRows() {
+        RegisterClientsSnapshot oldSnapshot = RegisterClientsSnapshot.read(
+                cursor(new String[]{"a", "Jane"}, new String[]{"b", "John"}, new String[]{"c", "Mary"}), commonRepository, null);
+        RegisterClientsSnapshot newSnapshot = RegisterClientsSnapshot.read(
+                cursor(new String[]{"a", "Jane"}, new String[]{"b", "Johnny"}, new String[]{"d", "Paul"}), commonRepository, null);
+
+        final List<String> updates = new ArrayList<>();
+        DiffUtil.calculateDiff(RegisterClientsSnapshot.diff(oldSnapshot, newSnapshot)).dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add("inserted " + position);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add("removed " + position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add("moved " + fromPosition);
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                updates.add("changed " + position);
+            }
+        });
+
+        Assert.assertTrue(updates.contains("changed 1"));
+        Assert.assertTrue(updates.contains("removed 2"));
+        Assert.assertTrue(updates.contains("inserted 2"));
+        Assert.assertEquals(3, updates.size());
+    }
+
+    private MatrixCursor cursor(String[]... rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "first_name"});
+        for (String[] row : Arrays.asList(rows)) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,70 @@
+package org.smartregister.cursoradapter;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.shadows.ShadowLooper;
+import org.smartregister.BaseUnitTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RegisterSearchExecutorTest extends BaseUnitTest {
+
+    private RegisterSearchExecutor searchExecutor;
+    private List<String> searches;
+
+    @Before
+    public void setUp() {
+        searchExecutor = new RegisterSearchExecutor(300);
+        searches = new ArrayList<>();
+    }
+
+    @Test
+    public void testSubmitRunsOnlyTheLastSearchAfterTheDelay() {
+        searchExecutor.submit(search("j"));
+        ShadowLooper.idleMainLooper(200);
+        searchExecutor.submit(search("ja"));
+        ShadowLooper.idleMainLooper(200);
+        searchExecutor.submit(search("jan"));
+
+        ShadowLooper.idleMainLooper(299);
+        Assert.assertTrue(searches.isEmpty());
+        Assert.assertTrue(searchExecutor.isPending());
+
+        ShadowLooper.idleMainLooper(1);
+        Assert.assertEquals(1, searches.size());
+        Assert.assertEquals("jan", searches.get(0));
+        Assert.assertFalse(searchExecutor.isPending());
+    }
+
+    @Test
+    public void testCancelDropsThePendingSearch() {
+        searchExecutor.submit(search("jane"));
+        searchExecutor.cancel();
+
+        ShadowLooper.idleMainLooper(300);
+        Assert.assertTrue(searches.isEmpty());
+        Assert.assertFalse(searchExecutor.isPending());
+    }
+
+    @Test
+    public void testFlushRunsThePendingSearchOnce() {
+        searchExecutor.submit(search("jane"));
+        searchExecutor.flush();
+        Assert.assertEquals(1, searches.size());
+
+        ShadowLooper.idleMainLooper(300);
+        Assert.assertEquals(1, searches.size());
+    }
+
+    private Runnable search(final String text) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                searches.add(text);
+            }
+        };
+    }
+}
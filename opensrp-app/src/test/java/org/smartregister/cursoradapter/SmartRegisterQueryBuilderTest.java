@@ -0,0 +1,121 @@
+package org.smartregister.cursoradapter;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.cursoradapter.SmartRegisterQueryBuilder.KeysetBoundary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SmartRegisterQueryBuilderTest extends BaseUnitTest {
+
+    @Test
+    public void testIsKeysetSortable() {
+        Assert.assertTrue(SmartRegisterQueryBuilder.isKeysetSortable("last_interacted_with DESC"));
+        Assert.assertTrue(SmartRegisterQueryBuilder.isKeysetSortable("ec_child.first_name"));
+        Assert.assertFalse(SmartRegisterQueryBuilder.isKeysetSortable("first_name ASC, last_name ASC"));
+        Assert.assertFalse(SmartRegisterQueryBuilder.isKeysetSortable("CASE WHEN alerts.status = 'urgent' THEN 1 END"));
+        Assert.assertFalse(SmartRegisterQueryBuilder.isKeysetSortable(null));
+        Assert.assertEquals("first_name", SmartRegisterQueryBuilder.keysetSortColumn("ec_child.first_name ASC"));
+    }
+
+    @Test
+    public void testKeysetConditionPagesAfterBoundary() {
+        SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder();
+
+        Assert.assertEquals("(first_name > 'O''Neil' OR (first_name = 'O''Neil' AND ec_child.id > 'id-1'))",
+                sqb.keysetCondition("first_name", "ec_child.id", "O'Neil", "id-1"));
+        Assert.assertEquals("(dob < 20 OR (dob = 20 AND id < 'id-1') OR dob IS NULL)",
+                sqb.keysetCondition("dob DESC", "id", 20L, "id-1"));
+        Assert.assertEquals("((dob IS NULL AND id > 'id-1') OR dob IS NOT NULL)",
+                sqb.keysetCondition("dob asc", "id", null, "id-1"));
+        Assert.assertEquals("(dob IS NULL AND id < 'id-1')",
+                sqb.keysetCondition("dob DESC", "id", null, "id-1"));
+    }
+
+    @Test
+    public void testAddKeysetConditionReplacesOffset() {
+        SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder("Select ec_child.id as _id FROM ec_child WHERE is_closed = 0");
+
+        sqb.addKeysetCondition("dob DESC", "ec_child.id", new KeysetBoundary(20L, "id-1"));
+        String query = sqb.orderbyCondition(sqb.keysetOrderBy("dob DESC", "ec_child.id"));
+
+        Assert.assertEquals("Select ec_child.id as _id FROM ec_child WHERE is_closed = 0 AND "
+                        + "(dob < 20 OR (dob = 20 AND ec_child.id < 'id-1') OR dob IS NULL)"
+                        + " ORDER BY dob DESC, ec_child.id DESC ",
+                query);
+        Assert.assertEquals(query, new SmartRegisterQueryBuilder(query).addKeysetCondition("dob", "id", null));
+    }
+
+    @Test
+    public void testSearchQueryFtsWithBoundary() {
+        SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder();
+
+        String firstPage = sqb.searchQueryFts("ec_child", (String) null, "is_closed = 0", null, "dob DESC", 20, (KeysetBoundary) null);
+        Assert.assertEquals("SELECT object_id FROM ec_child_search WHERE is_closed = 0 ORDER BY dob DESC, object_id DESC LIMIT 0,20", firstPage);
+
+        String nextPage = sqb.searchQueryFts("ec_child", (String) null, null, "jane", "dob DESC", 20, new KeysetBoundary(20L, "id-1"));
+        Assert.assertEquals("SELECT object_id FROM ec_child_search WHERE phrase MATCH 'jane*'  AND "
+                + "(dob < '20' OR (dob = '20' AND object_id < 'id-1') OR dob IS NULL)"
+                + " ORDER BY dob DESC, object_id DESC LIMIT 0,20", nextPage);
+    }
+
+    @Test
+    public void testToStringFtsKeysetOrdersTiesById() {
+        SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder("Select ec_child.id as _id FROM ec_child LEFT JOIN alerts ON ec_child.id = alerts.caseID WHERE is_closed = 0");
+
+        Assert.assertEquals("Select ec_child.id as _id FROM ec_child LEFT JOIN alerts ON ec_child.id = alerts.caseID  "
+                        + "WHERE ec_child.id IN ('a','b')  ORDER BY ec_child.dob DESC, ec_child.id DESC",
+                sqb.toStringFtsKeyset(Arrays.asList("a", "b"), "ec_child", "id", "dob DESC"));
+        Assert.assertEquals("Select ec_child.id as _id FROM ec_child LEFT JOIN alerts ON ec_child.id = alerts.caseID  WHERE ec_child.id IN () ",
+                sqb.toStringFtsKeyset(Collections.<String>emptyList(), "ec_child", "id", "dob DESC"));
+    }
+
+    @Test
+    public void testKeysetPagesDoNotSkipOrRepeatTiedSortValues() {
+        SQLiteDatabase database = SQLiteDatabase.create(null);
+        try {
+            database.execSQL("CREATE TABLE ec_child (id TEXT, dob TEXT)");
+            String[][] rows = {{"e", "2018"}, {"b", "2018"}, {"d", "2018"}, {"a", "2017"}, {"c", "2018"}, {"f", null}};
+            for (String[] row : rows) {
+                ContentValues values = new ContentValues();
+                values.put("id", row[0]);
+                values.put("dob", row[1]);
+                database.insert("ec_child", null, values);
+            }
+
+            List<String> pagedIds = new ArrayList<>();
+            KeysetBoundary boundary = null;
+            for (int page = 0; page < 4; page++) {
+                SmartRegisterQueryBuilder sqb = new SmartRegisterQueryBuilder("SELECT id AS _id, dob FROM ec_child");
+                sqb.addKeysetCondition("dob DESC", "id", boundary);
+                String query = sqb.addlimitandOffset(sqb.orderbyCondition(sqb.keysetOrderBy("dob DESC", "id")), 2, 0);
+
+                Cursor cursor = database.rawQuery(query, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        pagedIds.add(cursor.getString(0));
+                    }
+                    if (cursor.moveToLast()) {
+                        boundary = new KeysetBoundary(cursor.isNull(1) ? null : cursor.getString(1), cursor.getString(0));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            // the four clients born in 2018 span the first two pages
+            Assert.assertEquals(Arrays.asList("e", "d", "c", "b", "a", "f"), pagedIds);
+        } finally {
+            database.close();
+        }
+    }
+}
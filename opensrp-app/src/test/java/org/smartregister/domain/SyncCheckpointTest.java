@@ -0,0 +1,36 @@
+package org.smartregister.domain;
+
+import android.util.Pair;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncCheckpointTest extends BaseUnitTest {
+
+    @Test
+    public void testCheckpointSurvivesSerialization() throws Exception {
+        SyncCheckpoint syncCheckpoint = new SyncCheckpoint(0);
+        syncCheckpoint.onPersisted(Pair.create(1L, 250L), 249L);
+        syncCheckpoint.onPersisted(Pair.create(249L, 500L), 499L);
+        syncCheckpoint.onProcessed(Pair.create(1L, 250L));
+
+        SyncCheckpoint restored = SyncCheckpoint.fromJson(499L, syncCheckpoint.toJson());
+
+        assertEquals(499L, restored.getLastPersistedServerVersion());
+        assertEquals(250L, restored.getLastProcessedServerVersion());
+        assertEquals(1, restored.getPendingRanges().size());
+        assertEquals(Pair.create(249L, 500L), restored.getPendingRanges().get(0));
+    }
+
+    @Test
+    public void testFromJsonWithoutSavedCheckpointIsEmpty() throws Exception {
+        SyncCheckpoint syncCheckpoint = SyncCheckpoint.fromJson(100L, null);
+
+        assertEquals(100L, syncCheckpoint.getLastPersistedServerVersion());
+        assertEquals(0L, syncCheckpoint.getLastProcessedServerVersion());
+        assertTrue(syncCheckpoint.getPendingRanges().isEmpty());
+    }
+}
@@ -0,0 +1,26 @@
+package org.smartregister.repository;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.sync.ClientData;
+
+public class DeflateJsonStorageCodecTest extends BaseUnitTest {
+
+    private DeflateJsonStorageCodec codec = new DeflateJsonStorageCodec();
+
+    @Test
+    public void testDecodeReturnsTheEncodedJson() throws Exception {
+        String json = "{\"firstName\":\"Zoë\",\"attributes\":{\"village\":\"Kẻ Sặt\"}}";
+
+        Assert.assertEquals(json, codec.decode(codec.encode(json)));
+    }
+
+    @Test
+    public void testEncodedEventsAreSmallerThanTheirText() throws Exception {
+        String json = ClientData.eventJsonArray;
+
+        Assert.assertTrue(codec.encode(json).length < json.getBytes("UTF-8").length / 2);
+    }
+}
@@ -6,16 +6,22 @@ import junit.framework.Assert;
 
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.smartregister.BaseUnitTest;
 import org.smartregister.commonregistry.CommonPersonObject;
 import org.smartregister.commonregistry.CommonPersonObjectClient;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -68,6 +74,33 @@ public class DetailsRepositoryTest extends BaseUnitTest {
         Mockito.verify(sqLiteDatabase, Mockito.times(1)).insert(Mockito.anyString(), Mockito.isNull(String.class), Mockito.any(ContentValues.class));
     }
 
+    @Test
+    public void assertAddMapReadsOnceAndWritesOnlyChangedKeys() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", KEY_COLUMN, VALUE_COLUMN});
+        cursor.addRow(new Object[]{1L, "key", "value"});
+        cursor.addRow(new Object[]{2L, "weight", "3.1"});
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.anyString(), Mockito.any(String[].class))).thenReturn(cursor);
+        SQLiteStatement insertStatement = Mockito.mock(SQLiteStatement.class);
+        SQLiteStatement updateStatement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqLiteDatabase.compileStatement(Mockito.startsWith("INSERT"))).thenReturn(insertStatement);
+        Mockito.when(sqLiteDatabase.compileStatement(Mockito.startsWith("UPDATE"))).thenReturn(updateStatement);
+
+        Map<String, String> values = new HashMap<>();
+        values.put("key", "value");
+        values.put("weight", "3.4");
+        values.put("height", "50");
+        detailsRepository.add("1", values, 5L);
+
+        Mockito.verify(sqLiteDatabase, Mockito.times(1)).rawQuery(Mockito.anyString(), Mockito.any(String[].class));
+        Mockito.verify(updateStatement).bindString(1, "3.4");
+        Mockito.verify(updateStatement).bindLong(3, 2L);
+        Mockito.verify(updateStatement, Mockito.times(1)).executeUpdateDelete();
+        Mockito.verify(insertStatement).bindString(2, "height");
+        Mockito.verify(insertStatement, Mockito.times(1)).executeInsert();
+        Mockito.verify(sqLiteDatabase).setTransactionSuccessful();
+        Mockito.verify(sqLiteDatabase).endTransaction();
+    }
+
     @Test
     public void assertgetAllDetailsForClient() {
         Map<String, String> detail = detailsRepository.getAllDetailsForClient("1");
@@ -92,6 +125,70 @@ public class DetailsRepositoryTest extends BaseUnitTest {
         Assert.assertEquals(detailsRepository.deleteDetails("1"), true);
     }
 
+    @Test
+    public void assertGetAllDetailsForClientsReadsUncachedClientsInOneQuery() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{BASE_ENTITY_ID_COLUMN, KEY_COLUMN, VALUE_COLUMN});
+        cursor.addRow(new Object[]{"a-1", "weight", "3.1"});
+        cursor.addRow(new Object[]{"b-2", "weight", "2.9"});
+        cursor.addRow(new Object[]{"b-2", "height", "50"});
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.anyString(), Mockito.any(String[].class))).thenReturn(cursor);
+
+        Map<String, Map<String, String>> details = detailsRepository.getAllDetailsForClients(Arrays.asList("a-1", "b-2", "c-3"));
+
+        Assert.assertEquals("3.1", details.get("a-1").get("weight"));
+        Assert.assertEquals("50", details.get("b-2").get("height"));
+        Assert.assertTrue(details.get("c-3").isEmpty());
+        ArgumentCaptor<String[]> args = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(sqLiteDatabase, Mockito.times(1)).rawQuery(Mockito.contains("MATCH ? AND base_entity_id IN (?, ?, ?)"), args.capture());
+        Assert.assertEquals("\"a 1\" OR \"b 2\" OR \"c 3\"", args.getValue()[0]);
+
+        // Cached, including the client without details
+        details = detailsRepository.getAllDetailsForClients(Arrays.asList("b-2", "c-3"));
+        Assert.assertEquals("2.9", details.get("b-2").get("weight"));
+        Assert.assertEquals("2.9", detailsRepository.getAllDetailsForClient("b-2").get("weight"));
+        Mockito.verify(sqLiteDatabase, Mockito.times(1)).rawQuery(Mockito.anyString(), Mockito.any(String[].class));
+    }
+
+    @Test
+    public void assertAddEvictsCachedDetails() {
+        Assert.assertEquals("value", detailsRepository.getAllDetailsForClient("1").get("key"));
+        detailsRepository.getAllDetailsForClient("1").put("key", "changed by caller");
+        Assert.assertEquals("value", detailsRepository.getAllDetailsForClient("1").get("key"));
+        Mockito.verify(sqLiteDatabase, Mockito.times(1)).rawQuery(Mockito.anyString(), Mockito.any(String[].class));
+
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.anyString(), Mockito.any(String[].class))).thenReturn(null);
+        detailsRepository.add("1", "key", "xyz", 0L);
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{BASE_ENTITY_ID_COLUMN, KEY_COLUMN, VALUE_COLUMN, EVENT_DATE_COLUMN});
+        cursor.addRow(new Object[]{"1", "key", "xyz", "2017-10-10"});
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.anyString(), Mockito.any(String[].class))).thenReturn(cursor);
+        Assert.assertEquals("xyz", detailsRepository.getAllDetailsForClient("1").get("key"));
+    }
+
+    @Test
+    public void assertDetailsReadWhileTheClientIsWrittenAreNotCached() {
+        final boolean[] written = {false};
+        Mockito.when(sqLiteDatabase.rawQuery(Mockito.anyString(), Mockito.any(String[].class))).thenAnswer(new Answer<MatrixCursor>() {
+            @Override
+            public MatrixCursor answer(InvocationOnMock invocation) {
+                if (!written[0]) {
+                    // The details of the client are written while they are being read
+                    written[0] = true;
+                    detailsRepository.deleteDetails("1");
+                }
+                return getCursor();
+            }
+        });
+
+        detailsRepository.getAllDetailsForClient("1");
+        detailsRepository.getAllDetailsForClient("1");
+        Mockito.verify(sqLiteDatabase, Mockito.times(2)).rawQuery(Mockito.anyString(), Mockito.any(String[].class));
+
+        // Read after the write, cached
+        detailsRepository.getAllDetailsForClient("1");
+        Mockito.verify(sqLiteDatabase, Mockito.times(2)).rawQuery(Mockito.anyString(), Mockito.any(String[].class));
+    }
+
     public MatrixCursor getCursor() {
         String[] columns = {BASE_ENTITY_ID_COLUMN, KEY_COLUMN, VALUE_COLUMN, EVENT_DATE_COLUMN};
         MatrixCursor cursor = new MatrixCursor(columns);
@@ -6,30 +6,40 @@ import junit.framework.Assert;
 
 import net.sqlcipher.MatrixCursor;
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.smartregister.AllConstants;
 import org.smartregister.BaseUnitTest;
 import org.smartregister.Context;
 import org.smartregister.commonregistry.CommonFtsObject;
 import org.smartregister.domain.db.Column;
+import org.smartregister.domain.db.EventClient;
 import org.smartregister.service.AlertService;
 import org.smartregister.sync.ClientData;
 import org.smartregister.view.activity.DrishtiApplication;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by onaio on 29/08/2017.
@@ -65,6 +75,11 @@ public class EventClientRepositoryTest extends BaseUnitTest {
         eventClientRepository = new EventClientRepository(repository);
     }
 
+    @After
+    public void tearDown() {
+        EventClientRepository.setJsonStorageCodec(null);
+    }
+
     @Test
     public void instantiatesSuccessfullyOnConstructorCall() throws Exception {
         Assert.assertNotNull(new EventClientRepository(repository));
@@ -130,6 +145,46 @@ public class EventClientRepositoryTest extends BaseUnitTest {
 
     }
 
+    @Test
+    public void fetchEventClientsQueriesEachClientOnceForAllEvents() throws Exception {
+        MatrixCursor eventCursor = new MatrixCursor(new String[]{"json"});
+        eventCursor.addRow(new String[]{"{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f1\"}"});
+        eventCursor.addRow(new String[]{"{\"baseEntityId\":\"c2\",\"formSubmissionId\":\"f2\"}"});
+        eventCursor.addRow(new String[]{"{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f3\"}"});
+        MatrixCursor clientCursor = new MatrixCursor(new String[]{"baseEntityId", "json"});
+        clientCursor.addRow(new String[]{"c1", "{\"baseEntityId\":\"c1\",\"firstName\":\"Jane\"}"});
+        clientCursor.addRow(new String[]{"c2", "{\"baseEntityId\":\"c2\",\"firstName\":\"John\"}"});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT json FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(eventCursor);
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT baseEntityId, json FROM client"), ArgumentMatchers.any(String[].class))).thenReturn(clientCursor);
+
+        List<EventClient> eventClients = eventClientRepository.fetchEventClients(0l, 10l);
+
+        Assert.assertEquals(3, eventClients.size());
+        Assert.assertEquals("Jane", eventClients.get(0).getClient().getFirstName());
+        Assert.assertEquals("John", eventClients.get(1).getClient().getFirstName());
+        Assert.assertSame(eventClients.get(0).getClient(), eventClients.get(2).getClient());
+        ArgumentCaptor<String[]> paramsCaptor = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(sqliteDatabase).rawQuery(ArgumentMatchers.startsWith("SELECT baseEntityId, json FROM client"), paramsCaptor.capture());
+        Assert.assertEquals(2, paramsCaptor.getValue().length);
+    }
+
+    @Test
+    public void getUnSyncedEventsReturnsEachUnSyncedClientOnce() throws Exception {
+        MatrixCursor eventCursor = new MatrixCursor(new String[]{"json", "syncStatus"});
+        eventCursor.addRow(new String[]{"{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f1\"}", BaseRepository.TYPE_Unsynced});
+        eventCursor.addRow(new String[]{"{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f2\"}", BaseRepository.TYPE_Unsynced});
+        MatrixCursor clientCursor = new MatrixCursor(new String[]{"baseEntityId", "json"});
+        clientCursor.addRow(new String[]{"c1", "{\"baseEntityId\":\"c1\"}"});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("select json,syncStatus from event"), ArgumentMatchers.any(String[].class))).thenReturn(eventCursor);
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT baseEntityId, json FROM client"), ArgumentMatchers.any(String[].class))).thenReturn(clientCursor);
+
+        Map<String, Object> unSyncedEvents = eventClientRepository.getUnSyncedEvents(100);
+
+        Assert.assertEquals(2, ((List) unSyncedEvents.get(AllConstants.KEY.EVENTS)).size());
+        Assert.assertEquals(1, ((List) unSyncedEvents.get(AllConstants.KEY.CLIENTS)).size());
+        Mockito.verify(sqliteDatabase).rawQuery(ArgumentMatchers.contains("IN (?) AND syncStatus = ?"), ArgumentMatchers.eq(new String[]{"c1", BaseRepository.TYPE_Unsynced}));
+    }
+
     public MatrixCursor getEvetCursor() throws Exception {
         MatrixCursor matrixCursor = new MatrixCursor(new String[]{"json", "timestamp"});
         JSONArray eventArray = new JSONArray(ClientData.eventJsonArray);
@@ -276,7 +331,7 @@ public class EventClientRepositoryTest extends BaseUnitTest {
 
     @Test
     public void assertcreateTableCallsExecSql() {
-        int count = 1; //first one to create table, rest for create index
+        int count = 2; //first one to create table, one for the composite index, rest for create index
         for (Column cc : EventClientRepository.client_column.values()) {
             if (cc.column().index()) {
                 count++;
@@ -286,4 +341,124 @@ public class EventClientRepositoryTest extends BaseUnitTest {
         Mockito.verify(sqliteDatabase, Mockito.times(count)).execSQL(Mockito.anyString());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void assertCreateSyncIndexesCreatesCompositeIndexes() {
+        EventClientRepository.createSyncIndexes(sqliteDatabase);
+        Mockito.verify(sqliteDatabase).execSQL("CREATE INDEX IF NOT EXISTS event_syncStatus_updatedAt_index ON event (syncStatus, updatedAt); ");
+        Mockito.verify(sqliteDatabase).execSQL("CREATE INDEX IF NOT EXISTS event_syncStatus_serverVersion_index ON event (syncStatus, serverVersion); ");
+        Mockito.verify(sqliteDatabase).execSQL("CREATE INDEX IF NOT EXISTS client_syncStatus_updatedAt_index ON client (syncStatus, updatedAt); ");
+    }
+
+    @Test
+    public void fetchEventClientsReadsEncodedAndTextRows() throws Exception {
+        DeflateJsonStorageCodec codec = new DeflateJsonStorageCodec();
+        MatrixCursor eventCursor = new MatrixCursor(new String[]{"json"});
+        eventCursor.addRow(new Object[]{tag(codec.getId(), codec.encode("{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f1\"}"))});
+        eventCursor.addRow(new Object[]{"{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f2\"}"});
+        // written before blobs were tagged with their codec
+        eventCursor.addRow(new Object[]{codec.encode("{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f3\"}")});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT json FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(eventCursor);
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT baseEntityId, json FROM client"), ArgumentMatchers.any(String[].class))).thenReturn(new MatrixCursor(new String[]{"baseEntityId", "json"}));
+
+        List<EventClient> eventClients = eventClientRepository.fetchEventClients(0L, 10L);
+
+        Assert.assertEquals(3, eventClients.size());
+        Assert.assertEquals("f1", eventClients.get(0).getEvent().getFormSubmissionId());
+        Assert.assertEquals("f2", eventClients.get(1).getEvent().getFormSubmissionId());
+        Assert.assertEquals("f3", eventClients.get(2).getEvent().getFormSubmissionId());
+    }
+
+    @Test
+    public void fetchEventClientsDecodesBlobsWithTheCodecThatWroteThem() throws Exception {
+        JsonStorageCodec plainCodec = new JsonStorageCodec() {
+            @Override
+            public byte getId() {
+                return 7;
+            }
+
+            @Override
+            public byte[] encode(String json) throws IOException {
+                return json.getBytes("UTF-8");
+            }
+
+            @Override
+            public String decode(byte[] data) throws IOException {
+                return new String(data, "UTF-8");
+            }
+        };
+        EventClientRepository.registerJsonStorageCodec(plainCodec);
+        EventClientRepository.setJsonStorageCodec(new DeflateJsonStorageCodec());
+        MatrixCursor eventCursor = new MatrixCursor(new String[]{"json"});
+        eventCursor.addRow(new Object[]{tag((byte) 7, plainCodec.encode("{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f1\"}"))});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT json FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(eventCursor);
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT baseEntityId, json FROM client"), ArgumentMatchers.any(String[].class))).thenReturn(new MatrixCursor(new String[]{"baseEntityId", "json"}));
+
+        List<EventClient> eventClients = eventClientRepository.fetchEventClients(0L, 10L);
+
+        Assert.assertEquals("f1", eventClients.get(0).getEvent().getFormSubmissionId());
+    }
+
+    @Test
+    public void migrateJsonStorageEncodesTextRowsAfterTheGivenRowId() throws Exception {
+        EventClientRepository.setJsonStorageCodec(new DeflateJsonStorageCodec());
+        MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", "json"});
+        cursor.addRow(new Object[]{11L, "{\"formSubmissionId\":\"f1\"}"});
+        cursor.addRow(new Object[]{12L, "{\"formSubmissionId\":\"f2\"}"});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT rowid, json FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(cursor);
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqliteDatabase.compileStatement("UPDATE event SET json = ? WHERE rowid = ? AND json = ?")).thenReturn(statement);
+
+        Assert.assertEquals(12L, eventClientRepository.migrateJsonStorage(EventClientRepository.Table.event, 10L, 100));
+
+        Mockito.verify(sqliteDatabase).rawQuery(ArgumentMatchers.contains("typeof(json) = 'text' OR (typeof(json) = 'blob' AND hex(substr(json, 1, 1)) != ?)"),
+                ArgumentMatchers.eq(new String[]{"10", "01"}));
+        ArgumentCaptor<byte[]> blobs = ArgumentCaptor.forClass(byte[].class);
+        Mockito.verify(statement, Mockito.times(2)).bindBlob(ArgumentMatchers.eq(1), blobs.capture());
+        Assert.assertEquals(DeflateJsonStorageCodec.ID, blobs.getValue()[0]);
+        Mockito.verify(statement).bindLong(2, 11L);
+        Mockito.verify(statement).bindLong(2, 12L);
+        Mockito.verify(statement).bindString(3, "{\"formSubmissionId\":\"f1\"}");
+        InOrder inOrder = Mockito.inOrder(sqliteDatabase);
+        inOrder.verify(sqliteDatabase).beginTransaction();
+        inOrder.verify(sqliteDatabase).rawQuery(ArgumentMatchers.startsWith("SELECT rowid, json FROM event"), ArgumentMatchers.any(String[].class));
+        inOrder.verify(sqliteDatabase).setTransactionSuccessful();
+        inOrder.verify(sqliteDatabase).endTransaction();
+    }
+
+    @Test
+    public void migrateJsonStorageKeepsRowsWrittenSinceTheyWereRead() throws Exception {
+        EventClientRepository.setJsonStorageCodec(new DeflateJsonStorageCodec());
+        MatrixCursor cursor = new MatrixCursor(new String[]{"rowid", "json"});
+        cursor.addRow(new Object[]{11L, "{\"formSubmissionId\":\"old\"}"});
+        cursor.addRow(new Object[]{12L, "{\"formSubmissionId\":\"f2\"}"});
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT rowid, json FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(cursor);
+        SQLiteStatement statement = Mockito.mock(SQLiteStatement.class);
+        Mockito.when(sqliteDatabase.compileStatement("UPDATE event SET json = ? WHERE rowid = ? AND json = ?")).thenReturn(statement);
+        // a sync rewrote row 11 after it was read, so the guarded update matches no row
+        Mockito.when(statement.executeUpdateDelete()).thenReturn(0, 1);
+
+        Assert.assertEquals(12L, eventClientRepository.migrateJsonStorage(EventClientRepository.Table.event, 10L, 100));
+
+        Mockito.verify(statement).bindString(3, "{\"formSubmissionId\":\"old\"}");
+        Mockito.verify(statement).bindString(3, "{\"formSubmissionId\":\"f2\"}");
+        Mockito.verify(statement, Mockito.times(2)).executeUpdateDelete();
+        Mockito.verify(sqliteDatabase).setTransactionSuccessful();
+    }
+
+    @Test
+    public void migrateJsonStorageReturnsMinusOneWhenNoRowsAreLeft() {
+        Mockito.when(sqliteDatabase.rawQuery(ArgumentMatchers.startsWith("SELECT rowid, json FROM client"), ArgumentMatchers.any(String[].class))).thenReturn(new MatrixCursor(new String[]{"rowid", "json"}));
+
+        Assert.assertEquals(-1L, eventClientRepository.migrateJsonStorage(EventClientRepository.Table.client, 0L, 100));
+        Mockito.verify(sqliteDatabase).rawQuery(ArgumentMatchers.contains("typeof(json) = 'blob'"), ArgumentMatchers.eq(new String[]{"0"}));
+        Mockito.verify(sqliteDatabase, Mockito.never()).compileStatement(ArgumentMatchers.anyString());
+        Mockito.verify(sqliteDatabase).endTransaction();
+    }
+
+    private byte[] tag(byte codecId, byte[] encoded) {
+        byte[] data = new byte[encoded.length + 1];
+        data[0] = codecId;
+        System.arraycopy(encoded, 0, data, 1, encoded.length);
+        return data;
+    }
+}
@@ -0,0 +1,86 @@
+package org.smartregister.service;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class HttpTrafficStatsTest extends BaseUnitTest {
+
+    private HttpTrafficStats trafficStats;
+    private byte[] payload;
+
+    @Before
+    public void setUp() throws Exception {
+        trafficStats = new HttpTrafficStats();
+        StringBuilder events = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            events.append("{\"eventType\":\"Registration\",\"baseEntityId\":\"").append(i).append("\"},");
+        }
+        payload = events.append("{}]").toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void testCountSentCompressesAndCountsBothSizes() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        OutputStream outputStream = trafficStats.countSent(wire, true);
+        outputStream.write(payload);
+        outputStream.close();
+
+        Assert.assertEquals(payload.length, trafficStats.getUncompressedBytesSent());
+        Assert.assertEquals(wire.size(), trafficStats.getBytesSent());
+        Assert.assertTrue(trafficStats.getBytesSent() < trafficStats.getUncompressedBytesSent());
+        Assert.assertEquals(new String(payload, "UTF-8"), IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(wire.toByteArray())), "UTF-8"));
+    }
+
+    @Test
+    public void testCountSentWithoutCompressionWritesBodyAsIs() throws Exception {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+
+        OutputStream outputStream = trafficStats.countSent(wire, false);
+        outputStream.write(payload);
+        outputStream.close();
+
+        Assert.assertEquals(payload.length, trafficStats.getBytesSent());
+        Assert.assertEquals(payload.length, trafficStats.getUncompressedBytesSent());
+    }
+
+    @Test
+    public void testCountReceivedDecodesGzippedBody() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(payload);
+        gzipOutputStream.close();
+
+        InputStream inputStream = trafficStats.countReceived(new ByteArrayInputStream(compressed.toByteArray()), true);
+        byte[] decoded = IOUtils.toByteArray(inputStream);
+        inputStream.close();
+        inputStream.close();
+
+        Assert.assertEquals(new String(payload, "UTF-8"), new String(decoded, "UTF-8"));
+        Assert.assertEquals(compressed.size(), trafficStats.getBytesReceived());
+        Assert.assertEquals(payload.length, trafficStats.getUncompressedBytesReceived());
+    }
+
+    @Test
+    public void testResetClearsCounters() throws Exception {
+        InputStream inputStream = trafficStats.countReceived(new ByteArrayInputStream(payload), false);
+        IOUtils.toByteArray(inputStream);
+        inputStream.close();
+
+        trafficStats.reset();
+
+        Assert.assertEquals(0, trafficStats.getBytesReceived());
+        Assert.assertEquals(0, trafficStats.getUncompressedBytesReceived());
+    }
+}
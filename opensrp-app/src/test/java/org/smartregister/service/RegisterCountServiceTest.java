@@ -0,0 +1,99 @@
+package org.smartregister.service;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.event.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class RegisterCountServiceTest extends BaseUnitTest {
+
+    private static final String QUERY = "SELECT COUNT(*) FROM ec_child WHERE is_closed = 0;";
+
+    @Mock
+    private CommonRepository repository;
+
+    private RegisterCountService countService;
+    private List<Runnable> refreshes;
+    private List<Integer> notifiedCounts;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        repository.TABLE_NAME = "ec_child";
+        refreshes = new ArrayList<>();
+        notifiedCounts = new ArrayList<>();
+        countService = new RegisterCountService(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        });
+    }
+
+    @Test
+    public void testCountRunsTheQueryOnlyOnceUntilTheRegisterChanges() {
+        Mockito.when(repository.countSearchIds(QUERY)).thenReturn(10);
+
+        Assert.assertEquals(10, countService.count(repository, QUERY, listener()));
+        Assert.assertEquals(10, countService.count(repository, QUERY, listener()));
+
+        Mockito.verify(repository, Mockito.times(1)).countSearchIds(QUERY);
+        Assert.assertTrue(countService.isExact(QUERY));
+        Assert.assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void testStaleCountIsApproximateUntilRefreshed() {
+        Mockito.when(repository.countSearchIds(QUERY)).thenReturn(10, 11);
+        countService.count(repository, QUERY, listener());
+
+        Event.ENTITY_UPDATED.notifyListeners("entity-1");
+        Assert.assertFalse(countService.isExact(QUERY));
+
+        Assert.assertEquals(10, countService.count(repository, QUERY, listener()));
+        Assert.assertEquals(10, countService.count(repository, QUERY, listener()));
+        Assert.assertEquals(1, refreshes.size());
+
+        refreshes.get(0).run();
+        Assert.assertTrue(countService.isExact(QUERY));
+        Assert.assertEquals(Integer.valueOf(11), countService.getApproximateCount(QUERY));
+        Assert.assertEquals(1, notifiedCounts.size());
+        Assert.assertEquals(11, notifiedCounts.get(0).intValue());
+    }
+
+    @Test
+    public void testInvalidateOnlyMarksTheCountsOfTheTable() {
+        Mockito.when(repository.countSearchIds(QUERY)).thenReturn(10);
+        countService.count(repository, QUERY, null);
+
+        countService.invalidate("ec_mother");
+        Assert.assertTrue(countService.isExact(QUERY));
+
+        countService.invalidate("ec_child");
+        Assert.assertFalse(countService.isExact(QUERY));
+    }
+
+    @Test
+    public void testGetApproximateCountIsNullBeforeTheFirstCount() {
+        Assert.assertNull(countService.getApproximateCount(QUERY));
+    }
+
+    private RegisterCountService.CountListener listener() {
+        return new RegisterCountService.CountListener() {
+            @Override
+            public void onCount(String query, int count) {
+                notifiedCounts.add(count);
+            }
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package org.smartregister.sync;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.domain.db.Event;
+import org.smartregister.domain.db.Obs;
+import org.smartregister.domain.jsonmapping.ClassificationRule;
+import org.smartregister.domain.jsonmapping.ClientClassification;
+import org.smartregister.domain.jsonmapping.Field;
+import org.smartregister.domain.jsonmapping.Rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ClassificationIndexTest extends BaseUnitTest {
+
+    private Field birthRegistration;
+    private Field death;
+    private Field obsConcept;
+    private List<ClassificationRule> rules;
+    private ClassificationIndex index;
+
+    @Before
+    public void setUp() {
+        birthRegistration = field("eventType", "Birth Registration", null);
+        death = field("eventType", "Death", null);
+        obsConcept = field("obs.fieldCode", null, "1234AAAA");
+
+        ClientClassification clientClassification = new ClientClassification();
+        rules = Arrays.asList(rule(birthRegistration), rule(death), rule(obsConcept, field("eventType", null, null)));
+        clientClassification.case_classification_rules = rules;
+        index = new ClassificationIndex(clientClassification);
+    }
+
+    @Test
+    public void testGetCandidateFieldsReturnsMatchingFieldsInFileOrder() {
+        Event event = new Event().withEventType("birth registration")
+                .withObs(new Obs().withFieldCode("1234aaaa"));
+
+        List<Field> candidates = index.getCandidateFields(event);
+
+        Assert.assertEquals(Arrays.asList(birthRegistration, obsConcept), candidates);
+    }
+
+    @Test
+    public void testGetCandidateFieldsSkipsRulesThatCannotMatch() {
+        Event event = new Event().withEventType("Growth Monitoring");
+
+        Assert.assertTrue(index.getCandidateFields(event).isEmpty());
+    }
+
+    @Test
+    public void testGetCandidateRulesReturnsRulesWithAMatchingFieldInFileOrder() {
+        Event event = new Event().withEventType("Death")
+                .withObs(new Obs().withFieldCode("1234AAAA"));
+
+        Assert.assertEquals(Arrays.asList(rules.get(1), rules.get(2)), index.getCandidateRules(event));
+        // every field of a candidate rule is evaluated
+        Assert.assertEquals(3, index.getCandidateCount());
+    }
+
+    @Test
+    public void testCountsAreTracked() {
+        index.getCandidateFields(new Event().withEventType("Death"));
+        index.getCandidateFields(new Event().withEventType("Death"));
+
+        Assert.assertEquals(3, index.getRuleCount());
+        Assert.assertEquals(3, index.getFieldCount());
+        Assert.assertEquals(2, index.getEventCount());
+        Assert.assertEquals(2, index.getCandidateCount());
+    }
+
+    private Field field(String name, String value, String concept) {
+        Field field = new Field();
+        field.field = name;
+        field.field_value = value;
+        field.concept = concept;
+        field.creates_case = new ArrayList<>();
+        return field;
+    }
+
+    private ClassificationRule rule(Field... fields) {
+        ClassificationRule classificationRule = new ClassificationRule();
+        classificationRule.rule = new Rule();
+        classificationRule.rule.fields = Arrays.asList(fields);
+        return classificationRule;
+    }
+}
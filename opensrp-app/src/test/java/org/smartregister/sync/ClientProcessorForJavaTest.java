@@ -0,0 +1,388 @@
+package org.smartregister.sync;
+
+import android.content.ContentValues;
+
+import junit.framework.Assert;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RuntimeEnvironment;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.CoreLibrary;
+import org.smartregister.SyncConfiguration;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.domain.db.Client;
+import org.smartregister.domain.db.Event;
+import org.smartregister.domain.db.EventClient;
+import org.smartregister.domain.jsonmapping.ClassificationRule;
+import org.smartregister.domain.jsonmapping.ClientClassification;
+import org.smartregister.domain.jsonmapping.Field;
+import org.smartregister.domain.jsonmapping.Rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientProcessorForJavaTest extends BaseUnitTest {
+
+    @Mock
+    private SQLiteDatabase sqLiteDatabase;
+
+    private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> writeThreads = Collections.synchronizedList(new ArrayList<Thread>());
+    private final AtomicInteger processedEvents = new AtomicInteger();
+    private volatile String failingSubmission;
+
+    private ClientProcessorForJava clientProcessor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        final ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = Collections.singletonList(new ClassificationRule());
+
+        clientProcessor = new ClientProcessorForJava(RuntimeEnvironment.application) {
+            @Override
+            protected <T> T assetJsonToJava(String fileName, Class<T> clazz) {
+                return clazz.cast(clientClassification);
+            }
+
+            @Override
+            protected int getProcessingThreads() {
+                return 4;
+            }
+
+            @Override
+            protected RegisterWriteBuffer createWriteBuffer() {
+                return null;
+            }
+
+            @Override
+            protected SQLiteDatabase getWritableDatabase() {
+                return sqLiteDatabase;
+            }
+
+            @Override
+            public Boolean processEvent(final Event event, Client client, ClientClassification clientClassification) {
+                processedEvents.incrementAndGet();
+                deferWrite(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (event.getFormSubmissionId().equals(failingSubmission)) {
+                            throw new IllegalStateException("Unable to write " + failingSubmission);
+                        }
+                        writes.add(event.getBaseEntityId() + ":" + event.getFormSubmissionId());
+                        writeThreads.add(Thread.currentThread());
+                    }
+                });
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testProcessClientAppliesWritesInOneTransactionInClientOrder() throws Exception {
+        final List<Integer> processedAtBegin = new ArrayList<>();
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                processedAtBegin.add(processedEvents.get());
+                return null;
+            }
+        }).when(sqLiteDatabase).beginTransaction();
+
+        clientProcessor.processClient(eventClients(200));
+
+        // the workers are done before the transaction starts
+        Assert.assertEquals(Collections.singletonList(200), processedAtBegin);
+        Assert.assertEquals(200, writes.size());
+        for (Thread thread : writeThreads) {
+            Assert.assertEquals(Thread.currentThread(), thread);
+        }
+
+        Map<String, Integer> lastSubmission = new HashMap<>();
+        for (String write : writes) {
+            String[] parts = write.split(":");
+            int submission = Integer.parseInt(parts[1]);
+            Integer last = lastSubmission.get(parts[0]);
+            Assert.assertTrue(last == null || last < submission);
+            lastSubmission.put(parts[0], submission);
+        }
+
+        InOrder inOrder = Mockito.inOrder(sqLiteDatabase);
+        inOrder.verify(sqLiteDatabase).beginTransaction();
+        inOrder.verify(sqLiteDatabase).setTransactionSuccessful();
+        inOrder.verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void testProcessClientRollsBackAndThrowsWhenAWriteFails() throws Exception {
+        failingSubmission = "42";
+
+        try {
+            clientProcessor.processClient(eventClients(100));
+            Assert.fail("The failed write should fail the batch");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Unable to write 42", e.getMessage());
+        }
+
+        Mockito.verify(sqLiteDatabase).beginTransaction();
+        Mockito.verify(sqLiteDatabase, Mockito.never()).setTransactionSuccessful();
+        Mockito.verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void testProcessingExecutorIsKeptAcrossBatches() throws Exception {
+        clientProcessor.processClient(eventClients(20));
+        ExecutorService executorService = clientProcessor.getProcessingExecutor(4);
+        clientProcessor.processClient(eventClients(20));
+
+        Assert.assertSame(executorService, clientProcessor.getProcessingExecutor(4));
+        Assert.assertFalse(executorService.isShutdown());
+    }
+
+    @Test
+    public void testProcessClientStartsTheTransactionOnlyToFlushBufferedWrites() throws Exception {
+        final ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = Collections.singletonList(new ClassificationRule());
+        final RegisterWriteBuffer buffer = Mockito.mock(RegisterWriteBuffer.class);
+        Mockito.when(buffer.isEmpty()).thenReturn(false);
+        Mockito.when(buffer.flush()).thenReturn(Collections.<String>emptyList());
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                writes.add("begin");
+                return null;
+            }
+        }).when(sqLiteDatabase).beginTransaction();
+
+        ClientProcessorForJava bufferedProcessor = new ClientProcessorForJava(RuntimeEnvironment.application) {
+            @Override
+            protected <T> T assetJsonToJava(String fileName, Class<T> clazz) {
+                return clazz.cast(clientClassification);
+            }
+
+            @Override
+            protected int getProcessingThreads() {
+                return 1;
+            }
+
+            @Override
+            protected RegisterWriteBuffer createWriteBuffer() {
+                return buffer;
+            }
+
+            @Override
+            protected SQLiteDatabase getWritableDatabase() {
+                return sqLiteDatabase;
+            }
+
+            @Override
+            public Boolean processEvent(Event event, Client client, ClientClassification clientClassification) {
+                writes.add(event.getFormSubmissionId());
+                return true;
+            }
+        };
+
+        bufferedProcessor.processClient(Arrays.asList(
+                new EventClient(new Event().withBaseEntityId("a").withFormSubmissionId("1"), new Client("a")),
+                new EventClient(new Event().withBaseEntityId("b").withFormSubmissionId("2"), new Client("b"))));
+
+        Assert.assertEquals(Arrays.asList("1", "2", "begin"), writes);
+        InOrder inOrder = Mockito.inOrder(sqLiteDatabase, buffer);
+        inOrder.verify(sqLiteDatabase).beginTransaction();
+        inOrder.verify(buffer).flush();
+        inOrder.verify(sqLiteDatabase).setTransactionSuccessful();
+        inOrder.verify(sqLiteDatabase).endTransaction();
+    }
+
+    @Test
+    public void testExecuteInsertStatementReturnsTheIdWhileSaveRecordIsBuffered() throws Exception {
+        org.smartregister.Context context = Mockito.mock(org.smartregister.Context.class);
+        CommonRepository commonRepository = Mockito.mock(CommonRepository.class);
+        Mockito.when(context.commonrepository("ec_child")).thenReturn(commonRepository);
+        Mockito.when(commonRepository.executeInsertStatement(Mockito.any(ContentValues.class), Mockito.eq("ec_child"))).thenReturn(7L);
+        CoreLibrary.reset(context);
+
+        final ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = Collections.singletonList(new ClassificationRule());
+        final RegisterWriteBuffer buffer = Mockito.mock(RegisterWriteBuffer.class);
+        Mockito.when(buffer.flush()).thenReturn(Collections.<String>emptyList());
+        final List<Long> ids = new ArrayList<>();
+        ClientProcessorForJava bufferedProcessor = new ClientProcessorForJava(RuntimeEnvironment.application) {
+            @Override
+            protected <T> T assetJsonToJava(String fileName, Class<T> clazz) {
+                return clazz.cast(clientClassification);
+            }
+
+            @Override
+            protected int getProcessingThreads() {
+                return 1;
+            }
+
+            @Override
+            protected RegisterWriteBuffer createWriteBuffer() {
+                return buffer;
+            }
+
+            @Override
+            protected SQLiteDatabase getWritableDatabase() {
+                return sqLiteDatabase;
+            }
+
+            @Override
+            public Boolean processEvent(Event event, Client client, ClientClassification clientClassification) {
+                ContentValues values = new ContentValues();
+                values.put(CommonRepository.BASE_ENTITY_ID_COLUMN, event.getBaseEntityId());
+                saveRecord(values, "ec_child");
+                ids.add(executeInsertStatement(values, "ec_child"));
+                return true;
+            }
+        };
+
+        bufferedProcessor.processClient(Collections.singletonList(
+                new EventClient(new Event().withBaseEntityId("a").withFormSubmissionId("1"), new Client("a"))));
+
+        Assert.assertEquals(Collections.singletonList(7L), ids);
+        Mockito.verify(buffer).upsert(Mockito.eq("ec_child"), Mockito.any(ContentValues.class));
+        Mockito.verify(commonRepository).executeInsertStatement(Mockito.any(ContentValues.class), Mockito.eq("ec_child"));
+    }
+
+    @Test
+    public void testProcessorReadsItsEarlierWritesMidBatchByDefault() throws Exception {
+        SyncConfiguration syncConfiguration = Mockito.mock(SyncConfiguration.class);
+        Mockito.when(syncConfiguration.bufferClientProcessingWrites()).thenCallRealMethod();
+        org.smartregister.Context context = Mockito.mock(org.smartregister.Context.class);
+        CommonRepository commonRepository = Mockito.mock(CommonRepository.class);
+        Mockito.when(context.commonrepository("ec_child")).thenReturn(commonRepository);
+        CoreLibrary.reset(context, syncConfiguration);
+
+        final Map<String, Integer> visits = new HashMap<>();
+        Mockito.doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                ContentValues values = (ContentValues) invocation.getArguments()[0];
+                visits.put(values.getAsString(CommonRepository.BASE_ENTITY_ID_COLUMN), values.getAsInteger("visits"));
+                return (long) visits.size();
+            }
+        }).when(commonRepository).executeInsertStatement(Mockito.any(ContentValues.class), Mockito.eq("ec_child"));
+
+        final ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = Collections.singletonList(new ClassificationRule());
+        ClientProcessorForJava readingProcessor = new ClientProcessorForJava(RuntimeEnvironment.application) {
+            @Override
+            protected <T> T assetJsonToJava(String fileName, Class<T> clazz) {
+                return clazz.cast(clientClassification);
+            }
+
+            @Override
+            protected int getProcessingThreads() {
+                return 1;
+            }
+
+            @Override
+            protected SQLiteDatabase getWritableDatabase() {
+                return sqLiteDatabase;
+            }
+
+            @Override
+            public Boolean processEvent(Event event, Client client, ClientClassification clientClassification) {
+                // reads the row the previous event of the client wrote
+                Integer previousVisits = visits.get(event.getBaseEntityId());
+                ContentValues values = new ContentValues();
+                values.put(CommonRepository.BASE_ENTITY_ID_COLUMN, event.getBaseEntityId());
+                values.put("visits", previousVisits == null ? 1 : previousVisits + 1);
+                Assert.assertNotNull(executeInsertStatement(values, "ec_child"));
+                return true;
+            }
+        };
+
+        readingProcessor.processClient(eventClients(30));
+
+        Assert.assertEquals(10, visits.size());
+        Assert.assertEquals(Integer.valueOf(3), visits.get("client-0"));
+        Mockito.verify(sqLiteDatabase, Mockito.never()).beginTransaction();
+    }
+
+    @Test
+    public void testProcessEventDispatchesCandidateRulesThroughProcessClientClass() throws Exception {
+        Field birthRegistration = new Field();
+        birthRegistration.field = "eventType";
+        birthRegistration.field_value = "Birth Registration";
+        Field death = new Field();
+        death.field = "eventType";
+        death.field_value = "Death";
+        ClassificationRule birthRule = new ClassificationRule();
+        birthRule.rule = new Rule();
+        birthRule.rule.fields = Collections.singletonList(birthRegistration);
+        ClassificationRule deathRule = new ClassificationRule();
+        deathRule.rule = new Rule();
+        deathRule.rule.fields = Collections.singletonList(death);
+        ClientClassification clientClassification = new ClientClassification();
+        clientClassification.case_classification_rules = Arrays.asList(birthRule, deathRule);
+
+        final List<ClassificationRule> processedRules = new ArrayList<>();
+        ClientProcessorForJava overridingProcessor = new ClientProcessorForJava(RuntimeEnvironment.application) {
+            @Override
+            public Boolean processClientClass(ClassificationRule clientClass, Event event, Client client) {
+                processedRules.add(clientClass);
+                return true;
+            }
+
+            @Override
+            public void updateClientDetailsTable(Event event, Client client) {
+                // not under test
+            }
+        };
+
+        overridingProcessor.processEvent(new Event().withEventType("Death"), new Client("client-1"), clientClassification);
+
+        Assert.assertEquals(Collections.singletonList(deathRule), processedRules);
+    }
+
+    private List<EventClient> eventClients(int count) {
+        List<EventClient> eventClients = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String baseEntityId = "client-" + (i % 10);
+            eventClients.add(new EventClient(new Event().withBaseEntityId(baseEntityId).withFormSubmissionId(String.valueOf(i)),
+                    new Client(baseEntityId)));
+        }
+        return eventClients;
+    }
+
+    @Test
+    public void testPartitionKeepsEventsOfAClientTogether() {
+        List<EventClient> eventClients = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            eventClients.add(new EventClient(new Event().withBaseEntityId("client-" + (i % 3)), new Client("client-" + (i % 3))));
+        }
+
+        List<List<EventClient>> partitions = ClientProcessorForJava.partition(eventClients, 8);
+
+        Assert.assertTrue(partitions.size() <= 3);
+        Map<String, List<EventClient>> partitionOfClient = new HashMap<>();
+        int events = 0;
+        for (List<EventClient> partition : partitions) {
+            for (EventClient eventClient : partition) {
+                String baseEntityId = eventClient.getEvent().getBaseEntityId();
+                Assert.assertTrue(!partitionOfClient.containsKey(baseEntityId) || partitionOfClient.get(baseEntityId) == partition);
+                partitionOfClient.put(baseEntityId, partition);
+            }
+            events += partition.size();
+        }
+        Assert.assertEquals(30, events);
+    }
+}
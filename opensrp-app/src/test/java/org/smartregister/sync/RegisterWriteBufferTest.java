@@ -0,0 +1,123 @@
+package org.smartregister.sync;
+
+import android.content.ContentValues;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.Context;
+import org.smartregister.commonregistry.AllCommonsRepository;
+import org.smartregister.commonregistry.CommonRepository;
+import org.smartregister.repository.DetailsRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+public class RegisterWriteBufferTest extends BaseUnitTest {
+
+    private static final String TABLE = "ec_child";
+
+    @Mock
+    private Context context;
+    @Mock
+    private CommonRepository commonRepository;
+    @Mock
+    private DetailsRepository detailsRepository;
+    @Mock
+    private AllCommonsRepository allCommonsRepository;
+
+    private RegisterWriteBuffer buffer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(context.commonrepository(TABLE)).thenReturn(commonRepository);
+        Mockito.when(context.detailsRepository()).thenReturn(detailsRepository);
+        Mockito.when(context.allCommonsRepositoryobjects(TABLE)).thenReturn(allCommonsRepository);
+        buffer = new RegisterWriteBuffer(context);
+    }
+
+    @Test
+    public void testFlushWritesOneMergedRowPerEntity() {
+        buffer.upsert(TABLE, row("1", "first_name", "Jane"));
+        buffer.upsert(TABLE, row("2", "first_name", "John"));
+        buffer.upsert(TABLE, row("1", "last_name", "Doe"));
+        buffer.closeCase(TABLE, "1");
+
+        buffer.flush();
+
+        ArgumentCaptor<Collection> rowsCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(commonRepository).executeInsertStatements(rowsCaptor.capture(), ArgumentMatchers.eq(TABLE));
+        List<ContentValues> rows = new ArrayList<ContentValues>(rowsCaptor.getValue());
+        Assert.assertEquals(2, rows.size());
+        Assert.assertEquals("Jane", rows.get(0).getAsString("first_name"));
+        Assert.assertEquals("Doe", rows.get(0).getAsString("last_name"));
+        Assert.assertEquals(Integer.valueOf(1), rows.get(0).getAsInteger(CommonRepository.IS_CLOSED_COLUMN));
+        Assert.assertEquals("John", rows.get(1).getAsString("first_name"));
+        Mockito.verify(commonRepository, Mockito.never()).closeCase(ArgumentMatchers.anyString(), ArgumentMatchers.anyString());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testCaseClosedBeforeItsRowIsWrittenStaysClosed() {
+        buffer.closeCase(TABLE, "3");
+        buffer.closeCase(TABLE, "1");
+        buffer.upsert(TABLE, row("1", "first_name", "Jane"));
+
+        buffer.flush();
+
+        ArgumentCaptor<Collection> rowsCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(commonRepository).executeInsertStatements(rowsCaptor.capture(), ArgumentMatchers.eq(TABLE));
+        ContentValues row = (ContentValues) rowsCaptor.getValue().iterator().next();
+        Assert.assertEquals(Integer.valueOf(1), row.getAsInteger(CommonRepository.IS_CLOSED_COLUMN));
+        Mockito.verify(commonRepository).closeCase("3", TABLE);
+        Mockito.verify(commonRepository, Mockito.never()).closeCase("1", TABLE);
+    }
+
+    @Test
+    public void testLaterDetailOverwritesEarlierOne() {
+        buffer.addDetail("1", "weight", "3.1", 1L);
+        buffer.addDetail("1", "weight", "3.4", 2L);
+        buffer.addDetail("1", "height", "50", 3L);
+        buffer.addDetail("1", "height", "50", 4L);
+
+        buffer.flush();
+
+        Mockito.verify(detailsRepository).add("1", Collections.singletonMap("weight", "3.4"), 2L);
+        Mockito.verify(detailsRepository).add("1", Collections.singletonMap("height", "50"), 3L);
+        Mockito.verifyNoMoreInteractions(detailsRepository);
+    }
+
+    @Test
+    public void testSearchIsUpdatedOncePerEntityAfterRowsAreWritten() {
+        buffer.upsert(TABLE, row("1", "first_name", "Jane"));
+        buffer.updateSearch(TABLE, "1");
+        buffer.upsert(TABLE, row("1", "last_name", "Doe"));
+        buffer.updateSearch(TABLE, "1");
+
+        List<String> updated = buffer.flush();
+
+        Assert.assertEquals(Arrays.asList("1"), updated);
+        InOrder inOrder = Mockito.inOrder(commonRepository, allCommonsRepository);
+        inOrder.verify(commonRepository).executeInsertStatements(ArgumentMatchers.<ContentValues>anyCollection(), ArgumentMatchers.eq(TABLE));
+        inOrder.verify(allCommonsRepository).updateSearch(Arrays.asList("1"));
+    }
+
+    private ContentValues row(String baseEntityId, String column, String value) {
+        ContentValues values = new ContentValues();
+        values.put(CommonRepository.BASE_ENTITY_ID_COLUMN, baseEntityId);
+        values.put(column, value);
+        return values;
+    }
+}
@@ -0,0 +1,72 @@
+package org.smartregister.sync.helper;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+public class BatchSizeControllerTest extends BaseUnitTest {
+
+    @Test
+    public void testLatencyDominatedPagesDoubleUpToMax() {
+        BatchSizeController controller = new BatchSizeController(250, 50, 1000, 10000);
+
+        controller.onSuccess(2000, 500, 100000);
+        Assert.assertEquals(500, controller.getBatchSize());
+
+        controller.onSuccess(2000, 500, 100000);
+        controller.onSuccess(2000, 500, 100000);
+        Assert.assertEquals(1000, controller.getBatchSize());
+    }
+
+    @Test
+    public void testSlowPagesShrinkTowardsTargetDuration() {
+        BatchSizeController controller = new BatchSizeController(400, 50, 1000, 10000);
+
+        controller.onSuccess(1000, 19000, 100000);
+
+        Assert.assertEquals(200, controller.getBatchSize());
+    }
+
+    @Test
+    public void testTransferDominatedPagesGrowGradually() {
+        BatchSizeController controller = new BatchSizeController(200, 50, 1000, 10000);
+
+        controller.onSuccess(100, 2000, 100000);
+
+        Assert.assertEquals(250, controller.getBatchSize());
+    }
+
+    @Test
+    public void testPagesWithoutMeasuredLatencyNeverDouble() {
+        BatchSizeController controller = new BatchSizeController(200, 50, 1000, 10000);
+
+        controller.onSuccess(100, 100000);
+        Assert.assertEquals(250, controller.getBatchSize());
+
+        controller.onSuccess(50000, 100000);
+        Assert.assertEquals(50, controller.getBatchSize());
+    }
+
+    @Test
+    public void testFailuresHalveDownToMin() {
+        BatchSizeController controller = new BatchSizeController(250, 50, 1000);
+
+        controller.onFailure();
+        Assert.assertEquals(125, controller.getBatchSize());
+
+        controller.onFailure();
+        controller.onFailure();
+        Assert.assertEquals(50, controller.getBatchSize());
+    }
+
+    @Test
+    public void testEqualBoundsFixBatchSize() {
+        BatchSizeController controller = new BatchSizeController(100, 250, 250);
+
+        controller.onSuccess(5000, 100, 100);
+        controller.onFailure();
+
+        Assert.assertEquals(250, controller.getBatchSize());
+    }
+}
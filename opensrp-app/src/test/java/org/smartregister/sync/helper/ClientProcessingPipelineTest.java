@@ -0,0 +1,59 @@
+package org.smartregister.sync.helper;
+
+import android.util.Pair;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ClientProcessingPipelineTest extends BaseUnitTest {
+
+    @Test
+    public void testFinishWaitsForAllRangesInSubmissionOrder() throws Exception {
+        final List<Long> processed = Collections.synchronizedList(new ArrayList<Long>());
+        ClientProcessingPipeline pipeline = new ClientProcessingPipeline(new ClientProcessingPipeline.PageProcessor() {
+            @Override
+            public void process(Pair<Long, Long> serverVersionRange) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.add(serverVersionRange.first);
+            }
+        }, 1);
+
+        pipeline.start();
+        for (long i = 1; i <= 5; i++) {
+            pipeline.submit(Pair.create(i, i + 1));
+        }
+        pipeline.finish();
+
+        Assert.assertEquals(5, processed.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(Long.valueOf(i + 1), processed.get(i));
+        }
+    }
+
+    @Test
+    public void testSubmitProcessesInlineWhenNotStarted() throws Exception {
+        final List<Long> processed = new ArrayList<>();
+        ClientProcessingPipeline pipeline = new ClientProcessingPipeline(new ClientProcessingPipeline.PageProcessor() {
+            @Override
+            public void process(Pair<Long, Long> serverVersionRange) {
+                processed.add(serverVersionRange.second);
+            }
+        });
+
+        pipeline.submit(Pair.create(3L, 9L));
+
+        Assert.assertEquals(1, processed.size());
+        Assert.assertEquals(Long.valueOf(9L), processed.get(0));
+        pipeline.finish();
+    }
+}
@@ -0,0 +1,107 @@
+package org.smartregister.sync.helper;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.domain.SyncPage;
+import org.smartregister.repository.EventClientRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class ECSyncStreamParserTest extends BaseUnitTest {
+
+    private static final String PAGE = "{\"clients\":[{\"baseEntityId\":\"c1\",\"firstName\":\"Jane\"},{\"baseEntityId\":\"c2\",\"attributes\":{\"age\":12.5}}],"
+            + "\"events\":[{\"baseEntityId\":\"c1\",\"formSubmissionId\":\"f1\",\"serverVersion\":15,\"obs\":[]},"
+            + "{\"baseEntityId\":\"c2\",\"formSubmissionId\":\"f2\",\"serverVersion\":11,\"details\":null},"
+            + "{\"baseEntityId\":\"c2\",\"formSubmissionId\":\"f3\",\"serverVersion\":20}],"
+            + "\"no_of_events\":3,\"msg\":\"ignored\"}";
+
+    @Mock
+    private EventClientRepository eventClientRepository;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        Mockito.when(eventClientRepository.batchInsertClients(ArgumentMatchers.any(JSONArray.class))).thenReturn(true);
+        Mockito.when(eventClientRepository.batchInsertUnprocessedEvents(ArgumentMatchers.any(JSONArray.class))).thenReturn(true);
+        Mockito.when(eventClientRepository.releaseUnprocessedEvents()).thenReturn(true);
+    }
+
+    @Test
+    public void testProcessSavesClientsAndEventsAndTracksServerVersions() throws Exception {
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository);
+
+        SyncPage syncPage = parser.process(new ByteArrayInputStream(PAGE.getBytes("UTF-8")));
+
+        Assert.assertEquals(3, syncPage.getNoOfEvents());
+        Assert.assertEquals(3, syncPage.getEventCount());
+        Assert.assertEquals(2, syncPage.getClientCount());
+        Assert.assertEquals(11L, syncPage.getMinServerVersion());
+        Assert.assertEquals(20L, syncPage.getMaxServerVersion());
+
+        ArgumentCaptor<JSONArray> eventsCaptor = ArgumentCaptor.forClass(JSONArray.class);
+        Mockito.verify(eventClientRepository).batchInsertUnprocessedEvents(eventsCaptor.capture());
+        Assert.assertEquals(3, eventsCaptor.getValue().length());
+        Assert.assertEquals("f2", eventsCaptor.getValue().getJSONObject(1).getString("formSubmissionId"));
+        Mockito.verify(eventClientRepository).releaseUnprocessedEvents();
+    }
+
+    @Test
+    public void testProcessReleasesEventsOnlyAfterTheClientsAreSaved() throws Exception {
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository, 1);
+
+        parser.process(new ByteArrayInputStream(PAGE.getBytes("UTF-8")));
+
+        InOrder inOrder = Mockito.inOrder(eventClientRepository);
+        inOrder.verify(eventClientRepository, Mockito.times(2)).batchInsertClients(ArgumentMatchers.any(JSONArray.class));
+        inOrder.verify(eventClientRepository, Mockito.times(3)).batchInsertUnprocessedEvents(ArgumentMatchers.any(JSONArray.class));
+        inOrder.verify(eventClientRepository).releaseUnprocessedEvents();
+    }
+
+    @Test(expected = IOException.class)
+    public void testProcessThrowsWhenEventsCannotBeReleased() throws Exception {
+        Mockito.when(eventClientRepository.releaseUnprocessedEvents()).thenReturn(false);
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository);
+
+        parser.process(new ByteArrayInputStream(PAGE.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testProcessSavesInChunks() throws Exception {
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository, 2);
+
+        parser.process(new ByteArrayInputStream(PAGE.getBytes("UTF-8")));
+
+        Mockito.verify(eventClientRepository, Mockito.times(2)).batchInsertUnprocessedEvents(ArgumentMatchers.any(JSONArray.class));
+        Mockito.verify(eventClientRepository, Mockito.times(1)).batchInsertClients(ArgumentMatchers.any(JSONArray.class));
+    }
+
+    @Test(expected = IOException.class)
+    public void testProcessThrowsWhenEventsCannotBeSaved() throws Exception {
+        Mockito.when(eventClientRepository.batchInsertUnprocessedEvents(ArgumentMatchers.any(JSONArray.class))).thenReturn(false);
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository);
+
+        parser.process(new ByteArrayInputStream(PAGE.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testProcessReturnsUnknownCountWhenNoOfEventsIsMissing() throws Exception {
+        ECSyncStreamParser parser = new ECSyncStreamParser(eventClientRepository);
+
+        SyncPage syncPage = parser.process(new ByteArrayInputStream("{\"events\":[]}".getBytes("UTF-8")));
+
+        Assert.assertEquals(-1, syncPage.getNoOfEvents());
+        Assert.assertEquals(0L, syncPage.getMaxServerVersion());
+        Mockito.verifyZeroInteractions(eventClientRepository);
+    }
+}
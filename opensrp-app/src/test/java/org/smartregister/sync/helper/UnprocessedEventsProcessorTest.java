@@ -0,0 +1,173 @@
+package org.smartregister.sync.helper;
+
+import android.util.Pair;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.domain.db.Client;
+import org.smartregister.domain.db.Event;
+import org.smartregister.domain.db.EventClient;
+import org.smartregister.repository.EventClientRepository;
+import org.smartregister.sync.ClientProcessorForJava;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class UnprocessedEventsProcessorTest extends BaseUnitTest {
+
+    @Mock
+    private EventClientRepository eventClientRepository;
+
+    @Mock
+    private ECSyncHelper ecSyncHelper;
+
+    @Mock
+    private ClientProcessorForJava clientProcessor;
+
+    private UnprocessedEventsProcessor processor;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        processor = new UnprocessedEventsProcessor(RuntimeEnvironment.application, eventClientRepository, ecSyncHelper);
+    }
+
+    @Test
+    public void testProcessAllDrainsBatchesAndRecordsProgress() throws Exception {
+        List<EventClient> batch = eventClients(10, 12);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(2, 0);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.anyInt())).thenReturn(batch);
+        Mockito.when(eventClientRepository.markEventsAsProcessed(batch)).thenReturn(true);
+        Mockito.when(eventClientRepository.markEventsAsAwaitingClient(ArgumentMatchers.<EventClient>anyList())).thenReturn(true);
+
+        int processed = processor.processAll(clientProcessor);
+
+        Assert.assertEquals(2, processed);
+        Mockito.verify(clientProcessor).processClient(batch);
+        Mockito.verify(eventClientRepository).markEventsAsProcessed(batch);
+    }
+
+    @Test
+    public void testProcessRangeProcessesThePageAndRemovesItFromTheCheckpoint() throws Exception {
+        List<EventClient> batch = eventClients(10, 12);
+        Pair<Long, Long> page = Pair.create(10L, 12L);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount(10L, 12L)).thenReturn(2, 0);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.eq(10L), ArgumentMatchers.eq(12L), ArgumentMatchers.anyInt())).thenReturn(batch);
+        Mockito.when(eventClientRepository.markEventsAsProcessed(batch)).thenReturn(true);
+        Mockito.when(eventClientRepository.markEventsAsAwaitingClient(ArgumentMatchers.<EventClient>anyList())).thenReturn(true);
+
+        Assert.assertTrue(processor.processRange(clientProcessor, page));
+
+        Mockito.verify(clientProcessor).processClient(batch);
+        Mockito.verify(ecSyncHelper).onPageProcessed(page);
+        Mockito.verify(eventClientRepository, Mockito.never()).fetchUnprocessedEventClients(ArgumentMatchers.anyInt());
+    }
+
+    @Test
+    public void testProcessRangeLeavesAPageWithUnreadableEventsPending() throws Exception {
+        Pair<Long, Long> page = Pair.create(10L, 12L);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount(10L, 12L)).thenReturn(2);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.eq(10L), ArgumentMatchers.eq(12L), ArgumentMatchers.anyInt()))
+                .thenReturn(new ArrayList<EventClient>());
+
+        Assert.assertFalse(processor.processRange(clientProcessor, page));
+
+        Mockito.verify(ecSyncHelper, Mockito.never()).onPageProcessed(ArgumentMatchers.<Pair<Long, Long>>any());
+        Mockito.verifyZeroInteractions(clientProcessor);
+    }
+
+    @Test
+    public void testProcessAllLeavesEventsWithoutClientWaiting() throws Exception {
+        List<EventClient> batch = eventClients(10, 12);
+        batch.get(0).setClient(null);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(2, 0);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.anyInt())).thenReturn(batch);
+        Mockito.when(eventClientRepository.markEventsAsProcessed(ArgumentMatchers.<EventClient>anyList())).thenReturn(true);
+        Mockito.when(eventClientRepository.markEventsAsAwaitingClient(ArgumentMatchers.<EventClient>anyList())).thenReturn(true);
+
+        Assert.assertEquals(1, processor.processAll(clientProcessor));
+
+        Mockito.verify(clientProcessor).processClient(Collections.singletonList(batch.get(1)));
+        Mockito.verify(eventClientRepository).markEventsAsProcessed(Collections.singletonList(batch.get(1)));
+        Mockito.verify(eventClientRepository).markEventsAsAwaitingClient(Collections.singletonList(batch.get(0)));
+    }
+
+    @Test
+    public void testProcessAllContinuesPastUnreadableEvents() throws Exception {
+        List<EventClient> batch = eventClients(10);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(3, 1, 0);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.anyInt()))
+                .thenReturn(new ArrayList<EventClient>())
+                .thenReturn(batch);
+        Mockito.when(eventClientRepository.markEventsAsProcessed(batch)).thenReturn(true);
+        Mockito.when(eventClientRepository.markEventsAsAwaitingClient(ArgumentMatchers.<EventClient>anyList())).thenReturn(true);
+
+        Assert.assertEquals(1, processor.processAll(clientProcessor));
+        Mockito.verify(clientProcessor).processClient(batch);
+    }
+
+    @Test
+    public void testProcessAllStopsWhenNothingCanBeRead() throws Exception {
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(3);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.anyInt()))
+                .thenReturn(new ArrayList<EventClient>());
+
+        Assert.assertEquals(0, processor.processAll(clientProcessor));
+        Mockito.verify(eventClientRepository, Mockito.times(1)).fetchUnprocessedEventClients(ArgumentMatchers.anyInt());
+        Mockito.verifyZeroInteractions(clientProcessor);
+    }
+
+    @Test
+    public void testProcessAllStopsAfterRetriesWithoutMarkingEvents() throws Exception {
+        final List<Long> delays = new ArrayList<>();
+        processor = new UnprocessedEventsProcessor(RuntimeEnvironment.application, eventClientRepository, ecSyncHelper) {
+            @Override
+            protected void sleep(long millis) {
+                delays.add(millis);
+            }
+        };
+        List<EventClient> batch = eventClients(5);
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(1);
+        Mockito.when(eventClientRepository.fetchUnprocessedEventClients(ArgumentMatchers.anyInt())).thenReturn(batch);
+        Mockito.doThrow(new IllegalStateException("Unable to process")).when(clientProcessor).processClient(batch);
+
+        Assert.assertEquals(0, processor.processAll(clientProcessor));
+
+        Mockito.verify(clientProcessor, Mockito.times(UnprocessedEventsProcessor.MAX_RETRIES + 1)).processClient(batch);
+        Assert.assertEquals(Arrays.asList(2000L, 4000L, 6000L), delays);
+        Mockito.verify(eventClientRepository, Mockito.never()).markEventsAsProcessed(ArgumentMatchers.<EventClient>anyList());
+        Mockito.verify(eventClientRepository, Mockito.never()).markEventsAsAwaitingClient(ArgumentMatchers.<EventClient>anyList());
+    }
+
+    @Test
+    public void testProcessAllWithNothingToProcess() throws Exception {
+        Mockito.when(eventClientRepository.getUnprocessedEventsCount()).thenReturn(0);
+
+        Assert.assertEquals(0, processor.processAll(clientProcessor));
+        Mockito.verify(eventClientRepository, Mockito.never()).fetchUnprocessedEventClients(ArgumentMatchers.anyInt());
+        Mockito.verifyZeroInteractions(clientProcessor);
+    }
+
+    private List<EventClient> eventClients(long... serverVersions) {
+        List<EventClient> eventClients = new ArrayList<>();
+        for (long serverVersion : serverVersions) {
+            Event event = new Event();
+            event.setFormSubmissionId("form-" + serverVersion);
+            event.setServerVersion(serverVersion);
+            EventClient eventClient = new EventClient(event, new Client("client-" + serverVersion));
+            eventClient.setRowId(serverVersion);
+            eventClients.add(eventClient);
+        }
+        return eventClients;
+    }
+}
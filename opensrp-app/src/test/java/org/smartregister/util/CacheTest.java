@@ -11,6 +11,11 @@ import org.robolectric.RobolectricTestRunner;
 import org.smartregister.domain.FetchStatus;
 import org.smartregister.event.Event;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 @RunWith(RobolectricTestRunner.class)
 public class CacheTest {
     @Mock
@@ -52,14 +57,107 @@ public class CacheTest {
     }
 
     @Test
-    public void shouldClearCacheWhenFormIsSubmitted() throws Exception {
+    public void shouldClearEntriesWithoutEntitiesWhenAnEntityIsUpdated() throws Exception {
         Cache<String> cache = new Cache<String>();
         Mockito.when(cacheableData.fetch()).thenReturn("value");
 
         cache.get("key", cacheableData);
-        Event.FORM_SUBMITTED.notifyListeners("ec_registration");
+        Event.ENTITY_UPDATED.notifyListeners("entity-1");
 
         Assert.assertEquals("value", cache.get("key", cacheableData));
         Mockito.verify(cacheableData, Mockito.times(2)).fetch();
     }
+
+    @Test
+    public void shouldClearOnlyTheEntriesOfTheUpdatedEntity() throws Exception {
+        Cache<String> cache = new Cache<String>();
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+
+        cache.get("client-1", Arrays.asList("entity-1", "mother-1"), cacheableData);
+        cache.get("client-2", Arrays.asList("entity-2"), cacheableData);
+        Event.ENTITY_UPDATED.notifyListeners("mother-1");
+
+        Assert.assertEquals(1, cache.size());
+        cache.get("client-2", Arrays.asList("entity-2"), cacheableData);
+        Mockito.verify(cacheableData, Mockito.times(2)).fetch();
+
+        cache.get("client-1", Arrays.asList("entity-1", "mother-1"), cacheableData);
+        Mockito.verify(cacheableData, Mockito.times(3)).fetch();
+    }
+
+    @Test
+    public void shouldTagEntriesWithTheEntitiesAddedByTheFetch() throws Exception {
+        Cache<String> cache = new Cache<String>();
+        final Set<String> entityIds = new HashSet<>(Arrays.asList("entity-1"));
+
+        cache.get("client-1", entityIds, new CacheableData<String>() {
+            @Override
+            public String fetch() {
+                entityIds.add("child-1");
+                return "value";
+            }
+        });
+        Event.ENTITY_UPDATED.notifyListeners("child-1");
+
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldNotCacheValueFetchedWhileTheCacheWasInvalidated() throws Exception {
+        final Cache<String> cache = new Cache<String>();
+        CacheableData<String> staleData = new CacheableData<String>() {
+            @Override
+            public String fetch() {
+                cache.invalidateAll();
+                return "stale";
+            }
+        };
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+
+        Assert.assertEquals("stale", cache.get("key", staleData));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("value", cache.get("key", cacheableData));
+        Assert.assertEquals("value", cache.get("key", cacheableData));
+        Mockito.verify(cacheableData, Mockito.times(1)).fetch();
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntryWhenFull() throws Exception {
+        Cache<String> cache = new Cache<String>(2);
+        Mockito.when(cacheableData.fetch()).thenReturn("value");
+
+        cache.get("first", cacheableData);
+        cache.get("second", cacheableData);
+        cache.get("first", cacheableData);
+        cache.get("third", cacheableData);
+        cache.get("first", cacheableData);
+        cache.get("second", cacheableData);
+
+        Mockito.verify(cacheableData, Mockito.times(4)).fetch();
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.hitCount());
+        Assert.assertEquals(4, cache.missCount());
+        Assert.assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    public void shouldBoundEntriesByWeightAndKeepTheLatestEntry() throws Exception {
+        Cache<List<String>> cache = new Cache<List<String>>(3, Cache.COLLECTION_SIZE);
+
+        cache.get("small", listOf("a", "b"));
+        cache.get("large", listOf("a", "b", "c", "d"));
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(4, cache.weight());
+        Assert.assertEquals(1, cache.evictionCount());
+    }
+
+    private CacheableData<List<String>> listOf(final String... values) {
+        return new CacheableData<List<String>>() {
+            @Override
+            public List<String> fetch() {
+                return Arrays.asList(values);
+            }
+        };
+    }
 }
@@ -0,0 +1,78 @@
+package org.smartregister.util;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.smartregister.BaseUnitTest;
+import org.smartregister.domain.db.Address;
+import org.smartregister.domain.db.Client;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class FieldAccessorTest extends BaseUnitTest {
+
+    @Test
+    public void testOfReadsFieldsDeclaredBySuperclasses() {
+        Client client = new Client("base-entity-id");
+        client.setFirstName("Jane");
+
+        Assert.assertEquals("Jane", FieldAccessor.of(Client.class, "firstName").get(client));
+        Assert.assertEquals("base-entity-id", FieldAccessor.of(Client.class, "baseEntityId").get(client));
+    }
+
+    @Test
+    public void testOfReturnsCachedAccessor() {
+        Assert.assertSame(FieldAccessor.of(Client.class, "firstName"), FieldAccessor.of(Client.class, "firstName"));
+    }
+
+    @Test
+    public void testMissingFieldReadsNull() {
+        FieldAccessor accessor = FieldAccessor.of(Client.class, "doesNotExist");
+
+        Assert.assertNull(accessor.getName());
+        Assert.assertNull(accessor.get(new Client("base-entity-id")));
+        Assert.assertSame(accessor, FieldAccessor.of(Client.class, "doesNotExist"));
+    }
+
+    @Test
+    public void testAllOfIncludesEveryDeclaredField() {
+        Address address = new Address();
+        address.setCountry("Kenya");
+
+        Set<String> names = new HashSet<>();
+        for (FieldAccessor accessor : FieldAccessor.allOf(Address.class)) {
+            names.add(accessor.getName());
+            if ("country".equals(accessor.getName())) {
+                Assert.assertEquals("Kenya", accessor.get(address));
+            }
+        }
+
+        Assert.assertTrue(names.contains("country"));
+        Assert.assertTrue(names.contains("addressFields"));
+    }
+
+    @Test
+    public void testAllOfReadsHiddenSuperclassFieldsAsDeclared() {
+        Child child = new Child();
+
+        Set<Object> values = new HashSet<>();
+        for (FieldAccessor accessor : FieldAccessor.allOf(Child.class)) {
+            if ("name".equals(accessor.getName())) {
+                values.add(accessor.get(child));
+            }
+        }
+
+        Assert.assertEquals(2, values.size());
+        Assert.assertTrue(values.contains("parent"));
+        Assert.assertTrue(values.contains("child"));
+    }
+
+    private static class Parent {
+        private String name = "parent";
+    }
+
+    private static class Child extends Parent {
+        private String name = "child";
+    }
+}
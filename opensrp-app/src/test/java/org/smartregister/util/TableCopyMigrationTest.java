@@ -0,0 +1,172 @@
+package org.smartregister.util;
+
+import android.content.ContentValues;
+
+import junit.framework.Assert;
+
+import net.sqlcipher.MatrixCursor;
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.smartregister.BaseUnitTest;
+
+import java.util.Arrays;
+
+public class TableCopyMigrationTest extends BaseUnitTest {
+
+    @Mock
+    private SQLiteDatabase database;
+
+    private TableCopyMigration migration;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        migration = new TableCopyMigration("recreate_event", "event", "_v2event", Arrays.asList("json", "syncStatus"), null);
+    }
+
+    @Test
+    public void testScheduleRecordsTheMigrationAndMirrorsWrites() {
+        Mockito.when(database.query(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.any(String[].class), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(String[].class), ArgumentMatchers.<String>isNull(), ArgumentMatchers.<String>isNull(), ArgumentMatchers.anyString()))
+                .thenReturn(new MatrixCursor(new String[]{"name"}));
+
+        Assert.assertTrue(migration.schedule(database));
+
+        Mockito.verify(database).insert(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.<String>isNull(), ArgumentMatchers.any(ContentValues.class));
+        Mockito.verify(database).execSQL("CREATE TRIGGER IF NOT EXISTS recreate_event_insert AFTER INSERT ON event BEGIN "
+                + "INSERT OR REPLACE INTO _v2event (rowid, json, syncStatus) VALUES (NEW.rowid, NEW.json, NEW.syncStatus); END");
+        Mockito.verify(database).execSQL("CREATE TRIGGER IF NOT EXISTS recreate_event_update AFTER UPDATE ON event BEGIN "
+                + "DELETE FROM _v2event WHERE rowid = OLD.rowid; "
+                + "INSERT OR REPLACE INTO _v2event (rowid, json, syncStatus) VALUES (NEW.rowid, NEW.json, NEW.syncStatus); END");
+        Mockito.verify(database).execSQL("CREATE TRIGGER IF NOT EXISTS recreate_event_delete AFTER DELETE ON event BEGIN "
+                + "DELETE FROM _v2event WHERE rowid = OLD.rowid; END");
+    }
+
+    @Test
+    public void testMigrateChunkCopiesTheNextRowsAndSavesProgress() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"max", "count"});
+        cursor.addRow(new Object[]{20L, 10});
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT max(rowid), count(*) FROM (SELECT rowid FROM event"), ArgumentMatchers.any(String[].class))).thenReturn(cursor);
+
+        Assert.assertEquals(10, migration.migrateChunk(database, 10));
+
+        Assert.assertEquals(20L, migration.getLastRowId());
+        InOrder inOrder = Mockito.inOrder(database);
+        inOrder.verify(database).beginTransaction();
+        inOrder.verify(database).execSQL("INSERT OR IGNORE INTO _v2event (rowid, json, syncStatus) SELECT rowid, json, syncStatus FROM event WHERE rowid > ? AND rowid <= ?",
+                new Object[]{0L, 20L});
+        ArgumentCaptor<ContentValues> valuesCaptor = ArgumentCaptor.forClass(ContentValues.class);
+        inOrder.verify(database).update(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), valuesCaptor.capture(), ArgumentMatchers.anyString(), ArgumentMatchers.eq(new String[]{"recreate_event"}));
+        inOrder.verify(database).setTransactionSuccessful();
+        inOrder.verify(database).endTransaction();
+        Assert.assertEquals(Long.valueOf(20), valuesCaptor.getValue().getAsLong("last_row_id"));
+    }
+
+    @Test
+    public void testMigrateChunkReturnsZeroWhenEveryRowIsCopied() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"max", "count"});
+        cursor.addRow(new Object[]{null, 0});
+        Mockito.when(database.rawQuery(ArgumentMatchers.anyString(), ArgumentMatchers.any(String[].class))).thenReturn(cursor);
+
+        Assert.assertEquals(0, migration.migrateChunk(database, 10));
+        Mockito.verify(database, Mockito.never()).beginTransaction();
+    }
+
+    @Test
+    public void testCompleteSwapsInTheCopyWithItsIndexes() {
+        MatrixCursor tables = new MatrixCursor(new String[]{"name"});
+        tables.addRow(new Object[]{"_v2event"});
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT name FROM sqlite_master"), ArgumentMatchers.eq(new String[]{"_v2event"}))).thenReturn(tables);
+
+        migration.complete(database);
+
+        InOrder inOrder = Mockito.inOrder(database);
+        inOrder.verify(database).beginTransaction();
+        inOrder.verify(database).execSQL("DROP TRIGGER IF EXISTS recreate_event_insert");
+        inOrder.verify(database).execSQL("DROP TABLE event");
+        inOrder.verify(database).execSQL("ALTER TABLE _v2event RENAME TO event");
+        inOrder.verify(database).execSQL("CREATE INDEX IF NOT EXISTS event_syncStatus_updatedAt_index ON event (syncStatus, updatedAt); ");
+        inOrder.verify(database).setTransactionSuccessful();
+        inOrder.verify(database).endTransaction();
+        inOrder.verify(database).update(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.any(ContentValues.class),
+                ArgumentMatchers.anyString(), ArgumentMatchers.eq(new String[]{"recreate_event"}));
+    }
+
+    @Test
+    public void testCompleteRebuildsSearchRowsBeforeMarkingAnInterruptedMigrationCompleted() {
+        TableCopyMigration searchMigration = new TableCopyMigration("fts_ec_child", "ec_child_search", "ec_child_search_v2", Arrays.asList("object_id", "phrase"), "ec_child");
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT name FROM sqlite_master"), ArgumentMatchers.any(String[].class)))
+                .thenReturn(new MatrixCursor(new String[]{"name"}));
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT row_id FROM " + TableCopyMigration.CHANGED_ROWS_TABLE), ArgumentMatchers.any(String[].class)))
+                .thenReturn(new MatrixCursor(new String[]{"row_id"}));
+
+        Assert.assertTrue(searchMigration.isSwapped(database));
+        searchMigration.complete(database);
+
+        Mockito.verify(database, Mockito.never()).execSQL("DROP TABLE ec_child_search");
+        InOrder inOrder = Mockito.inOrder(database);
+        inOrder.verify(database).rawQuery(ArgumentMatchers.startsWith("SELECT row_id FROM " + TableCopyMigration.CHANGED_ROWS_TABLE), ArgumentMatchers.any(String[].class));
+        inOrder.verify(database).beginTransaction();
+        inOrder.verify(database).delete(TableCopyMigration.CHANGED_ROWS_TABLE, "migration = ?", new String[]{"fts_ec_child"});
+        ArgumentCaptor<ContentValues> valuesCaptor = ArgumentCaptor.forClass(ContentValues.class);
+        inOrder.verify(database).update(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), valuesCaptor.capture(), ArgumentMatchers.anyString(), ArgumentMatchers.eq(new String[]{"fts_ec_child"}));
+        inOrder.verify(database).setTransactionSuccessful();
+        inOrder.verify(database).endTransaction();
+        Assert.assertEquals(Integer.valueOf(1), valuesCaptor.getValue().getAsInteger("completed"));
+    }
+
+    @Test
+    public void testScheduleOfASearchTableRecordsDeletedRegisterRows() {
+        TableCopyMigration searchMigration = new TableCopyMigration("fts_ec_child", "ec_child_search", "ec_child_search_v2", Arrays.asList("object_id", "phrase"), "ec_child");
+        Mockito.when(database.query(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.any(String[].class), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(String[].class), ArgumentMatchers.<String>isNull(), ArgumentMatchers.<String>isNull(), ArgumentMatchers.anyString()))
+                .thenReturn(new MatrixCursor(new String[]{"name"}));
+
+        Assert.assertTrue(searchMigration.schedule(database));
+
+        Mockito.verify(database).execSQL("CREATE TRIGGER IF NOT EXISTS fts_ec_child_delete AFTER DELETE ON ec_child BEGIN "
+                + "INSERT OR IGNORE INTO " + TableCopyMigration.CHANGED_ROWS_TABLE + " (migration, row_id) VALUES ('fts_ec_child', OLD.id); END");
+    }
+
+    @Test
+    public void testCompleteDeletesTheSearchRowsOfRegisterRowsDeletedDuringTheCopy() {
+        TableCopyMigration searchMigration = new TableCopyMigration("fts_ec_child", "ec_child_search", "ec_child_search_v2", Arrays.asList("object_id", "phrase"), "ec_child");
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT name FROM sqlite_master"), ArgumentMatchers.any(String[].class)))
+                .thenReturn(new MatrixCursor(new String[]{"name"}));
+        MatrixCursor changedRows = new MatrixCursor(new String[]{"row_id"});
+        changedRows.addRow(new Object[]{"client-1"});
+        changedRows.addRow(new Object[]{"client-2"});
+        Mockito.when(database.rawQuery(ArgumentMatchers.startsWith("SELECT row_id FROM " + TableCopyMigration.CHANGED_ROWS_TABLE), ArgumentMatchers.any(String[].class)))
+                .thenReturn(changedRows);
+        Mockito.when(database.rawQuery(ArgumentMatchers.eq("SELECT id FROM ec_child WHERE id IN (?, ?)"), ArgumentMatchers.any(String[].class)))
+                .thenReturn(new MatrixCursor(new String[]{"id"}));
+
+        searchMigration.complete(database);
+
+        InOrder inOrder = Mockito.inOrder(database);
+        inOrder.verify(database).delete("ec_child_search", "object_id IN (?, ?)", new String[]{"client-1", "client-2"});
+        inOrder.verify(database).delete(TableCopyMigration.CHANGED_ROWS_TABLE, "migration = ?", new String[]{"fts_ec_child"});
+    }
+
+    @Test
+    public void testIsPendingCreatesTheMigrationTablesBeforeReadingThem() {
+        Mockito.when(database.query(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.any(String[].class), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(String[].class), ArgumentMatchers.<String>isNull(), ArgumentMatchers.<String>isNull(), ArgumentMatchers.anyString()))
+                .thenReturn(new MatrixCursor(new String[]{"name"}));
+
+        Assert.assertFalse(TableCopyMigration.isPending(database, "recreate_event"));
+
+        InOrder inOrder = Mockito.inOrder(database);
+        inOrder.verify(database).execSQL(ArgumentMatchers.startsWith("CREATE TABLE IF NOT EXISTS " + TableCopyMigration.PROGRESS_TABLE));
+        inOrder.verify(database).query(ArgumentMatchers.eq(TableCopyMigration.PROGRESS_TABLE), ArgumentMatchers.any(String[].class), ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(String[].class), ArgumentMatchers.<String>isNull(), ArgumentMatchers.<String>isNull(), ArgumentMatchers.anyString());
+    }
+}
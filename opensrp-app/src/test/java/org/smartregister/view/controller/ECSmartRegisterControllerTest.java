@@ -14,6 +14,7 @@ import org.robolectric.RobolectricTestRunner;
 import org.smartregister.domain.Child;
 import org.smartregister.domain.EligibleCouple;
 import org.smartregister.domain.Mother;
+import org.smartregister.event.Event;
 import org.smartregister.repository.AllBeneficiaries;
 import org.smartregister.repository.AllEligibleCouples;
 import org.smartregister.util.Cache;
@@ -61,6 +62,22 @@ public class ECSmartRegisterControllerTest {
         Assert.assertEquals(Arrays.asList(expectedClient1, expectedClient2, expectedClient3), actualClients);
     }
 
+    @Test
+    public void shouldRebuildOnlyTheClientsOfTheUpdatedEntities() throws Exception {
+        EligibleCouple ec1 = new EligibleCouple("entity id 1", "Woman A", "Husband A", "1", "Bherya", null, emptyDetails);
+        EligibleCouple ec2 = new EligibleCouple("entity id 2", "Woman B", "Husband B", "2", "Bherya", null, emptyDetails);
+        Mockito.when(allEligibleCouples.all()).thenReturn(Arrays.asList(ec1, ec2));
+
+        controller.getClients();
+        Event.ENTITY_UPDATED.notifyListeners("entity id 2");
+        ECClients clients = controller.getClients();
+
+        Assert.assertEquals(2, clients.size());
+        Mockito.verify(allEligibleCouples, Mockito.times(2)).all();
+        Mockito.verify(allBeneficiaries).findMotherWithOpenStatusByECId("entity id 1");
+        Mockito.verify(allBeneficiaries, Mockito.times(2)).findMotherWithOpenStatusByECId("entity id 2");
+    }
+
     private ECClient createECClient(String entityId, String name, String husbandName, String village, Integer ecNumber) {
         return new ECClient(entityId, name, husbandName, village, ecNumber)
                 .withPhotoPath("../../img/woman-placeholder.png")